@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs many commands read from standard input in one process, within one
+ * Session, so they share the loaded staging index, head commit and object
+ * caches. By default each line is a command, its arguments separated by
+ * spaces; an argument may be put in double quotes, inside which \" and \\
+ * stand for " and \. Blank lines and lines starting with # are skipped.
+ * With -z, each argument instead ends with a NUL byte and each command with
+ * a second NUL byte, so arguments may hold any other character but cannot
+ * be empty. The line "checkpoint" (or the single argument in -z mode)
+ * writes the staging index to disk. Commands that read standard input
+ * themselves, or start a batch or daemon of their own, are rejected.
+ * @author Nora Povejsil
+ */
+class Batch {
+    /**
+     * Commands that cannot run within a batch.
+     */
+    private static final Set<String> REJECTED = Set.of("import", "daemon",
+            "--batch");
+
+    /**
+     * Run the batch command with ARGS: "--batch", optionally followed by
+     * "-z".
+     * @param args
+     */
+    static void command(String... args) {
+        boolean nul = args.length == 2 && args[1].equals("-z");
+        if (args.length > 2 || args.length == 2 && !nul) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        Session.begin();
+        try {
+            if (nul) {
+                runNul(new BufferedInputStream(System.in));
+            } else {
+                runLines(new BufferedReader(new InputStreamReader(System.in,
+                        StandardCharsets.UTF_8)));
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            Session.end();
+        }
+    }
+
+    /**
+     * Run the commands in IN, one per line.
+     * @param in
+     */
+    private static void runLines(BufferedReader in) throws IOException {
+        for (String line = in.readLine(); line != null;
+             line = in.readLine()) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                run(split(trimmed));
+            }
+        }
+    }
+
+    /**
+     * Run the commands in IN, given as NUL-terminated arguments with a
+     * NUL after each command.
+     * @param in
+     */
+    private static void runNul(InputStream in) throws IOException {
+        List<String> args = new ArrayList<>();
+        ByteArrayOutputStream arg = new ByteArrayOutputStream();
+        for (int b = in.read(); b != -1; b = in.read()) {
+            if (b != 0) {
+                arg.write(b);
+            } else if (arg.size() > 0) {
+                args.add(arg.toString(StandardCharsets.UTF_8));
+                arg.reset();
+            } else if (!args.isEmpty()) {
+                run(args.toArray(new String[0]));
+                args.clear();
+            }
+        }
+        if (arg.size() > 0) {
+            args.add(arg.toString(StandardCharsets.UTF_8));
+        }
+        if (!args.isEmpty()) {
+            run(args.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Run the command ARGS in the session, then drop what it left
+     * unwritten.
+     * @param args
+     */
+    private static void run(String... args) {
+        if (args.length == 1 && args[0].equals("checkpoint")) {
+            Session.checkpoint();
+        } else if (REJECTED.contains(args[0])) {
+            System.out.println(String.format("Cannot run %s in a batch.",
+                    args[0]));
+        } else {
+            Main.run(args);
+            Session.settle();
+        }
+    }
+
+    /**
+     * The arguments in LINE, separated by spaces, with double quotes
+     * grouping and \" and \\ escaping within them.
+     * @param line
+     * @return args
+     */
+    static String[] split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean quoted = false;
+        boolean started = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quoted && c == '\\' && i + 1 < line.length()
+                    && (line.charAt(i + 1) == '"'
+                        || line.charAt(i + 1) == '\\')) {
+                i += 1;
+                arg.append(line.charAt(i));
+            } else if (c == '"') {
+                quoted = !quoted;
+                started = true;
+            } else if (!quoted && Character.isWhitespace(c)) {
+                if (started) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    started = false;
+                }
+            } else {
+                arg.append(c);
+                started = true;
+            }
+        }
+        if (started) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
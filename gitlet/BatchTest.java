@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of running commands in a batch Session.
+ * @author Nora Povejsil
+ */
+public class BatchTest {
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * Run the commands LINES as a batch and return what was printed.
+     * @param lines
+     * @return output
+     */
+    private static String batch(String lines) {
+        InputStream oldIn = System.in;
+        PrintStream oldOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setIn(new ByteArrayInputStream(
+                lines.getBytes(StandardCharsets.UTF_8)));
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            Config.reload();
+            Batch.command("--batch");
+        } finally {
+            System.setIn(oldIn);
+            System.setOut(oldOut);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Changes a command makes to the shared staging index without writing
+     * it are dropped when the command ends, while those of the commands
+     * before it are still written at the end of the batch.
+     */
+    @Test
+    public void unwrittenChangesDropped() {
+        repo.write("a.txt", "a\n");
+        repo.write("b.txt", "b\n");
+        repo.commit("b", "b.txt");
+        Session.begin();
+        try {
+            repo.quiet("add", "a.txt");
+            StagingIndex index = StagingIndex.read();
+            index.stageRemove("b.txt", index.headBlob("b.txt"));
+            index.unstage("a.txt");
+            assertFalse(index.isAdded("a.txt"));
+            Session.settle();
+            assertTrue(index == StagingIndex.read());
+            assertTrue(index.isAdded("a.txt"));
+            assertFalse(index.isRemoved("b.txt"));
+        } finally {
+            Session.end();
+        }
+        StagingIndex index = StagingIndex.read();
+        assertTrue(index.isAdded("a.txt"));
+        assertFalse(index.isRemoved("b.txt"));
+    }
+
+    /**
+     * A batch runs its commands in order, and rejects those that would
+     * read its input or start a batch or daemon of their own.
+     */
+    @Test
+    public void rejectedCommands() {
+        repo.write("a.txt", "a\n");
+        String output = batch("add a.txt\nimport\ndaemon start\n"
+                + "--batch\ncommit \"a file\"\nfind \"a file\"\n");
+        assertEquals("Cannot run import in a batch.\n"
+                + "Cannot run daemon in a batch.\n"
+                + "Cannot run --batch in a batch.\n" + repo.head() + "\n",
+                output);
+        assertNotNull(Command.readCommit(repo.head()).getBlob("a.txt"));
+    }
+}
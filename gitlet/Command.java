@@ -1,12 +1,17 @@
 package gitlet;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Map;
 import java.util.List;
-import java.util.Set;
+import java.util.Objects;
 
 /**
  * All the commands for Gitlet.
@@ -29,13 +34,15 @@ public class Command {
     static final File COMMIT_DIR = Utils.join(GITLET_FOLDER, "COMMIT_DIR");
 
     /**
-     * Removal subfolder in STAGE_DIR.
+     * Removal subfolder in STAGE_DIR. Only read when moving an older
+     * repository to StagingIndex.
      */
     static final File STAGE_REMOVAL = Utils.join(GITLET_FOLDER,
             "STAGE_REMOVAL");
 
     /**
-     * Add subfolder in STAGE_DIR.
+     * Add subfolder in STAGE_DIR. Only read when moving an older
+     * repository to StagingIndex.
      */
     static final File STAGE_ADD = Utils.join(GITLET_FOLDER, "STAGE_ADD");
 
@@ -54,6 +61,11 @@ public class Command {
      */
     static final File BLOBS = Utils.join(GITLET_FOLDER, "BLOBS");
 
+    /**
+     * Trees subfolder in GITLET_FOLDER.
+     */
+    static final File TREES = Utils.join(GITLET_FOLDER, "TREES");
+
     /**
      * Branches subfolder in GITLET_FOLDER.
      */
@@ -65,6 +77,11 @@ public class Command {
     static final File ACTIVE_BRANCH = Utils.join(GITLET_FOLDER,
             "ACTIVE_BRANCH");
 
+    /**
+     * Decoded commits by id.
+     */
+    static final ObjectCache<Commit> COMMITS = new ObjectCache<>("commits");
+
     /**
      * Creates a new Gitlet version-control system in the current directory.
      */
@@ -78,20 +95,20 @@ public class Command {
         } else {
             GITLET_FOLDER.mkdir();
             COMMIT_DIR.mkdirs();
-            STAGE_ADD.mkdirs();
-            STAGE_REMOVAL.mkdirs();
             BLOBS.mkdirs();
+            TREES.mkdirs();
             BRANCHES.mkdirs();
+            ObjectStore.checkLayout();
             try {
                 ACTIVE_BRANCH.createNewFile();
             } catch (IOException ioException) {
                 throw new GitletException("wrong");
             }
             Utils.writeContents(ACTIVE_BRANCH, "master");
+            new StagingIndex().write();
             Commit initialCommit = new Commit("initial commit",
                     new TreeMap<>(), null, null, true);
-            byte[] initialCommitSerial = Utils.serialize(initialCommit);
-            String initialCommitSHA1 = Utils.sha1(initialCommitSerial);
+            String initialCommitSHA1 = writeCommit(initialCommit);
             File pointer = Utils.join(BRANCHES, "master");
             try {
                 pointer.createNewFile();
@@ -100,8 +117,6 @@ public class Command {
             }
 
             Utils.writeContents(pointer, initialCommitSHA1);
-            File initialCommitFile = Utils.join(COMMIT_DIR, initialCommitSHA1);
-            Utils.writeObject(initialCommitFile, initialCommit);
             head = initialCommit;
             File initialBranch = Utils.join(BRANCHES,
                     Utils.readContentsAsString(ACTIVE_BRANCH));
@@ -116,47 +131,60 @@ public class Command {
      */
     @SuppressWarnings(("unchecked"))
     public static void commit(String msg) {
-        File[] allFiles = STAGE_ADD.listFiles();
-        File[] removeFiles = STAGE_REMOVAL.listFiles();
-        if (allFiles.length == 0 && removeFiles.length == 0) {
+        StagingIndex index = readIndex();
+        if (index.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         } else if (msg.equals("")) {
             System.out.println("Please enter a commit message.");
             return;
         } else {
-            TreeMap<String, String> commits = new TreeMap<>();
-            for (int i = 0; i < allFiles.length; i += 1) {
-                String blob = Utils.readContentsAsString(allFiles[i]);
-                String blobSHA1 = Utils.sha1(blob);
-                commits.put(allFiles[i].getName(), blobSHA1);
-                File blobFile = Utils.join(BLOBS, blobSHA1);
-                Utils.writeContents(blobFile, blob);
+            TreeMap<String, String> changes = index.added();
+            for (String removed : index.removed().keySet()) {
+                changes.put(removed, null);
             }
-            Commit c = new Commit(msg, commits, getRecentCommit(),
-                    null, false);
-            byte[] serializedC = Utils.serialize(c);
-            String cSHA1 = Utils.sha1(serializedC);
-            File cStored = Utils.join(COMMIT_DIR, cSHA1);
-            Utils.writeObject(cStored, c);
-            deleteFolder(STAGE_ADD);
-            STAGE_ADD.mkdirs();
+            String tree = Tree.update(getRCommit().getTree(), changes);
+            Commit c = new Commit(msg, tree, getRecentCommit(), null);
+            String cSHA1 = writeCommit(c);
+            index.clear();
+            index.syncHead(tree);
+            index.write();
             head = c;
-            File branchPointer = Utils.join(BRANCHES,
-                    Utils.readContentsAsString(ACTIVE_BRANCH));
-            Utils.writeContents(branchPointer, cSHA1);
-            if (removeFiles.length > 0) {
-                for (int i = 0; i < STAGE_REMOVAL.listFiles().length; i += 1) {
-                    stageRemoveRemove(STAGE_REMOVAL.listFiles()[i].getName());
-                }
-            }
+            setRecentCommit(cSHA1);
         }
     }
 
+    /** Store commit C under its id, record it in the commit graph, the
+     * commit id index and the message indexes and return the id.
+     * @param c
+     * @return commitSHA1
+     */
+    static String writeCommit(Commit c) {
+        String cSHA1 = storeCommit(c);
+        CommitGraph.append(cSHA1, c);
+        CommitIndex.add(cSHA1);
+        MessageIndex.add(cSHA1, c);
+        return cSHA1;
+    }
+
+    /** Store commit C under its id, without recording it in any index,
+     * and return the id.
+     * @param c
+     * @return commitSHA1
+     */
+    static String storeCommit(Commit c) {
+        byte[] serialized = CommitFormat.encode(c);
+        String cSHA1 = Utils.sha1(serialized);
+        ObjectStore.write(COMMIT_DIR, cSHA1, serialized);
+        c.setId(cSHA1);
+        COMMITS.put(cSHA1, c);
+        return cSHA1;
+    }
+
     /** Delete folder.
      * @param folder
      */
-    private static void deleteFolder(File folder) {
+    static void deleteFolder(File folder) {
         File[] files = folder.listFiles();
         if (files != null) {
             for (File f : files) {
@@ -174,102 +202,213 @@ public class Command {
      */
 
     public static String getRecentCommit() {
-        String branchName = Utils.readContentsAsString(ACTIVE_BRANCH);
-        File f = Utils.join(BRANCHES, branchName);
-        String recentCommitSha1 = Utils.readContentsAsString(f);
+        String recentCommitSha1 = Session.head();
+        if (recentCommitSha1 == null) {
+            String branchName = Utils.readContentsAsString(ACTIVE_BRANCH);
+            File f = Utils.join(BRANCHES, branchName);
+            recentCommitSha1 = Utils.readContentsAsString(f);
+            Session.setHead(recentCommitSha1);
+        }
         return recentCommitSha1;
     }
 
+    /** Point the current branch at commit COMMITSHA1. A batch Session
+     * writes its staging index first, so that on disk the index never
+     * lags behind the branch.
+     * @param commitSHA1
+     */
+    static void setRecentCommit(String commitSHA1) {
+        Session.checkpoint();
+        File branchPointer = Utils.join(BRANCHES,
+                Utils.readContentsAsString(ACTIVE_BRANCH));
+        Utils.writeContents(branchPointer, commitSHA1);
+        Session.setHead(commitSHA1);
+    }
+
 
     /**
-     * Adds a copy of the file as it currently exists to the staging area
-     * (see the description of the commit command).
-     * @param file
+     * Adds a copy of the files as they currently exist to the staging area
+     * (see the description of the commit command). Each operand may be a
+     * file, a directory, whose files are all added, a glob pattern matched
+     * against the paths of the files in the working directory, or the
+     * working directory itself ("."); "-A" stages every file and also
+     * stages tracked files that were deleted for removal.
+     * The head commit and staging area are read once, files are hashed
+     * and stored in parallel, and the staging area is written once.
+     * @param files
      */
-    public static void add(String file) {
-        File convert = gitlet.Utils.join(CWD, file);
-        if (!convert.exists()) {
-            System.out.println("File does not exist.");
+    public static void add(String... files) {
+        if (files.length == 0) {
+            System.out.println("Incorrect operands.");
             return;
         }
-        String blob = Utils.readContentsAsString(convert);
-        String blobSHA1 = Utils.sha1(blob);
-        String recentCommitSha1 = getRecentCommit();
-        Commit recentCommit = readCommit(recentCommitSha1);
-        TreeMap<String, String> blobMap = recentCommit.getBlobs();
-        if (blobMap.containsKey(file)) {
-            String commitBlobSHA1 = blobMap.get(file);
-            if (!commitBlobSHA1.equals(blobSHA1)) {
-                stageAdd(file, blob);
-                stageRemoveRemove(file);
-            } else {
-                stageAddRemove(file);
-                stageRemoveRemove(file);
+        TreeSet<String> names = new TreeSet<>();
+        boolean all = false;
+        for (String arg : files) {
+            String operand = arg.equals("-A") ? arg : normalize(arg);
+            if (operand.equals("-A") || operand.equals(".")) {
+                all = true;
+                names.addAll(WorkTree.fileNames());
+            } else if (isGlob(operand)) {
+                PathMatcher matcher = FileSystems.getDefault()
+                        .getPathMatcher("glob:" + operand);
+                int matched = 0;
+                for (String name : WorkTree.fileNames()) {
+                    if (matcher.matches(Paths.get(name))) {
+                        names.add(name);
+                        matched += 1;
+                    }
+                }
+                if (matched == 0) {
+                    System.out.println("File does not exist.");
+                    return;
+                }
+            } else if (Utils.join(CWD, operand).isDirectory()) {
+                String prefix = operand + Tree.SEPARATOR;
+                for (String name : WorkTree.fileNames()) {
+                    if (name.startsWith(prefix)) {
+                        names.add(name);
+                    }
+                }
+            } else if (!Utils.join(CWD, operand).exists()) {
+                System.out.println("File does not exist.");
                 return;
+            } else {
+                names.add(operand);
+            }
+        }
+        StagingIndex index = readIndex();
+        WorkTree tree = WorkTree.scan(index, new ArrayList<>(names), true);
+        for (Map.Entry<String, String> entry : tree.blobs().entrySet()) {
+            String file = entry.getKey();
+            String blobSHA1 = entry.getValue();
+            if (blobSHA1.equals(index.headBlob(file))) {
+                index.unstage(file);
+            } else {
+                index.stageAdd(file, blobSHA1, tree.stat(file));
             }
-        } else {
-            stageAdd(file, blob);
         }
+        if (all) {
+            for (Map.Entry<String, String> entry
+                    : index.headBlobs().entrySet()) {
+                if (!tree.contains(entry.getKey())) {
+                    index.stageRemove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        index.write();
     }
 
     /**
-     * Adds a copy of the file as it currently exists to the staging area
-     * (see the description of the commit command).
-     * @param file
-     * @param blob
+     * Return true iff OPERAND is a glob pattern rather than a file name.
+     * @param operand
+     * @return boolean
      */
-    public static void stageAdd(String file, String blob) {
-        File addFile = Utils.join(STAGE_ADD, file);
-        if (addFile.exists()) {
-            Utils.writeContents(addFile, blob);
-            return;
-        }
-        try {
-            addFile.createNewFile();
-        } catch (IOException ioException) {
-            throw new GitletException("wrong");
+    private static boolean isGlob(String operand) {
+        return operand.matches(".*[*?\\[{].*")
+                && !Utils.join(CWD, operand).exists();
+    }
+
+    /**
+     * Return PATH, a path relative to CWD, in the form used in trees and
+     * the staging index: normalized and with '/' between names. PATH must
+     * not lead outside CWD, by being absolute or by starting with "..".
+     * @param path
+     * @return path
+     */
+    static String normalize(String path) {
+        Path normal = Paths.get(path).normalize();
+        if (normal.isAbsolute() || normal.startsWith("..")) {
+            throw Utils.error("Path %s is outside the repository.", path);
         }
-        Utils.writeContents(addFile, blob);
+        String result = normal.toString()
+                .replace(File.separatorChar, Tree.SEPARATOR);
+        return result.isEmpty() ? "." : result;
     }
+
     /**
-     * Adds a copy of the file as it currently exists to the staging area
-     * (see the description of the commit command).
-     * @param file
+     * Read the staging index, with the files of the head commit recorded
+     * in it.
+     * @return index
      */
+    static StagingIndex readIndex() {
+        StagingIndex index = StagingIndex.read();
+        index.syncHead(getRCommit().getTree());
+        return index;
+    }
 
-    public static void stageRemoveRemove(String file) {
-        File removeFile = Utils.join(STAGE_REMOVAL, file);
-        if (removeFile.exists()) {
-            removeFile.delete();
+    /**
+     * Delete the working file PATH, if there is one, and then the
+     * directories above it that this leaves empty.
+     * @param path
+     */
+    static void deleteWorkingFile(String path) {
+        File file = Utils.join(CWD, path);
+        if (!file.isFile()) {
             return;
         }
+        file.delete();
+        int slash = path.lastIndexOf(Tree.SEPARATOR);
+        while (slash > 0) {
+            File dir = Utils.join(CWD, path.substring(0, slash));
+            String[] left = dir.list();
+            if (left == null || left.length > 0) {
+                return;
+            }
+            dir.delete();
+            slash = path.lastIndexOf(Tree.SEPARATOR, slash - 1);
+        }
     }
+
     /**
-     * Adds a copy of the file as it currently exists to the staging area
-     * (see the description of the commit command).
-     * @param file
+     * Return the id of the blob staged in STAGEDFILE. Staging areas written
+     * before blobs were stored at add time hold the file contents instead;
+     * those are stored now.
+     * @param stagedFile
+     * @return blobSHA1
      */
-
-    public static void stageAddRemove(String file) {
-        File addFile = Utils.join(STAGE_ADD, file);
-        if (addFile.exists()) {
-            addFile.delete();
-            return;
+    static String stagedBlob(File stagedFile) {
+        if (stagedFile.length() == Utils.UID_LENGTH) {
+            String blobSHA1 = Utils.readContentsAsString(stagedFile);
+            if (blobSHA1.matches("[0-9a-f]+")
+                    && ObjectStore.contains(blobSHA1)) {
+                return blobSHA1;
+            }
         }
+        return ObjectStore.ingest(stagedFile);
     }
+
     /**
-     * Adds a copy of the file as it currently exists to the staging area
-     * (see the description of the commit command).
+     * Read the commit stored under COMMITSHA1, in either the binary or the
+     * older serialized format. The commit remembers its id,
+     * so callers never need to re-serialize it to recompute the id. With
+     * the verify setting on, the id is checked against the stored bytes.
+     * Decoded commits are kept in COMMITS, so a commit read again by the
+     * same command is not decoded again.
      * @param commitSHA1
      * @return commit
      */
 
     public static Commit readCommit(String commitSHA1) {
-        File commitFile = Utils.join(COMMIT_DIR, commitSHA1);
-        if (!commitFile.exists()) {
+        return COMMITS.get(commitSHA1, Command::loadCommit);
+    }
+
+    /**
+     * Read and decode the commit stored under COMMITSHA1.
+     * @param commitSHA1
+     * @return commit
+     */
+    private static Commit loadCommit(String commitSHA1) {
+        byte[] data = ObjectStore.read(COMMIT_DIR, commitSHA1);
+        if (data == null) {
             throw new GitletException("no file");
         }
-        Commit commit = Utils.readObject(commitFile, Commit.class);
+        if (Config.getBoolean(Config.VERIFY, false)
+                && !Utils.sha1(data).equals(commitSHA1)) {
+            throw Utils.error("Commit %s is corrupt.", commitSHA1);
+        }
+        Commit commit = CommitFormat.decode(data);
+        commit.setId(commitSHA1);
         return commit;
     }
 
@@ -282,34 +421,24 @@ public class Command {
      */
 
     public static void log() {
-        String recentCommitSHA1 = getRecentCommit();
-        File commitHolder = Utils.join(COMMIT_DIR, recentCommitSHA1);
-        head = Utils.readObject(commitHolder, Commit.class);
-        while (head.getParent() != null) {
-            Commit commit = head;
-            byte[] serializedCommit = Utils.serialize(commit);
+        CommitGraph graph = CommitGraph.load();
+        int node = graph.lookup(getRecentCommit());
+        while (node != CommitGraph.NONE) {
+            String commitID = graph.id(node);
+            Commit commit = readCommit(commitID);
             System.out.println("===");
-            System.out.println("commit " + Utils.sha1(serializedCommit));
-            String parent2ID = commit.getsecondParent();
+            System.out.println("commit " + commitID);
             System.out.println("Date: " + commit.getTimeStamp());
             System.out.println(commit.getMessage());
             System.out.println();
-            if (parent2ID != null) {
-                String parent1ID = commit.getParent();
+            if (graph.secondParent(node) != CommitGraph.NONE) {
+                String parent1ID = graph.id(graph.parent(node));
+                String parent2ID = graph.id(graph.secondParent(node));
                 System.out.println("Merge: " + parent1ID.substring(0, 6)
                         + " " + parent2ID.substring(0, 6));
             }
-            String parentSHA1 = head.getParent();
-            File parentHolder = Utils.join(COMMIT_DIR, parentSHA1);
-            head = Utils.readObject(parentHolder, Commit.class);
+            node = graph.parent(node);
         }
-        Commit initialCommit = head;
-        byte[] serializedInitalCommit = Utils.serialize(initialCommit);
-        System.out.println("===");
-        System.out.println("commit " + Utils.sha1(serializedInitalCommit));
-        System.out.println("Date: " + initialCommit.getTimeStamp());
-        System.out.println(initialCommit.getMessage());
-        System.out.println();
     }
 
     /**
@@ -348,17 +477,15 @@ public class Command {
      */
 
     public static void checkoutFile(String file) {
-        File headCommit = Utils.join(COMMIT_DIR, getRecentCommit());
-        head = Utils.readObject(headCommit, Commit.class);
-        if (!head.getBlobs().containsKey(file)) {
+        file = normalize(file);
+        head = getRCommit();
+        String cwdBlob = head.getBlob(file);
+        if (cwdBlob == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        String cwdBlob = head.getBlobs().get(file);
-        File blobHolder = Utils.join(BLOBS, cwdBlob);
-        String blob = Utils.readContentsAsString(blobHolder);
         File holder = Utils.join(CWD, file);
-        Utils.writeContents(holder, blob);
+        ObjectStore.checkout(cwdBlob, holder);
     }
     /**
      * Adds a copy of the file as it currently exists to the staging area
@@ -368,32 +495,20 @@ public class Command {
      */
 
     public static void checkoutCommit(String commitID, String file) {
-        File commitFile = Utils.join(COMMIT_DIR, commitID);
-        if (commitID.length() < Utils.UID_LENGTH) {
-            for (File fileName : COMMIT_DIR.listFiles()) {
-                String name = fileName.getName();
-                if (name.contains(commitID)) {
-                    commitID = name;
-                    commitFile = Utils.join(COMMIT_DIR, fileName.getName());
-                }
-            }
-        }
-
-        if (!commitFile.exists()) {
+        commitID = CommitIndex.resolve(commitID);
+        if (commitID == null) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit commit = Utils.readObject(commitFile, Commit.class);
-        if (!commit.getBlobs().containsKey(file)) {
+        file = normalize(file);
+        Commit commit = readCommit(commitID);
+        String blobID = commit.getBlob(file);
+        if (blobID == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
         File holder = Utils.join(CWD, file);
-        TreeMap<String, String> blobs = commit.getBlobs();
-        String blobID = blobs.get(file);
-        File blobHolderFile = Utils.join(BLOBS, blobID);
-        String blob = Utils.readContentsAsString(blobHolderFile);
-        Utils.writeContents(holder, blob);
+        ObjectStore.checkout(blobID, holder);
 
     }
 
@@ -431,64 +546,101 @@ public class Command {
             return;
         }
         Commit branchCommit = getBranchCommit(branchFile);
-        TreeMap<String, String> branchBlobMap = branchCommit.getBlobs();
-        Commit recentCommit = getRCommit();
-        TreeMap<String, String> blobMap = recentCommit.getBlobs();
-        File[] cwdFiles = CWD.listFiles();
-        for (int i = 0; i < cwdFiles.length; i += 1) {
-            String fileName = cwdFiles[i].getName();
-            File file = Utils.join(CWD, fileName);
-            if (!fileName.equals(".gitlet")) {
-                String fileBlob = Utils.readContentsAsString(file);
-                if (branchBlobMap.containsKey(fileName)) {
-                    if (!blobMap.containsKey(fileName)
-                            && !branchBlobMap.get(fileName).equals(
-                                    Utils.sha1(fileBlob))) {
-                        System.out.println("There is an untracked file in the w"
-                                + "ay; delete it, or add and commit it first.");
-                        return;
-                    }
-                }
+        WorkTree tree = WorkTree.scan();
+        StagingIndex index = readIndex();
+        TreeMap<String, String> before = new TreeMap<>();
+        TreeMap<String, String> after = new TreeMap<>();
+        Tree.diff(getRCommit().getTree(), branchCommit.getTree(), before,
+                after);
+        if (isUntrackedInTheWay(before, after, tree)) {
+            System.out.println("There is an untracked file in the w"
+                    + "ay; delete it, or add and commit it first.");
+            return;
+        }
+        for (String addFile : index.added().keySet()) {
+            if (index.headBlob(addFile) == null
+                    && after.containsKey(addFile)) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                return;
             }
         }
-        File[] addFiles = STAGE_ADD.listFiles();
-        for (int i = 0; i < addFiles.length; i += 1) {
-            if (!blobMap.containsKey(addFiles[i].getName())) {
-                if (branchBlobMap.containsKey(addFiles[i].getName())) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    return;
-                }
+        switchFiles(before, after, tree, index, branchCommit.getTree());
+        Session.checkpoint();
+        Utils.writeContents(ACTIVE_BRANCH, branch);
+        Session.setHead(branchCommit.getId());
+    }
+
+    /**
+     * Return true iff a file in TREE that the head commit does not track
+     * would be overwritten on moving to a commit whose files differ from
+     * the head's as BEFORE and AFTER, from Tree.diff, say.
+     * @param before
+     * @param after
+     * @param tree
+     * @return boolean
+     */
+    private static boolean isUntrackedInTheWay(Map<String, String> before,
+                                               Map<String, String> after,
+                                               WorkTree tree) {
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            String fileName = entry.getKey();
+            if (!before.containsKey(fileName) && tree.contains(fileName)
+                    && !entry.getValue().equals(tree.blob(fileName))) {
+                return true;
             }
         }
-        Set<Map.Entry<String, String>> entries = blobMap.entrySet();
-        for (Map.Entry<String, String> entry : entries) {
-            if (!branchBlobMap.containsKey(entry.getKey())) {
-                File file = Utils.join(CWD, entry.getKey());
-                if (file.exists()) {
-                    file.delete();
-                }
+        return false;
+    }
+
+    /**
+     * Make the working directory, whose snapshot is TREE, hold the files
+     * of the commit with tree TARGET, whose files differ from the head's
+     * as BEFORE and AFTER. Only those files are written or deleted, apart
+     * from files that are the same in both commits but were changed in the
+     * working directory, which are restored. INDEX is cleared, takes
+     * TARGET as its head and is written.
+     * @param before
+     * @param after
+     * @param tree
+     * @param index
+     * @param target
+     */
+    private static void switchFiles(Map<String, String> before,
+                                    Map<String, String> after,
+                                    WorkTree tree, StagingIndex index,
+                                    String target) {
+        TreeMap<String, String> tracked = index.headBlobs();
+        index.clear();
+        for (String fileName : before.keySet()) {
+            if (!after.containsKey(fileName)) {
+                deleteWorkingFile(fileName);
             }
         }
-        Set<Map.Entry<String, String>> branchEntries = branchBlobMap.entrySet();
-        for (Map.Entry<String, String> entry : branchEntries) {
+        for (Map.Entry<String, String> entry : after.entrySet()) {
             File newCwd = Utils.join(CWD, entry.getKey());
-            File blobFile = Utils.join(BLOBS, entry.getValue());
-            String blob = Utils.readContentsAsString(blobFile);
-            Utils.writeContents(newCwd, blob);
+            ObjectStore.checkout(entry.getValue(), newCwd);
+            index.cache(entry.getKey(), entry.getValue(), newCwd);
         }
-        Utils.writeContents(ACTIVE_BRANCH, branch);
-        deleteFolder(STAGE_ADD);
-        STAGE_ADD.mkdirs();
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            String fileName = entry.getKey();
+            if (!before.containsKey(fileName)
+                    && !entry.getValue().equals(tree.blob(fileName))) {
+                File newCwd = Utils.join(CWD, fileName);
+                ObjectStore.checkout(entry.getValue(), newCwd);
+                index.cache(fileName, entry.getValue(), newCwd);
+            }
+        }
+        index.syncHead(target);
+        index.retainTracked();
+        index.write();
     }
     /**
      * Get file.
      * @return File
      */
     public static Commit getRCommit() {
-        File recentCommitFile = Utils.join(COMMIT_DIR, getRecentCommit());
-        Commit recentCommit = Utils.readObject(recentCommitFile, Commit.class);
-        return recentCommit;
+        return readCommit(getRecentCommit());
     }
 
     /**
@@ -497,10 +649,7 @@ public class Command {
      * @return commit
      */
     public static Commit getBranchCommit(File branchFile) {
-        String branchCommitID = Utils.readContentsAsString(branchFile);
-        File branchCommitFile = Utils.join(COMMIT_DIR, branchCommitID);
-        Commit branchCommit = Utils.readObject(branchCommitFile, Commit.class);
-        return branchCommit;
+        return readCommit(Utils.readContentsAsString(branchFile));
     }
     /**
      * Unstage the file if it is currently staged for addition.
@@ -514,44 +663,35 @@ public class Command {
      * @param file
      */
     public static void rm(String file) {
-        File headCommit = Utils.join(COMMIT_DIR, getRecentCommit());
-        head = Utils.readObject(headCommit, Commit.class);
-        File fileStage = Utils.join(STAGE_ADD, file);
-        if (!head.getBlobs().containsKey(file) && !fileStage.exists()) {
+        file = normalize(file);
+        StagingIndex index = readIndex();
+        String blobSHA1 = index.headBlob(file);
+        if (blobSHA1 == null && !index.isAdded(file)) {
             System.out.println("No reason to remove the file.");
             return;
         }
-        if (head.getBlobs().containsKey(file)) {
-            String blobSHA1 = head.getBlobs().get(file);
-            File fileBlobfile = Utils.join(BLOBS, blobSHA1);
-            String fileBlob = Utils.readContentsAsString(fileBlobfile);
-            File fileRemoval = Utils.join(STAGE_REMOVAL, file);
-            Utils.writeContents(fileRemoval, fileBlob);
-            stageAddRemove(file);
-            File fileCWD = Utils.join(CWD, file);
-            if (fileCWD.exists()) {
-                Utils.restrictedDelete(fileCWD);
-            }
-        } else if (fileStage.exists()) {
-            stageAddRemove(file);
+        if (blobSHA1 != null) {
+            index.stageRemove(file, blobSHA1);
+            deleteWorkingFile(file);
+        } else {
+            index.unstage(file);
         }
+        index.write();
     }
 
     /**
      * Like log, except displays information about all commits ever made.
-     * The order of the commits does not matter.
+     * The order of the commits does not matter, unless --sorted is given,
+     * which lists them in commit id order.
+     * @param args
      */
-    public static void globalLog() {
-
-        File[] allFiles = COMMIT_DIR.listFiles();
-        for (int i = 0; i < allFiles.length; i += 1) {
-            Commit commit = Utils.readObject(allFiles[i], Commit.class);
-            byte[] serializedCommit = Utils.serialize(commit);
-            System.out.println("===");
-            System.out.println("commit " + Utils.sha1(serializedCommit));
-            System.out.println("Date: " + commit.getTimeStamp());
-            System.out.println(commit.getMessage());
-            System.out.println();
+    public static void globalLog(String... args) {
+        if (args.length == 0) {
+            GlobalLog.print(false);
+        } else if (args.length == 1 && args[0].equals("--sorted")) {
+            GlobalLog.print(true);
+        } else {
+            System.out.println("Incorrect operands.");
         }
     }
 
@@ -560,20 +700,28 @@ public class Command {
      * Prints out the ids of all commits that have the given commit message,
      * one per line. If there are
      * multiple such commits, it prints the ids out on separate lines.
-     * @param msg
+     * With --word, prints the commits whose message contains every word of
+     * the query; with --grep, every word of the query need only be part of
+     * a word of the message. Case is ignored in both. Answered from the
+     * message indexes without reading any commit.
+     * @param args
      */
-    public static void find(String msg) {
-        File[] allFiles = COMMIT_DIR.listFiles();
-        int count = 0;
-        for (int i = 0; i < allFiles.length; i += 1) {
-            Commit commit = Utils.readObject(allFiles[i], Commit.class);
-            if (commit.getMessage().equals(msg)) {
-                byte[] serializedCommmit = Utils.serialize(commit);
-                count += 1;
-                System.out.println(Utils.sha1(serializedCommmit));
-            }
+    public static void find(String... args) {
+        List<String> ids;
+        if (args.length == 2 && args[0].equals("--word")) {
+            ids = MessageIndex.words(args[1], false);
+        } else if (args.length == 2 && args[0].equals("--grep")) {
+            ids = MessageIndex.words(args[1], true);
+        } else if (args.length == 1) {
+            ids = MessageIndex.exact(args[0]);
+        } else {
+            System.out.println("Incorrect operands.");
+            return;
         }
-        if (count == 0) {
+        for (String id : ids) {
+            System.out.println(id);
+        }
+        if (ids.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -598,20 +746,63 @@ public class Command {
         }
         System.out.println();
         System.out.println("=== Staged Files ===");
-        File[] stageFiles = STAGE_ADD.listFiles();
-        for (int i = 0; i < stageFiles.length; i += 1) {
-            System.out.println(stageFiles[i].getName());
+        StagingIndex index = readIndex();
+        for (String stageFile : index.added().keySet()) {
+            System.out.println(stageFile);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        File[] removeFiles = STAGE_REMOVAL.listFiles();
-        for (int i = 0; i < removeFiles.length; i += 1) {
-            System.out.println(removeFiles[i].getName());
+        for (String removeFile : index.removed().keySet()) {
+            System.out.println(removeFile);
         }
         System.out.println();
+        TreeMap<String, String> blobMap = index.headBlobs();
+        TreeMap<String, String> modified = new TreeMap<>();
+        TreeMap<String, File> working = new TreeMap<>();
+        for (String name : WorkTree.fileNames()) {
+            working.put(name, Utils.join(CWD, name));
+        }
+        TreeMap<String, File> untracked = new TreeMap<>(working);
+        for (Map.Entry<String, String> entry : blobMap.entrySet()) {
+            String fileName = entry.getKey();
+            File file = working.get(fileName);
+            if (index.isRemoved(fileName)) {
+                continue;
+            }
+            untracked.remove(fileName);
+            if (index.isAdded(fileName)) {
+                continue;
+            } else if (file == null) {
+                modified.put(fileName, "deleted");
+            } else if (!index.workingBlob(fileName, file).equals(
+                    entry.getValue())) {
+                modified.put(fileName, "modified");
+            }
+        }
+        for (Map.Entry<String, String> entry : index.added().entrySet()) {
+            String fileName = entry.getKey();
+            File file = working.get(fileName);
+            untracked.remove(fileName);
+            if (file == null) {
+                modified.put(fileName, "deleted");
+            } else if (!index.workingBlob(fileName, file).equals(
+                    entry.getValue())) {
+                modified.put(fileName, "modified");
+            }
+        }
+        index.retainTracked();
+        index.writeIfChanged();
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> entry : modified.entrySet()) {
+            System.out.println(entry.getKey() + " (" + entry.getValue()
+                    + ")");
+        }
         System.out.println();
         System.out.println("=== Untracked Files ===");
+        for (String fileName : untracked.keySet()) {
+            System.out.println(fileName);
+        }
+        System.out.println();
     }
 
     /**
@@ -639,11 +830,7 @@ public class Command {
             }
         }
         File newBranch = Utils.join(BRANCHES, branch);
-        File headHolder = Utils.join(COMMIT_DIR, getRecentCommit());
-        head = Utils.readObject(headHolder, Commit.class);
-        byte[] serializedHead = Utils.serialize(head);
-        String headSHA1 = Utils.sha1(serializedHead);
-        Utils.writeContents(newBranch, headSHA1);
+        Utils.writeContents(newBranch, getRecentCommit());
 
     }
 
@@ -679,60 +866,37 @@ public class Command {
      * @param commitID
      */
     public static void reset(String commitID) {
-        File[] cwdFiles = CWD.listFiles();
-        File recentCommitFile = Utils.join(COMMIT_DIR, getRecentCommit());
-        Commit recentCommit = Utils.readObject(recentCommitFile, Commit.class);
-        TreeMap<String, String> recentCommitBlobs = recentCommit.getBlobs();
+        reset(commitID, null);
+    }
 
-        File commitFile = Utils.join(COMMIT_DIR, commitID);
-        if (!commitFile.exists()) {
+    /**
+     * Reset to COMMITID, using the snapshot TREE of the working directory
+     * if the caller already took one.
+     * @param commitID
+     * @param tree
+     */
+    static void reset(String commitID, WorkTree tree) {
+        commitID = CommitIndex.resolve(commitID);
+        if (commitID == null) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit commit = Utils.readObject(commitFile, Commit.class);
-        TreeMap<String, String> blobMap = commit.getBlobs();
-
-        for (int i = 0; i < cwdFiles.length; i += 1) {
-            File file = Utils.join(CWD, cwdFiles[i].getName());
-            if (file.exists()) {
-                if (!file.getName().equals(".gitlet")) {
-                    String blob = Utils.readContentsAsString(file);
-                    String blobSHA1 = Utils.sha1(blob);
-                    if (blobMap.containsKey(file.getName())
-                            && !recentCommitBlobs.containsKey(file.getName())) {
-                        if (!blobSHA1.equals(blobMap.get(file.getName()))) {
-                            System.out.println("There is an untracked "
-                                    + "file in the way; delete it, or add and "
-                                    + "commit it first.");
-                            return;
-                        }
-                    }
-                }
-            }
-        }
-
-        Set<Map.Entry<String, String>> entries = blobMap.entrySet();
-
-        for (Map.Entry<String, String> entry : entries) {
-            checkoutCommit(commitID, entry.getKey());
+        Commit commit = readCommit(commitID);
+        if (tree == null) {
+            tree = WorkTree.scan();
         }
-        Set<Map.Entry<String, String>> recentEntries =
-                recentCommitBlobs.entrySet();
-
-        for (Map.Entry<String, String> entry : recentEntries) {
-            if (!blobMap.containsKey(entry.getKey())) {
-                rm(entry.getKey());
-            }
+        StagingIndex index = readIndex();
+        TreeMap<String, String> before = new TreeMap<>();
+        TreeMap<String, String> after = new TreeMap<>();
+        Tree.diff(getRCommit().getTree(), commit.getTree(), before, after);
+        if (isUntrackedInTheWay(before, after, tree)) {
+            System.out.println("There is an untracked "
+                    + "file in the way; delete it, or add and "
+                    + "commit it first.");
+            return;
         }
-
-        File commitFolder = Utils.join(BRANCHES,
-                Utils.readContentsAsString(ACTIVE_BRANCH));
-        Utils.writeContents(commitFolder, commitID);
-        deleteFolder(STAGE_REMOVAL);
-        STAGE_REMOVAL.mkdirs();
-        deleteFolder(STAGE_ADD);
-        STAGE_ADD.mkdirs();
-
+        switchFiles(before, after, tree, index, commit.getTree());
+        setRecentCommit(commitID);
     }
 
     /**
@@ -764,11 +928,8 @@ public class Command {
     public static void merge(String branch) {
         Commit childCommit = null;
         TreeMap<String, String> childBlobs = new TreeMap<>();
-        File[] cwdFiles = CWD.listFiles();
         String recentCommitSHA1 = getRecentCommit();
-        File commitHolder = Utils.join(COMMIT_DIR, recentCommitSHA1);
-        head = Utils.readObject(commitHolder, Commit.class);
-        TreeMap<String, String> blobMap = head.getBlobs();
+        head = readCommit(recentCommitSHA1);
         List<String> branches = Utils.plainFilenamesIn(BRANCHES);
         if (!branches.contains(branch)) {
             System.out.println("A branch with that name does not exist.");
@@ -776,110 +937,151 @@ public class Command {
         }
         File branchHolder = Utils.join(BRANCHES, branch);
         String branchCommitID = Utils.readContentsAsString(branchHolder);
-        File branchCommitHolder = Utils.join(COMMIT_DIR, branchCommitID);
-        Commit branchCommit = Utils.readObject(branchCommitHolder,
-                Commit.class);
-        TreeMap<String, String> branchBlobs = branchCommit.getBlobs();
+        Commit branchCommit = readCommit(branchCommitID);
+        MergeBase bases = new MergeBase(CommitGraph.load());
+        Commit splitPoint = readCommit(bases.base(recentCommitSHA1,
+                branchCommitID));
+        TreeMap<String, String> splitPointBlobs = new TreeMap<>();
+        TreeMap<String, String> blobMap = new TreeMap<>();
+        TreeMap<String, String> branchBlobs = new TreeMap<>();
+        changedFiles(splitPoint, head, branchCommit, splitPointBlobs,
+                blobMap, branchBlobs);
 
         boolean encounteredMergeConflict = false;
-        for (int i = 0; i < cwdFiles.length; i += 1) {
-            File file = Utils.join(CWD, cwdFiles[i].getName());
-            if (!blobMap.containsKey(file.getName())
-                    && branchBlobs.containsKey(file.getName())) {
+        WorkTree tree = WorkTree.scan();
+        for (String fileName : branchBlobs.keySet()) {
+            if (!blobMap.containsKey(fileName) && tree.contains(fileName)) {
                 System.out.println("There is an untracked file in the way; "
                         + "delete it, or add and commit it first.");
                 return;
             }
         }
-        File[] addFiles = STAGE_ADD.listFiles();
-        File[] removeFiles = STAGE_REMOVAL.listFiles();
         String currentBranch = Utils.readContentsAsString(ACTIVE_BRANCH);
-        if (addFiles.length > 0) {
-            System.out.println("You have uncommitted changes.");
-            return;
-        } else if (removeFiles.length > 0) {
+        if (!StagingIndex.read().isEmpty()) {
             System.out.println("You have uncommitted changes.");
             return;
         } else if (currentBranch.equals(branch)) {
             System.out.println("Cannot merge a branch with itself.");
             return;
         }
-        Commit splitPoint = getSplitPoint(branchCommit);
-        if (splitPoint == head) {
-            checkoutBranch(currentBranch);
+        if (bases.isAncestor(branchCommitID, recentCommitSHA1)) {
+            System.out.println("Given branch is an ancestor of the current "
+                    + "branch.");
+            return;
+        }
+        if (bases.isAncestor(recentCommitSHA1, branchCommitID)) {
+            reset(branchCommitID, tree);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        if (mergeHelper(branch, encounteredMergeConflict)) {
+        if (mergeHelper(tree, splitPointBlobs, blobMap, branchBlobs,
+                branchCommitID, childBlobs)) {
             encounteredMergeConflict = true;
         }
+        childBlobs.putAll(StagingIndex.read().added());
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (Map.Entry<String, String> entry : childBlobs.entrySet()) {
+            if (!Objects.equals(entry.getValue(),
+                    blobMap.get(entry.getKey()))) {
+                changes.put(entry.getKey(), entry.getValue());
+            }
+        }
         String msg = "Merged " + branch + " into " + currentBranch + ".";
-        childCommit = new Commit(msg, childBlobs, recentCommitSHA1,
-                branchCommitID, false);
-        finalBit(childCommit, removeFiles);
+        childCommit = new Commit(msg, Tree.update(head.getTree(), changes),
+                recentCommitSHA1, branchCommitID);
+        finalBit(childCommit);
         if (encounteredMergeConflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
-    /** Commit ending part of merge method.
-     * @param branch
-     * @param encounteredMergeConflict1
-     * @return boolean
+
+    /**
+     * Put every file that differs between the split point SPLIT and
+     * either HEAD1 or OTHER into SPLITBLOBS, HEADBLOBS and OTHERBLOBS, as
+     * it is in each of the three commits. Files the same in all three are
+     * left out, and so subtrees equal in all three are never read.
+     * @param split
+     * @param head1
+     * @param other
+     * @param splitBlobs
+     * @param headBlobs
+     * @param otherBlobs
      */
-    public static boolean mergeHelper(String branch, boolean
-            encounteredMergeConflict1) {
-        Commit childCommit = null;
-        TreeMap<String, String> childBlobs = new TreeMap<>();
-        File[] cwdFiles = CWD.listFiles();
-        String recentCommitSHA1 = getRecentCommit();
-        File commitHolder = Utils.join(COMMIT_DIR, recentCommitSHA1);
-        head = Utils.readObject(commitHolder, Commit.class);
-        TreeMap<String, String> blobMap = head.getBlobs();
-        File branchHolder = Utils.join(BRANCHES, branch);
-        String branchCommitID = Utils.readContentsAsString(branchHolder);
-        File branchCommitHolder = Utils.join(COMMIT_DIR,
-                branchCommitID);
-        Commit branchCommit = Utils.readObject(branchCommitHolder,
-                Commit.class);
-        TreeMap<String, String> branchBlobs = branchCommit.getBlobs();
-        String currentBranch = Utils.readContentsAsString(ACTIVE_BRANCH);
-        File[] removeFiles = STAGE_REMOVAL.listFiles();
-        Commit splitPoint = getSplitPoint(branchCommit);
-        boolean encounteredMergeConflict = encounteredMergeConflict1;
-        TreeMap<String, String> splitPointBlobs = splitPoint.getBlobs();
-        for (int i = 0; i < cwdFiles.length; i += 1) {
-            File file = Utils.join(CWD, cwdFiles[i].getName());
-            if (!branchBlobs.containsKey(file.getName())
-                    && !blobMap.containsKey(file.getName())
-                    && splitPointBlobs.containsKey(file.getName())) {
-                file.delete();
-            }
-        }
-        ArrayList<String> allFiles = new ArrayList<>();
-        Set<Map.Entry<String, String>> splitEntries =
-                splitPointBlobs.entrySet();
-        for (Map.Entry<String, String> entry : splitEntries) {
-            String filename = entry.getKey();
-            allFiles.add(filename);
+    private static void changedFiles(Commit split, Commit head1,
+                                     Commit other,
+                                     TreeMap<String, String> splitBlobs,
+                                     TreeMap<String, String> headBlobs,
+                                     TreeMap<String, String> otherBlobs) {
+        TreeMap<String, String> splitHead = new TreeMap<>();
+        TreeMap<String, String> headSide = new TreeMap<>();
+        TreeMap<String, String> splitOther = new TreeMap<>();
+        TreeMap<String, String> otherSide = new TreeMap<>();
+        Tree.diff(split.getTree(), head1.getTree(), splitHead, headSide);
+        Tree.diff(split.getTree(), other.getTree(), splitOther, otherSide);
+        TreeSet<String> paths = new TreeSet<>(splitHead.keySet());
+        paths.addAll(headSide.keySet());
+        TreeSet<String> otherPaths = new TreeSet<>(splitOther.keySet());
+        otherPaths.addAll(otherSide.keySet());
+        TreeSet<String> headPaths = new TreeSet<>(paths);
+        paths.addAll(otherPaths);
+        for (String path : paths) {
+            String inSplit = headPaths.contains(path) ? splitHead.get(path)
+                    : splitOther.get(path);
+            putFile(splitBlobs, path, inSplit);
+            putFile(headBlobs, path, headPaths.contains(path)
+                    ? headSide.get(path) : inSplit);
+            putFile(otherBlobs, path, otherPaths.contains(path)
+                    ? otherSide.get(path) : inSplit);
         }
-        Set<Map.Entry<String, String>> branchEntries = branchBlobs.entrySet();
-        for (Map.Entry<String, String> entry : branchEntries) {
-            String filename = entry.getKey();
-            if (!allFiles.contains(filename)) {
-                allFiles.add(filename);
-            }
+    }
+
+    /**
+     * Put BLOBSHA1 into BLOBS as the blob of PATH, unless it is null.
+     * @param blobs
+     * @param path
+     * @param blobSHA1
+     */
+    private static void putFile(TreeMap<String, String> blobs, String path,
+                                String blobSHA1) {
+        if (blobSHA1 != null) {
+            blobs.put(path, blobSHA1);
         }
-        Set<Map.Entry<String, String>> commitEntries = blobMap.entrySet();
-        for (Map.Entry<String, String> entry : commitEntries) {
-            String filename = entry.getKey();
-            if (!allFiles.contains(filename)) {
-                allFiles.add(filename);
+    }
+
+    /** Commit ending part of merge method. SPLITPOINTBLOBS, BLOBMAP and
+     * BRANCHBLOBS hold the files changed on either side of the merge, from
+     * changedFiles. What the merge commit holds for each of them, apart
+     * from conflicted ones, which are staged, is put in CHILDBLOBS, with
+     * null for files it does not hold. Returns true iff there was a
+     * conflict.
+     * @param tree
+     * @param splitPointBlobs
+     * @param blobMap
+     * @param branchBlobs
+     * @param branchCommitID
+     * @param childBlobs
+     * @return boolean
+     */
+    public static boolean mergeHelper(WorkTree tree,
+            TreeMap<String, String> splitPointBlobs,
+            TreeMap<String, String> blobMap,
+            TreeMap<String, String> branchBlobs, String branchCommitID,
+            TreeMap<String, String> childBlobs) {
+        TreeSet<String> allFiles = new TreeSet<>(splitPointBlobs.keySet());
+        allFiles.addAll(blobMap.keySet());
+        allFiles.addAll(branchBlobs.keySet());
+        for (String fileName : allFiles) {
+            if (tree.contains(fileName)
+                    && !branchBlobs.containsKey(fileName)
+                    && !blobMap.containsKey(fileName)
+                    && splitPointBlobs.containsKey(fileName)) {
+                deleteWorkingFile(fileName);
             }
+            childBlobs.put(fileName, blobMap.get(fileName));
         }
-        encounteredMergeConflict = doForLoop(allFiles, branchBlobs,
-                splitPointBlobs, blobMap,
-                branchCommitID, childBlobs, encounteredMergeConflict);
-        return encounteredMergeConflict;
+        return doForLoop(new ArrayList<>(allFiles), branchBlobs,
+                splitPointBlobs, blobMap, branchCommitID, childBlobs,
+                false);
     }
     /**
      * For loop bit.
@@ -907,6 +1109,9 @@ public class Command {
                 if (branchBlobs.containsKey(fileName)) {
                     checkoutCommit(branchCommitID, fileName);
                     childBlobs.put(fileName, branchBlobs.get(fileName));
+                } else {
+                    deleteWorkingFile(fileName);
+                    childBlobs.put(fileName, null);
                 }
             } else if (isChange(fileName, branchBlobs, splitPointBlobs)
                     && isChange(fileName, blobMap, splitPointBlobs)
@@ -916,13 +1121,12 @@ public class Command {
                         && splitPointBlobs.containsKey(fileName)) {
                     String blobIDGiven = branchBlobs.get(fileName);
                     String blobIDCurrent = blobMap.get(fileName);
-                    File blobFileGiven = Utils.join(BLOBS, blobIDGiven);
-                    File blobFileCurrent = Utils.join(BLOBS, blobIDCurrent);
-                    String blobCurrent =
-                            Utils.readContentsAsString(blobFileCurrent);
-                    String blobGiven =
-                            Utils.readContentsAsString(blobFileGiven);
+                    String blobCurrent = new String(ObjectStore.read(BLOBS,
+                            blobIDCurrent), StandardCharsets.UTF_8);
+                    String blobGiven = new String(ObjectStore.read(BLOBS,
+                            blobIDGiven), StandardCharsets.UTF_8);
                     File cwdFile = Utils.join(CWD, fileName);
+                    cwdFile.getParentFile().mkdirs();
                     Utils.writeContents(cwdFile, "<<<<<<< HEAD\n"
                             + blobCurrent  + "=======\n" + blobGiven
                             + ">>>>>>>\n");
@@ -940,10 +1144,7 @@ public class Command {
                     childBlobs.put(fileName, blobMap.get(fileName));
                 }
                 if (!blobMap.containsKey(fileName)) {
-                    File cwdFile = Utils.join(CWD, fileName);
-                    if (cwdFile.exists()) {
-                        cwdFile.delete();
-                    }
+                    deleteWorkingFile(fileName);
                 }
             }
         }
@@ -951,81 +1152,15 @@ public class Command {
     }
     /** Save the commit, etc.
      * @param childCommit
-     * @param removeFiles
      */
-    public static void finalBit(Commit childCommit, File[] removeFiles) {
-        byte[] serializedChildCommit = Utils.serialize(childCommit);
-        String childCommitSHA1 = Utils.sha1(serializedChildCommit);
-        File childCommitFile = Utils.join(COMMIT_DIR, childCommitSHA1);
-        Utils.writeObject(childCommitFile, childCommit);
-        deleteFolder(STAGE_ADD);
-        STAGE_ADD.mkdirs();
+    public static void finalBit(Commit childCommit) {
+        String childCommitSHA1 = writeCommit(childCommit);
+        StagingIndex index = readIndex();
+        index.clear();
+        index.syncHead(childCommit.getTree());
+        index.write();
         head = childCommit;
-        File branchPointer = Utils.join(BRANCHES,
-                Utils.readContentsAsString(ACTIVE_BRANCH));
-        Utils.writeContents(branchPointer, childCommitSHA1);
-        if (removeFiles.length > 0) {
-            for (int i = 0; i < STAGE_REMOVAL.listFiles().length; i += 1) {
-                stageRemoveRemove(STAGE_REMOVAL.listFiles()[i].getName());
-            }
-        }
-    }
-    /** Get split point.
-     * @param branchCommit
-     * @return splitPoint
-     */
-    public static Commit getSplitPoint(Commit branchCommit) {
-        Commit splitPoint = null;
-        ArrayList<Commit> work = new ArrayList<Commit>();
-        HashSet<String> commitSet = new HashSet<>();
-        work.add(branchCommit);
-        while (!work.isEmpty()) {
-            Commit node = work.remove(0);
-            byte[] serializedNode = Utils.serialize(node);
-            String nodeSHA1 = Utils.sha1(serializedNode);
-            commitSet.add(nodeSHA1);
-            if (node.getParent() != null) {
-                File parent1File = Utils.join(COMMIT_DIR, node.getParent());
-                Commit parent1 = Utils.readObject(parent1File, Commit.class);
-                work.add(parent1);
-            }
-            if (node.getsecondParent() != null) {
-                File parent2File = Utils.join(COMMIT_DIR,
-                        node.getsecondParent());
-                Commit parent2 = Utils.readObject(parent2File, Commit.class);
-                work.add(parent2);
-            }
-        }
-
-        String recentCommitSHA1 = getRecentCommit();
-        File commitHolder = Utils.join(COMMIT_DIR, recentCommitSHA1);
-        head = Utils.readObject(commitHolder, Commit.class);
-        ArrayList<Commit> currWork = new ArrayList<Commit>();
-        currWork.add(head);
-        while (!currWork.isEmpty()) {
-            Commit currNode = currWork.remove(0);
-            byte[] serializedCurrNode = Utils.serialize(currNode);
-            String currNodeSHA1 = Utils.sha1(serializedCurrNode);
-            if (commitSet.contains(currNodeSHA1)) {
-                splitPoint = currNode;
-                break;
-            }
-            if (currNode.getParent() != null) {
-                File currParent1File = Utils.join(COMMIT_DIR,
-                        currNode.getParent());
-                Commit currParent1 = Utils.readObject(currParent1File,
-                        Commit.class);
-                currWork.add(currParent1);
-            }
-            if (currNode.getsecondParent() != null) {
-                File currParent2File = Utils.join(COMMIT_DIR,
-                        currNode.getsecondParent());
-                Commit currParent2 = Utils.readObject(currParent2File,
-                        Commit.class);
-                currWork.add(currParent2);
-            }
-        }
-        return splitPoint;
+        setRecentCommit(childCommitSHA1);
     }
     /** Get if is change.
      * @param filename
@@ -1049,6 +1184,89 @@ public class Command {
         }
         return true;
     }
+    /**
+     * Import the history in the stream on standard input, in the format
+     * described in FastImport.
+     */
+    public static void importHistory() {
+        FastImport.run(System.in);
+    }
+
+    /**
+     * Write the history of every branch to standard output, in the format
+     * read by import, leaving out the commits EXPORTED, given as branch
+     * names or commit ids, and their ancestors.
+     * java gitlet.Main export [commit id]...
+     * @param exported
+     */
+    public static void exportHistory(String... exported) {
+        List<String> ids = new ArrayList<>();
+        for (String ref : exported) {
+            File branchFile = Utils.join(BRANCHES, ref);
+            String id = branchFile.isFile()
+                    ? Utils.readContentsAsString(branchFile)
+                    : CommitIndex.resolve(ref);
+            if (id == null) {
+                System.out.println("No commit with that id exists.");
+                return;
+            }
+            ids.add(id);
+        }
+        FastExport.run(ids);
+    }
+
+    /**
+     * Pack every object reachable from a branch into one pack and delete
+     * unreachable objects older than the grace period, as described in
+     * GarbageCollector.
+     * java gitlet.Main gc
+     */
+    public static void gc() {
+        GarbageCollector.run(true);
+    }
+
+    /**
+     * Pack every object reachable from a branch into one pack, keeping
+     * unreachable objects loose.
+     * java gitlet.Main repack
+     */
+    public static void repack() {
+        GarbageCollector.run(false);
+    }
+
+    /**
+     * Print the repository setting KEY, or set it to VALUE. Either needs a
+     * repository.
+     * java gitlet.Main config [key]
+     * java gitlet.Main config [key] [value]
+     * @param args
+     */
+    public static void config(String... args) {
+        if (!GITLET_FOLDER.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args.length == 2) {
+            String value = Config.get(args[1], null);
+            if (value != null) {
+                System.out.println(value);
+            }
+        } else if (args.length == 3) {
+            Config.set(args[1], args[2]);
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Rewrite commits stored by older versions in the binary commit format,
+     * updating branches to the new commit ids.
+     * java gitlet.Main migrate
+     */
+    public static void migrate() {
+        int count = CommitFormat.migrate();
+        Session.setHead(null);
+        System.out.println("Migrated " + count + " commits.");
+    }
+
     /**
      * Get head commit.
      * @return head
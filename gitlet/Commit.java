@@ -1,4 +1,5 @@
 package gitlet;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.TreeMap;
 import java.util.Date;
@@ -13,6 +14,18 @@ import java.io.Serializable;
  * @author Nora Povejsil
  */
 public class Commit implements Serializable {
+    /**
+     * Serialization version, pinned so stored commits stay readable.
+     */
+    private static final long serialVersionUID = 4301882750530494054L;
+    /**
+     * Format of commit timestamps.
+     */
+    static final String TIME_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+    /**
+     * Milliseconds per second.
+     */
+    private static final int MILLIS = 1000;
     /**
      * Commit message.
      */
@@ -22,9 +35,15 @@ public class Commit implements Serializable {
      */
     private final String timestamp;
     /**
-     * Commit blopMap.
+     * Commit blopMap. Null until first asked for in a commit decoded from
+     * the binary format.
+     */
+    private TreeMap<String, String> blobMap;
+    /**
+     * Id of the tree holding this commit's files. Null until first asked
+     * for in a commit that was made with a blob map.
      */
-    private final TreeMap<String, String> blobMap;
+    private String tree;
     /**
      * Commit parent.
      */
@@ -37,6 +56,19 @@ public class Commit implements Serializable {
      * Commit initial commit.
      */
     private final boolean isInitialCommit;
+    /**
+     * Commit id, remembered from the file the commit was read from or
+     * written to. Not part of the stored commit.
+     */
+    private transient String id;
+    /**
+     * Encoded commit whose blob map has not been decoded yet, or null.
+     */
+    private transient byte[] encodedBlobs;
+    /**
+     * Offset of the blob map in encodedBlobs.
+     */
+    private transient int blobOffset;
 
     /** append new blobs to existing treemap
      * new additions/removals make up new commit (to store)
@@ -59,9 +91,7 @@ public class Commit implements Serializable {
             timestamp = "Wed Dec 31 16:00:00 1969 -0800";
         } else {
             Date dateHolder = new Date();
-            SimpleDateFormat format =
-                    new SimpleDateFormat("EEE MMM d HH:mm:ss "
-                            + "yyyy Z");
+            SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
             timestamp = format.format(dateHolder);
         }
         secondParent = secondParent1;
@@ -70,6 +100,91 @@ public class Commit implements Serializable {
 
 
     }
+
+    /** A commit made now with message MESSAGE1 whose files are those in
+     * the tree TREE1.
+     * @param message1
+     * @param tree1
+     * @param parent1
+     * @param secondParent1
+     */
+    public Commit(String message1, String tree1, String parent1,
+                  String secondParent1) {
+        this(message1, new SimpleDateFormat(TIME_FORMAT).format(new Date()),
+                null, parent1, secondParent1, false);
+        tree = tree1;
+    }
+
+    /** A commit with message MESSAGE1 and timestamp TIMESTAMP1 whose
+     * files are BLOBS, for commits that are decoded or rewritten rather
+     * than made now. BLOBS may be null if setEncodedBlobs or setTree is
+     * called.
+     * @param message1
+     * @param timestamp1
+     * @param blobs
+     * @param parent1
+     * @param secondParent1
+     * @param initial
+     */
+    Commit(String message1, String timestamp1,
+           TreeMap<String, String> blobs, String parent1,
+           String secondParent1, boolean initial) {
+        message = message1;
+        timestamp = timestamp1;
+        blobMap = blobs;
+        parent = parent1;
+        secondParent = secondParent1;
+        isInitialCommit = initial;
+    }
+
+    /** Decode the blob map from DATA, starting at OFFSET, the first time
+     * it is asked for.
+     * @param data
+     * @param offset
+     */
+    void setEncodedBlobs(byte[] data, int offset) {
+        encodedBlobs = data;
+        blobOffset = offset;
+    }
+
+    /** Set the id of the tree holding this commit's files to TREE1.
+     * @param tree1
+     */
+    void setTree(String tree1) {
+        tree = tree1;
+    }
+
+    /** Get the id of the tree holding this commit's files, storing the
+     * tree first if this commit was made with a blob map.
+     * @return string
+     */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.write(getBlobs());
+        }
+        return tree;
+    }
+
+    /** Return true iff this is the initial commit.
+     * @return boolean
+     */
+    boolean isInitial() {
+        return isInitialCommit;
+    }
+    /** Get commit id, or null if this commit was never stored or read.
+     * @return string
+     */
+    public String getId() {
+        return id;
+    }
+
+    /** Set commit id.
+     * @param id1
+     */
+    void setId(String id1) {
+        id = id1;
+    }
+
     /** Get second parent.
      * @return string
     */
@@ -80,9 +195,27 @@ public class Commit implements Serializable {
      * @return treemap
      */
     public TreeMap<String, String> getBlobs() {
+        if (blobMap == null && encodedBlobs != null) {
+            blobMap = CommitFormat.decodeBlobs(encodedBlobs, blobOffset);
+            encodedBlobs = null;
+        } else if (blobMap == null && tree != null) {
+            blobMap = Tree.flatten(tree);
+        }
         return blobMap;
     }
 
+    /** Get the id of the blob at PATH, or null if there is no such file.
+     * Only the trees along PATH are read.
+     * @param path
+     * @return blobSHA1
+     */
+    public String getBlob(String path) {
+        if (blobMap == null && encodedBlobs == null && tree != null) {
+            return Tree.lookup(tree, path);
+        }
+        return getBlobs().get(path);
+    }
+
     /** Get second parent.
      * @return string
      */
@@ -104,6 +237,18 @@ public class Commit implements Serializable {
         return timestamp;
     }
 
+    /** Get commit time in seconds since the epoch.
+     * @return long
+     */
+    public long getTime() {
+        try {
+            SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+            return format.parse(timestamp).getTime() / MILLIS;
+        } catch (ParseException excp) {
+            throw new GitletException("bad timestamp");
+        }
+    }
+
     /** Get second parent.
      * @return string
      */
@@ -0,0 +1,337 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The binary encoding of commits. An encoded commit is a header (magic,
+ * version, flags, binary parent ids, time in seconds and time zone offset,
+ * length-prefixed message) followed by the binary id of the commit's tree.
+ * Version 1 held the blob map itself instead of a tree id, as sorted
+ * entries of length-prefixed path and binary blob id; decode reads only
+ * the header of those, and the blob map is decoded the first time a commit
+ * is asked for it. Commits stored as version 1 or by older versions as
+ * serialized Java objects are still read, and migrate rewrites them in
+ * the current version.
+ * @author Nora Povejsil
+ */
+class CommitFormat {
+    /**
+     * Magic number at the start of an encoded commit ("GCMT").
+     */
+    private static final int MAGIC = 0x47434d54;
+
+    /**
+     * First two bytes of a serialized Java object.
+     */
+    private static final int JAVA_MAGIC = 0xaced;
+
+    /**
+     * Version of the encoding.
+     */
+    private static final byte VERSION = 2;
+
+    /**
+     * Version of the encoding that held the blob map.
+     */
+    private static final byte BLOB_MAP_VERSION = 1;
+
+    /**
+     * Flag: the initial commit.
+     */
+    private static final int INITIAL = 1;
+
+    /**
+     * Flag: a first parent follows.
+     */
+    private static final int PARENT = 2;
+
+    /**
+     * Flag: a second parent follows.
+     */
+    private static final int SECOND_PARENT = 4;
+
+    /**
+     * Seconds per minute of time zone offset.
+     */
+    private static final int MINUTE = 60;
+
+    /**
+     * Commit timestamps, as written by Commit.
+     */
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern(Commit.TIME_FORMAT);
+
+    /**
+     * Encode commit C.
+     * @param c
+     * @return bytes
+     */
+    static byte[] encode(Commit c) {
+        byte[] message = c.getMessage().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer out = ByteBuffer.allocate(2 * Integer.BYTES + 2
+                + 3 * Utils.UID_BYTES + Long.BYTES + 2 * Integer.BYTES
+                + message.length);
+        int flags = (c.isInitial() ? INITIAL : 0)
+                | (c.getParent() != null ? PARENT : 0)
+                | (c.getsecondParent() != null ? SECOND_PARENT : 0);
+        out.putInt(MAGIC).put(VERSION).put((byte) flags);
+        if (c.getParent() != null) {
+            out.put(Utils.uidToBytes(c.getParent()));
+        }
+        if (c.getsecondParent() != null) {
+            out.put(Utils.uidToBytes(c.getsecondParent()));
+        }
+        OffsetDateTime time = time(c.getTimeStamp());
+        out.putLong(time.toEpochSecond());
+        out.putInt(time.getOffset().getTotalSeconds() / MINUTE);
+        out.putInt(message.length).put(message);
+        out.put(Utils.uidToBytes(c.getTree()));
+        byte[] result = new byte[out.position()];
+        System.arraycopy(out.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Return true iff DATA is a commit stored by an older version as a
+     * serialized Java object.
+     * @param data
+     * @return boolean
+     */
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2
+                && ((data[0] & 0xff) << 8 | (data[1] & 0xff)) == JAVA_MAGIC;
+    }
+
+    /**
+     * Decode the header of the commit stored as DATA, in any format.
+     * @param data
+     * @return commit
+     */
+    static Commit decode(byte[] data) {
+        if (isLegacy(data)) {
+            return Utils.readObject(data, Commit.class);
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            if (in.getInt() != MAGIC) {
+                throw Utils.error("Unknown commit format.");
+            }
+            byte version = in.get();
+            if (version != VERSION && version != BLOB_MAP_VERSION) {
+                throw Utils.error("Unsupported commit format version %d.",
+                        version);
+            }
+            int flags = in.get();
+            String parent = (flags & PARENT) != 0 ? readId(in) : null;
+            String secondParent =
+                    (flags & SECOND_PARENT) != 0 ? readId(in) : null;
+            long seconds = in.getLong();
+            int offset = in.getInt();
+            String timestamp = timestamp(seconds, offset);
+            byte[] message = new byte[in.getInt()];
+            in.get(message);
+            Commit c = new Commit(new String(message,
+                    StandardCharsets.UTF_8), timestamp, null, parent,
+                    secondParent, (flags & INITIAL) != 0);
+            if (version == BLOB_MAP_VERSION) {
+                c.setEncodedBlobs(data, in.position());
+            } else {
+                c.setTree(readId(in));
+            }
+            return c;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw Utils.error("Truncated commit.");
+        }
+    }
+
+    /**
+     * The time, with its time zone, written as TIMESTAMP by Commit.
+     * @param timestamp
+     * @return time
+     */
+    static OffsetDateTime time(String timestamp) {
+        try {
+            return OffsetDateTime.parse(timestamp, TIME);
+        } catch (DateTimeParseException excp) {
+            throw new GitletException("bad timestamp");
+        }
+    }
+
+    /**
+     * The timestamp, as written by Commit, of the time SECONDS since the
+     * epoch in the time zone OFFSET minutes ahead of UTC.
+     * @param seconds
+     * @param offset
+     * @return timestamp
+     */
+    static String timestamp(long seconds, int offset) {
+        return TIME.format(OffsetDateTime.ofInstant(
+                Instant.ofEpochSecond(seconds),
+                ZoneOffset.ofTotalSeconds(offset * MINUTE)));
+    }
+
+    /**
+     * Decode the version 1 blob map that starts at OFFSET in DATA.
+     * @param data
+     * @param offset
+     * @return blobs
+     */
+    static TreeMap<String, String> decodeBlobs(byte[] data, int offset) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            in.position(offset);
+            int count = in.getInt();
+            TreeMap<String, String> blobs = new TreeMap<>();
+            for (int i = 0; i < count; i += 1) {
+                int len = Short.toUnsignedInt(in.getShort());
+                String path = new String(data, in.position(), len,
+                        StandardCharsets.UTF_8);
+                in.position(in.position() + len);
+                blobs.put(path, readId(in));
+            }
+            return blobs;
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException excp) {
+            throw Utils.error("Truncated commit.");
+        }
+    }
+
+    /**
+     * Read a binary id from IN.
+     * @param in
+     * @return id
+     */
+    private static String readId(ByteBuffer in) {
+        String id = Utils.bytesToUid(in.array(), in.position());
+        in.position(in.position() + Utils.UID_BYTES);
+        return id;
+    }
+
+    /**
+     * Return true iff DATA is a commit stored in an older format.
+     * @param data
+     * @return boolean
+     */
+    static boolean isOutdated(byte[] data) {
+        return isLegacy(data) || data.length <= Integer.BYTES
+                || data[Integer.BYTES] != VERSION;
+    }
+
+    /**
+     * Rewrite every commit stored in an older format in the current one,
+     * storing trees for their files. Commit ids change, so commits
+     * descended from rewritten ones are rewritten too, branches are moved
+     * to the new ids, and the commit graph, commit id index and message
+     * indexes are rebuilt. Returns the number of commits rewritten.
+     * @return count
+     */
+    static int migrate() {
+        HashMap<String, Commit> commits = new HashMap<>();
+        HashSet<String> outdated = new HashSet<>();
+        for (String name : ObjectStore.list(Command.COMMIT_DIR)) {
+            byte[] data = ObjectStore.read(Command.COMMIT_DIR, name);
+            commits.put(name, decode(data));
+            if (isOutdated(data)) {
+                outdated.add(name);
+            }
+        }
+        if (outdated.isEmpty()) {
+            return 0;
+        }
+        HashMap<String, String> newIds = new HashMap<>();
+        for (String start : commits.keySet()) {
+            ArrayDeque<String> work = new ArrayDeque<>();
+            work.push(start);
+            while (!work.isEmpty()) {
+                String old = work.peek();
+                if (newIds.containsKey(old)) {
+                    work.pop();
+                    continue;
+                }
+                Commit c = commits.get(old);
+                boolean ready = true;
+                for (String p : new String[] {c.getParent(),
+                                              c.getsecondParent()}) {
+                    if (p != null && commits.containsKey(p)
+                            && !newIds.containsKey(p)) {
+                        work.push(p);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    work.pop();
+                    newIds.put(old, rewrite(old, c, outdated, newIds));
+                }
+            }
+        }
+        for (File branch : Command.BRANCHES.listFiles()) {
+            String id = Utils.readContentsAsString(branch);
+            if (newIds.containsKey(id)) {
+                Utils.writeContentsAtomically(branch, newIds.get(id));
+            }
+        }
+        int count = 0;
+        for (Map.Entry<String, String> entry : newIds.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                ObjectStore.file(Command.COMMIT_DIR, entry.getKey()).delete();
+                count += 1;
+            }
+        }
+        CommitGraph.GRAPH_FILE.delete();
+        CommitIndex.rebuild();
+        MessageIndex.rebuild();
+        return count;
+    }
+
+    /**
+     * Store commit C, whose id is ID, in the current format if it is in
+     * OUTDATED or if its parents have new ids in NEWIDS, and return its
+     * new id.
+     * @param id
+     * @param c
+     * @param outdated
+     * @param newIds
+     * @return id
+     */
+    private static String rewrite(String id, Commit c, Set<String> outdated,
+                                  Map<String, String> newIds) {
+        String parent = remap(c.getParent(), newIds);
+        String secondParent = remap(c.getsecondParent(), newIds);
+        if (!outdated.contains(id) && Objects.equals(parent, c.getParent())
+                && Objects.equals(secondParent, c.getsecondParent())) {
+            return id;
+        }
+        Commit rewritten = new Commit(c.getMessage(), c.getTimeStamp(),
+                null, parent, secondParent, c.isInitial());
+        rewritten.setTree(c.getTree());
+        byte[] encoded = encode(rewritten);
+        String newId = Utils.sha1(encoded);
+        ObjectStore.write(Command.COMMIT_DIR, newId, encoded);
+        return newId;
+    }
+
+    /**
+     * The new id of commit ID according to NEWIDS, or ID itself.
+     * @param id
+     * @param newIds
+     * @return id
+     */
+    private static String remap(String id, Map<String, String> newIds) {
+        return id == null ? null : newIds.getOrDefault(id, id);
+    }
+}
@@ -0,0 +1,527 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The commit graph: a single file in GITLET_FOLDER holding one fixed-width
+ * record per commit (id, parent index, second parent index, time and
+ * generation number), so history can be walked without opening one commit
+ * file per step. Records are appended in commit order, so parents always
+ * come before their children. If the file is missing, commits are read
+ * from COMMIT_DIR as they are needed instead.
+ * @author Nora Povejsil
+ */
+class CommitGraph {
+    /**
+     * Commit graph file in GITLET_FOLDER.
+     */
+    static final File GRAPH_FILE = Utils.join(Command.GITLET_FOLDER,
+            "COMMIT_GRAPH");
+
+    /**
+     * Index used for a missing parent.
+     */
+    static final int NONE = -1;
+
+    /**
+     * Magic number at the start of GRAPH_FILE ("CGPH").
+     */
+    private static final int MAGIC = 0x43475048;
+
+    /**
+     * Version of the GRAPH_FILE format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Bytes in the header: magic and version.
+     */
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * Bytes in one record: id, two parent indexes, time and generation.
+     */
+    private static final int RECORD_SIZE = Utils.UID_BYTES
+            + 2 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    /**
+     * Initial capacity of the record arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Commit ids by index.
+     */
+    private String[] ids;
+
+    /**
+     * First parent indexes by index.
+     */
+    private int[] parents;
+
+    /**
+     * Second parent indexes by index.
+     */
+    private int[] secondParents;
+
+    /**
+     * Commit times in seconds by index.
+     */
+    private long[] times;
+
+    /**
+     * Generation numbers by index (the initial commit has generation 1).
+     */
+    private int[] generations;
+
+    /**
+     * Number of commits in this graph.
+     */
+    private int size;
+
+    /**
+     * Indexes of commit ids.
+     */
+    private final HashMap<String, Integer> positions = new HashMap<>();
+
+    /**
+     * Empty graph.
+     * @param capacity
+     */
+    private CommitGraph(int capacity) {
+        capacity = Math.max(capacity, INITIAL_CAPACITY);
+        ids = new String[capacity];
+        parents = new int[capacity];
+        secondParents = new int[capacity];
+        times = new long[capacity];
+        generations = new int[capacity];
+    }
+
+    /**
+     * Read GRAPH_FILE, or return an empty graph that falls back to
+     * COMMIT_DIR if there is none.
+     * @return graph
+     */
+    static CommitGraph load() {
+        if (!GRAPH_FILE.exists()) {
+            return new CommitGraph(0);
+        }
+        ByteBuffer data = ByteBuffer.wrap(Utils.readContents(GRAPH_FILE));
+        if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC
+                || data.getInt() != VERSION) {
+            throw new GitletException("corrupt commit graph");
+        }
+        int count = data.remaining() / RECORD_SIZE;
+        CommitGraph graph = new CommitGraph(count);
+        byte[] id = new byte[Utils.UID_BYTES];
+        for (int i = 0; i < count; i += 1) {
+            data.get(id);
+            graph.add(Utils.bytesToUid(id, 0), data.getInt(), data.getInt(),
+                    data.getLong(), data.getInt());
+        }
+        return graph;
+    }
+
+    /**
+     * Record the newly written commit C with id ID in GRAPH_FILE, writing
+     * the whole file if it did not exist yet.
+     * @param id
+     * @param c
+     */
+    static void append(String id, Commit c) {
+        appendAll(List.of(id), List.of(c));
+    }
+
+    /**
+     * Record the newly written commits COMMITS, whose ids are IDS, in
+     * GRAPH_FILE with one write. Each commit's parents must come before it
+     * or already be recorded. Only as many records at the end of the file
+     * as it takes to find the parents are read; if they are not all there,
+     * or the file is missing or torn, the whole file is written instead.
+     * @param ids
+     * @param commits
+     */
+    static void appendAll(List<String> ids, List<Commit> commits) {
+        if (GRAPH_FILE.exists() && Tail.append(ids, commits)) {
+            return;
+        }
+        CommitGraph graph = load();
+        for (int i = 0; i < ids.size(); i += 1) {
+            if (!graph.positions.containsKey(ids.get(i))) {
+                graph.add(ids.get(i), commits.get(i));
+            }
+        }
+        graph.writeAll();
+    }
+
+    /**
+     * Rewrite GRAPH_FILE to hold just the commits TIPS and their
+     * ancestors, as after commits were deleted.
+     * @param tips
+     */
+    static void rebuild(Collection<String> tips) {
+        GRAPH_FILE.delete();
+        CommitGraph graph = new CommitGraph(0);
+        for (String tip : tips) {
+            graph.lookup(tip);
+        }
+        graph.writeAll();
+    }
+
+    /**
+     * Replace GRAPH_FILE with all of the records.
+     */
+    private void writeAll() {
+        ByteBuffer all = ByteBuffer.allocate(HEADER_SIZE
+                + size * RECORD_SIZE);
+        all.putInt(MAGIC).putInt(VERSION);
+        putRecords(all, 0);
+        Utils.writeContentsAtomically(GRAPH_FILE, all.array());
+    }
+
+    /**
+     * Put the records from index START on into BUF.
+     * @param buf
+     * @param start
+     */
+    private void putRecords(ByteBuffer buf, int start) {
+        for (int i = start; i < size; i += 1) {
+            buf.put(Utils.uidToBytes(ids[i]));
+            buf.putInt(parents[i]).putInt(secondParents[i]);
+            buf.putLong(times[i]).putInt(generations[i]);
+        }
+    }
+
+    /**
+     * Return the index of the commit with id ID, reading it and any of its
+     * ancestors that are missing from COMMIT_DIR.
+     * @param id
+     * @return index
+     */
+    int lookup(String id) {
+        Integer pos = positions.get(id);
+        if (pos != null) {
+            return pos;
+        }
+        HashMap<String, Commit> pending = new HashMap<>();
+        ArrayDeque<String> work = new ArrayDeque<>();
+        work.push(id);
+        while (!work.isEmpty()) {
+            String next = work.peek();
+            if (positions.containsKey(next)) {
+                work.pop();
+                continue;
+            }
+            Commit c = pending.get(next);
+            if (c == null) {
+                c = Command.readCommit(next);
+                pending.put(next, c);
+            }
+            boolean ready = true;
+            for (String p : new String[] {c.getParent(),
+                                          c.getsecondParent()}) {
+                if (p != null && !positions.containsKey(p)) {
+                    work.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                work.pop();
+                pending.remove(next);
+                add(next, c);
+            }
+        }
+        return positions.get(id);
+    }
+
+    /**
+     * Add the commit C with id ID, whose parents are already present.
+     * @param id
+     * @param c
+     */
+    private void add(String id, Commit c) {
+        int p1 = c.getParent() == null ? NONE : lookup(c.getParent());
+        int p2 = c.getsecondParent() == null ? NONE
+                : lookup(c.getsecondParent());
+        int gen = 1;
+        if (p1 != NONE) {
+            gen = Math.max(gen, generations[p1] + 1);
+        }
+        if (p2 != NONE) {
+            gen = Math.max(gen, generations[p2] + 1);
+        }
+        add(id, p1, p2, c.getTime(), gen);
+    }
+
+    /**
+     * Add a record.
+     * @param id
+     * @param p1
+     * @param p2
+     * @param time
+     * @param gen
+     */
+    private void add(String id, int p1, int p2, long time, int gen) {
+        if (size == ids.length) {
+            int capacity = 2 * size;
+            ids = Arrays.copyOf(ids, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            secondParents = Arrays.copyOf(secondParents, capacity);
+            times = Arrays.copyOf(times, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+        }
+        ids[size] = id;
+        parents[size] = p1;
+        secondParents[size] = p2;
+        times[size] = time;
+        generations[size] = gen;
+        positions.put(id, size);
+        size += 1;
+    }
+
+    /**
+     * Number of commits.
+     * @return int
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Commit id.
+     * @param index
+     * @return string
+     */
+    String id(int index) {
+        return ids[index];
+    }
+
+    /**
+     * First parent index, or NONE.
+     * @param index
+     * @return int
+     */
+    int parent(int index) {
+        return parents[index];
+    }
+
+    /**
+     * Second parent index, or NONE.
+     * @param index
+     * @return int
+     */
+    int secondParent(int index) {
+        return secondParents[index];
+    }
+
+    /**
+     * Commit time in seconds.
+     * @param index
+     * @return long
+     */
+    long time(int index) {
+        return times[index];
+    }
+
+    /**
+     * Generation number.
+     * @param index
+     * @return int
+     */
+    int generation(int index) {
+        return generations[index];
+    }
+
+    /**
+     * The end of GRAPH_FILE, read backwards a block of records at a time
+     * only as far as appending new commits to it needs. A commit's record
+     * comes after its parents', so once they are found, the commit itself
+     * is already recorded only if it was seen on the way.
+     */
+    private static final class Tail {
+        /**
+         * Number of records read at once.
+         */
+        private static final int BLOCK = 64;
+
+        /**
+         * The open GRAPH_FILE.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Number of records in GRAPH_FILE before the new ones.
+         */
+        private final int count;
+
+        /**
+         * Index of the lowest record read so far.
+         */
+        private int scanned;
+
+        /**
+         * Indexes of the commit ids read so far and of the new ones.
+         */
+        private final HashMap<String, Integer> positions = new HashMap<>();
+
+        /**
+         * Generation numbers by index, of the same records.
+         */
+        private final HashMap<Integer, Integer> generations =
+                new HashMap<>();
+
+        /**
+         * The new records, in order.
+         */
+        private final ByteBuffer added;
+
+        /**
+         * The end of CHANNEL1, which holds COUNT1 records, with room for
+         * CAPACITY new ones.
+         * @param channel1
+         * @param count1
+         * @param capacity
+         */
+        private Tail(FileChannel channel1, int count1, int capacity) {
+            channel = channel1;
+            count = count1;
+            scanned = count1;
+            added = ByteBuffer.allocate(capacity * RECORD_SIZE);
+        }
+
+        /**
+         * Append the records of COMMITS, whose ids are IDS, that are not
+         * yet in GRAPH_FILE, and return true; or return false, writing
+         * nothing, if GRAPH_FILE ends in a torn record or lacks a parent
+         * of one of them.
+         * @param ids
+         * @param commits
+         * @return boolean
+         */
+        static boolean append(List<String> ids, List<Commit> commits) {
+            try (FileChannel channel = FileChannel.open(GRAPH_FILE.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                if (header.hasRemaining() || header.getInt(0) != MAGIC
+                        || header.getInt(Integer.BYTES) != VERSION) {
+                    throw new GitletException("corrupt commit graph");
+                }
+                long records = channel.size() - HEADER_SIZE;
+                if (records % RECORD_SIZE != 0) {
+                    return false;
+                }
+                Tail tail = new Tail(channel, (int) (records / RECORD_SIZE),
+                        ids.size());
+                for (int i = 0; i < ids.size(); i += 1) {
+                    if (!tail.add(ids.get(i), commits.get(i))) {
+                        return false;
+                    }
+                }
+                tail.write();
+                return true;
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            }
+        }
+
+        /**
+         * Add a record for the commit C with id ID unless it is already
+         * recorded, and return true; or return false if a parent of C is
+         * not recorded.
+         * @param id
+         * @param c
+         * @return boolean
+         * @throws IOException
+         */
+        private boolean add(String id, Commit c) throws IOException {
+            int p1 = find(c.getParent(), 0);
+            int p2 = find(c.getsecondParent(), 0);
+            if (p1 == NONE && c.getParent() != null
+                    || p2 == NONE && c.getsecondParent() != null) {
+                return false;
+            }
+            if (find(id, Math.max(p1, p2) + 1) != NONE) {
+                return true;
+            }
+            int gen = 1;
+            if (p1 != NONE) {
+                gen = Math.max(gen, generations.get(p1) + 1);
+            }
+            if (p2 != NONE) {
+                gen = Math.max(gen, generations.get(p2) + 1);
+            }
+            int index = count + added.position() / RECORD_SIZE;
+            positions.put(id, index);
+            generations.put(index, gen);
+            added.put(Utils.uidToBytes(id)).putInt(p1).putInt(p2);
+            added.putLong(c.getTime()).putInt(gen);
+            return true;
+        }
+
+        /**
+         * Return the index of the commit with id ID, or NONE if ID is null
+         * or there is no record of it at index FLOOR or above.
+         * @param id
+         * @param floor
+         * @return index
+         * @throws IOException
+         */
+        private int find(String id, int floor) throws IOException {
+            if (id == null) {
+                return NONE;
+            }
+            Integer pos = positions.get(id);
+            while (pos == null && scanned > floor) {
+                readBlock();
+                pos = positions.get(id);
+            }
+            return pos == null ? NONE : pos;
+        }
+
+        /**
+         * Read the block of records just below the lowest read so far.
+         * @throws IOException
+         */
+        private void readBlock() throws IOException {
+            int start = Math.max(0, scanned - BLOCK);
+            ByteBuffer block = ByteBuffer.allocate((scanned - start)
+                    * RECORD_SIZE);
+            long offset = HEADER_SIZE + (long) start * RECORD_SIZE;
+            while (block.hasRemaining()) {
+                if (channel.read(block, offset + block.position()) < 0) {
+                    throw new GitletException("corrupt commit graph");
+                }
+            }
+            byte[] data = block.array();
+            for (int i = scanned - 1; i >= start; i -= 1) {
+                int at = (i - start) * RECORD_SIZE;
+                positions.putIfAbsent(Utils.bytesToUid(data, at), i);
+                generations.put(i, block.getInt(at + RECORD_SIZE
+                        - Integer.BYTES));
+            }
+            scanned = start;
+        }
+
+        /**
+         * Write the new records at the end of GRAPH_FILE.
+         * @throws IOException
+         */
+        private void write() throws IOException {
+            long offset = HEADER_SIZE + (long) count * RECORD_SIZE;
+            added.flip();
+            while (added.hasRemaining()) {
+                offset += channel.write(added, offset);
+            }
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the commit graph file.
+ * @author Nora Povejsil
+ */
+public class CommitGraphTest {
+    /**
+     * Magic number of the commit graph file.
+     */
+    private static final int MAGIC = 0x43475048;
+
+    /**
+     * Bytes in the header of the commit graph file.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Bytes in one record of the commit graph file.
+     */
+    private static final int RECORD_SIZE = 40;
+
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Ids of the initial commit, R, A1, B1, MA and MB, in that order:
+     * R follows the initial commit, A1 and B1 follow R, and MA and MB
+     * each merge A1 and B1.
+     */
+    private String[] ids;
+
+    /**
+     * Make the scratch repository, holding the commits IDS, with master
+     * checked out. The branches a1 and b1 point to A1 and B1, and a and b
+     * to MA and MB.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+        String initial = repo.head();
+        repo.write("r.txt", "r\n");
+        repo.commit("R", "r.txt");
+        repo.quiet("branch", "a");
+        repo.quiet("branch", "b");
+        repo.quiet("checkout", "a");
+        repo.write("a.txt", "a\n");
+        repo.commit("A1", "a.txt");
+        repo.quiet("branch", "a1");
+        repo.quiet("checkout", "b");
+        repo.write("b.txt", "b\n");
+        repo.commit("B1", "b.txt");
+        repo.quiet("branch", "b1");
+        repo.quiet("checkout", "a");
+        repo.quiet("merge", "b1");
+        repo.quiet("checkout", "b");
+        repo.quiet("merge", "a1");
+        repo.quiet("checkout", "master");
+        ids = new String[] {initial, repo.branch("master"),
+                            repo.branch("a1"), repo.branch("b1"),
+                            repo.branch("a"), repo.branch("b")};
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * Check that GRAPH holds the commits IDS with their parents, times
+     * and generation numbers, parents first.
+     * @param graph
+     */
+    private void checkGraph(CommitGraph graph) {
+        int[][] parents = {{}, {0}, {1}, {1}, {2, 3}, {3, 2}};
+        int[] generations = {1, 2, 3, 3, 4, 4};
+        for (int i = 0; i < ids.length; i += 1) {
+            int node = graph.lookup(ids[i]);
+            assertEquals(ids[i], graph.id(node));
+            assertEquals(generations[i], graph.generation(node));
+            int[] expected = parents[i];
+            assertEquals(expected.length > 0 ? ids[expected[0]] : null,
+                    idOf(graph, graph.parent(node)));
+            assertEquals(expected.length > 1 ? ids[expected[1]] : null,
+                    idOf(graph, graph.secondParent(node)));
+            if (graph.parent(node) != CommitGraph.NONE) {
+                assertTrue(graph.parent(node) < node);
+            }
+            if (graph.secondParent(node) != CommitGraph.NONE) {
+                assertTrue(graph.secondParent(node) < node);
+            }
+            assertEquals(Command.readCommit(ids[i]).getTime(),
+                    graph.time(node));
+        }
+    }
+
+    /**
+     * The id of NODE of GRAPH, or null for NONE.
+     * @param graph
+     * @param node
+     * @return id
+     */
+    private static String idOf(CommitGraph graph, int node) {
+        return node == CommitGraph.NONE ? null : graph.id(node);
+    }
+
+    /**
+     * The graph file holds a record for each commit, with its parents,
+     * time and generation.
+     */
+    @Test
+    public void recordsAndGenerations() {
+        CommitGraph graph = CommitGraph.load();
+        assertEquals(ids.length, graph.size());
+        checkGraph(graph);
+        assertEquals(HEADER_SIZE + ids.length * RECORD_SIZE,
+                CommitGraph.GRAPH_FILE.length());
+    }
+
+    /**
+     * The records are laid out as documented.
+     */
+    @Test
+    public void fileFormat() {
+        ByteBuffer data = ByteBuffer.wrap(
+                Utils.readContents(CommitGraph.GRAPH_FILE));
+        assertEquals(MAGIC, data.getInt());
+        assertEquals(1, data.getInt());
+        byte[] id = new byte[Utils.UID_BYTES];
+        data.get(id);
+        assertEquals(ids[0], Utils.bytesToUid(id, 0));
+        assertEquals(CommitGraph.NONE, data.getInt());
+        assertEquals(CommitGraph.NONE, data.getInt());
+        data.getLong();
+        assertEquals(1, data.getInt());
+    }
+
+    /**
+     * A commit appends one record, without rewriting the others.
+     */
+    @Test
+    public void commitAppends() {
+        byte[] before = Utils.readContents(CommitGraph.GRAPH_FILE);
+        repo.write("a.txt", "a\n");
+        String id = repo.commit("next", "a.txt");
+        byte[] after = Utils.readContents(CommitGraph.GRAPH_FILE);
+        assertEquals(before.length + RECORD_SIZE, after.length);
+        for (int i = 0; i < before.length; i += 1) {
+            assertEquals(before[i], after[i]);
+        }
+        CommitGraph graph = CommitGraph.load();
+        int node = graph.lookup(id);
+        assertEquals(ids.length, node);
+        assertEquals(ids[1], graph.id(graph.parent(node)));
+        assertEquals(3, graph.generation(node));
+    }
+
+    /**
+     * Appending commits that are already recorded, a merge or the initial
+     * commit, leaves the file as it was.
+     */
+    @Test
+    public void recordedCommitsNotAppended() {
+        byte[] before = Utils.readContents(CommitGraph.GRAPH_FILE);
+        CommitGraph.appendAll(List.of(ids[4], ids[0]),
+                List.of(Command.readCommit(ids[4]),
+                        Command.readCommit(ids[0])));
+        assertArrayEquals(before, Utils.readContents(
+                CommitGraph.GRAPH_FILE));
+    }
+
+    /**
+     * A file that ends in a torn record, or lacks a parent of the commit
+     * appended, is written again in full.
+     */
+    @Test
+    public void tornOrPartialFileRewritten() {
+        byte[] data = Utils.readContents(CommitGraph.GRAPH_FILE);
+        Utils.writeContents(CommitGraph.GRAPH_FILE, data,
+                new byte[RECORD_SIZE / 2]);
+        repo.write("a.txt", "a\n");
+        String id = repo.commit("next", "a.txt");
+        assertEquals(data.length + RECORD_SIZE,
+                CommitGraph.GRAPH_FILE.length());
+        assertEquals(ids.length, CommitGraph.load().lookup(id));
+        CommitGraph.rebuild(List.of(ids[1]));
+        CommitGraph.append(ids[4], Command.readCommit(ids[4]));
+        CommitGraph graph = CommitGraph.load();
+        assertEquals(5, graph.size());
+        checkGraph(graph);
+    }
+
+    /**
+     * Without the graph file, commits are read as they are needed and
+     * give the same graph.
+     */
+    @Test
+    public void missingFile() {
+        CommitGraph.GRAPH_FILE.delete();
+        CommitGraph graph = CommitGraph.load();
+        assertEquals(0, graph.size());
+        checkGraph(graph);
+        assertFalse(CommitGraph.GRAPH_FILE.exists());
+        assertTrue(repo.run("log").contains("R\n"));
+    }
+}
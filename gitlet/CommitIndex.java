@@ -0,0 +1,393 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+/**
+ * Table of all commit ids, used to expand abbreviated ids. The file starts
+ * with a 256-entry fan-out table, whose entry B is the number of sorted
+ * ids whose first byte is at most B, followed by the sorted binary ids. A
+ * prefix is resolved by binary search within its fan-out bucket. New ids
+ * are appended after the sorted ones, as an unsorted tail that lookups
+ * scan, and are merged into the sorted ids once there are TAIL_LIMIT of
+ * them, so adding a commit does not rewrite the table.
+ * @author Nora Povejsil
+ */
+class CommitIndex {
+    /**
+     * Commit id index file in GITLET_FOLDER.
+     */
+    static final File INDEX_FILE = Utils.join(Command.GITLET_FOLDER,
+            "COMMIT_IDS");
+
+    /**
+     * Ids in the tail that cause it to be merged into the sorted ids.
+     */
+    static final int TAIL_LIMIT = 1024;
+
+    /**
+     * Magic number at the start of INDEX_FILE ("CIDX").
+     */
+    private static final int MAGIC = 0x43494458;
+
+    /**
+     * Version of the INDEX_FILE format. Version 1 had no tail.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Entries in the fan-out table.
+     */
+    private static final int FANOUT = 256;
+
+    /**
+     * Bytes before the first id.
+     */
+    private static final int HEADER_SIZE = 2 * Integer.BYTES
+            + FANOUT * Integer.BYTES;
+
+    /**
+     * Add the new commit id ID to INDEX_FILE, building the table from
+     * COMMIT_DIR instead if there is none.
+     * @param id
+     */
+    static void add(String id) {
+        addAll(List.of(id));
+    }
+
+    /**
+     * Add the new commit ids IDS to the tail of INDEX_FILE with one
+     * append, merging the tail into the sorted ids if it grows too long.
+     * The table is built from COMMIT_DIR instead if there is none, or it
+     * does not hold as many ids as its header counts.
+     * @param ids
+     */
+    static void addAll(Collection<String> ids) {
+        ByteBuffer header = header();
+        if (header == null) {
+            rebuild();
+            return;
+        }
+        byte[] added = new byte[ids.size() * Utils.UID_BYTES];
+        int pos = 0;
+        for (String id : ids) {
+            System.arraycopy(Utils.uidToBytes(id), 0, added, pos,
+                    Utils.UID_BYTES);
+            pos += Utils.UID_BYTES;
+        }
+        try (FileOutputStream out = new FileOutputStream(INDEX_FILE, true)) {
+            out.write(added);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        long tail = (INDEX_FILE.length() - HEADER_SIZE) / Utils.UID_BYTES
+                - fanout(header, FANOUT - 1);
+        if (tail >= TAIL_LIMIT || header.getInt(Integer.BYTES) != VERSION) {
+            merge();
+        }
+    }
+
+    /**
+     * Merge the tail of INDEX_FILE into its sorted ids.
+     */
+    private static void merge() {
+        byte[] data = Utils.readContents(INDEX_FILE);
+        TreeSet<String> sorted = new TreeSet<>();
+        for (int off = HEADER_SIZE; off + Utils.UID_BYTES <= data.length;
+             off += Utils.UID_BYTES) {
+            sorted.add(Utils.bytesToUid(data, off));
+        }
+        byte[] all = new byte[sorted.size() * Utils.UID_BYTES];
+        int pos = 0;
+        for (String id : sorted) {
+            System.arraycopy(Utils.uidToBytes(id), 0, all, pos,
+                    Utils.UID_BYTES);
+            pos += Utils.UID_BYTES;
+        }
+        write(all, sorted.size());
+    }
+
+    /**
+     * Rebuild INDEX_FILE from every stored commit, loose or packed.
+     */
+    static void rebuild() {
+        List<String> sorted = ObjectStore.list(Command.COMMIT_DIR);
+        sorted.sort(null);
+        byte[] ids = new byte[sorted.size() * Utils.UID_BYTES];
+        for (int i = 0; i < sorted.size(); i += 1) {
+            System.arraycopy(Utils.uidToBytes(sorted.get(i)), 0, ids,
+                    i * Utils.UID_BYTES, Utils.UID_BYTES);
+        }
+        write(ids, sorted.size());
+    }
+
+    /**
+     * Write INDEX_FILE holding the COUNT sorted binary ids in IDS.
+     * @param ids
+     * @param count
+     */
+    private static void write(byte[] ids, int count) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION);
+        int[] fanout = new int[FANOUT];
+        for (int i = 0; i < count; i += 1) {
+            fanout[ids[i * Utils.UID_BYTES] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < FANOUT; b += 1) {
+            total += fanout[b];
+            header.putInt(total);
+        }
+        Utils.writeContentsAtomically(INDEX_FILE, header.array(), ids);
+    }
+
+    /**
+     * The header of INDEX_FILE, or null if there is none, or the file does
+     * not hold as many ids as the header counts. Throws a GitletException
+     * if the file is not a commit id index.
+     * @return header
+     */
+    private static ByteBuffer header() {
+        if (!INDEX_FILE.exists()) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath(),
+                StandardOpenOption.READ)) {
+            channel.read(header);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        if (header.position() >= 2 * Integer.BYTES
+                && (header.getInt(0) != MAGIC
+                    || header.getInt(Integer.BYTES) < 1
+                    || header.getInt(Integer.BYTES) > VERSION)) {
+            throw new GitletException("corrupt commit id index");
+        }
+        if (header.hasRemaining()) {
+            return null;
+        }
+        long ids = INDEX_FILE.length() - HEADER_SIZE;
+        long sorted = (long) fanout(header, FANOUT - 1) * Utils.UID_BYTES;
+        if (ids % Utils.UID_BYTES != 0 || sorted > ids
+                || header.getInt(Integer.BYTES) < VERSION && sorted != ids) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Return the full id of the commit whose id starts with PREFIX, or
+     * null if there is none. Throws a GitletException if more than one
+     * commit id starts with PREFIX. The table is built first if there is
+     * none, or it does not hold as many ids as its header counts.
+     * @param prefix
+     * @return id
+     */
+    static String resolve(String prefix) {
+        prefix = prefix.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH
+                || !prefix.matches("[0-9a-f]+")) {
+            return null;
+        }
+        if (prefix.length() == Utils.UID_LENGTH
+                && ObjectStore.exists(Command.COMMIT_DIR, prefix)) {
+            return prefix;
+        }
+        if (header() == null) {
+            rebuild();
+        }
+        return lookup(prefix);
+    }
+
+    /**
+     * Search INDEX_FILE for the id starting with the hex string PREFIX, as
+     * described in resolve.
+     * @param prefix
+     * @return id
+     */
+    private static String lookup(String prefix) {
+        ByteBuffer table = map();
+        int low = Integer.parseInt(pad(prefix, '0'), 16);
+        int high = Integer.parseInt(pad(prefix, 'f'), 16);
+        int start = low == 0 ? 0 : fanout(table, low - 1);
+        int end = fanout(table, high);
+        StringBuilder lowest = new StringBuilder(prefix);
+        while (lowest.length() < Utils.UID_LENGTH) {
+            lowest.append('0');
+        }
+        byte[] key = Utils.uidToBytes(lowest.toString());
+        TreeSet<String> matches = new TreeSet<>();
+        for (int pos = search(table, key, start, end);
+             pos < end && matches.size() < 2; pos += 1) {
+            String id = idAt(table, pos);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            matches.add(id);
+        }
+        for (int off = tailStart(table); off < table.limit()
+                 && matches.size() < 2; off += Utils.UID_BYTES) {
+            String id = uidAt(table, off);
+            if (id.startsWith(prefix)) {
+                matches.add(id);
+            }
+        }
+        if (matches.size() > 1) {
+            throw Utils.error("Commit id %s is ambiguous.", prefix);
+        }
+        return matches.isEmpty() ? null : matches.first();
+    }
+
+    /**
+     * All commit ids in INDEX_FILE, in ascending order, read from a
+     * mapping of the file rather than loaded at once, with the ids of the
+     * tail merged in. The table is built first if there is none, or it
+     * does not hold as many ids as its header counts.
+     * @return ids
+     */
+    static Iterator<String> iterator() {
+        if (header() == null) {
+            rebuild();
+        }
+        ByteBuffer table = map();
+        int count = fanout(table, FANOUT - 1);
+        TreeSet<String> tail = new TreeSet<>();
+        for (int off = tailStart(table); off < table.limit();
+             off += Utils.UID_BYTES) {
+            tail.add(uidAt(table, off));
+        }
+        Iterator<String> rest = tail.iterator();
+        return new Iterator<String>() {
+            private int next = 0;
+
+            private String pending = rest.hasNext() ? rest.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return next < count || pending != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String sorted = next < count ? idAt(table, next) : null;
+                int cmp = sorted == null ? 1
+                        : pending == null ? -1 : sorted.compareTo(pending);
+                if (cmp <= 0) {
+                    next += 1;
+                    if (cmp == 0) {
+                        pending = rest.hasNext() ? rest.next() : null;
+                    }
+                    return sorted;
+                }
+                String result = pending;
+                pending = rest.hasNext() ? rest.next() : null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * A read-only mapping of INDEX_FILE.
+     * @return table
+     */
+    private static ByteBuffer map() {
+        try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /**
+     * The position in TABLE of the first id of its tail.
+     * @param table
+     * @return offset
+     */
+    private static int tailStart(ByteBuffer table) {
+        return HEADER_SIZE + fanout(table, FANOUT - 1) * Utils.UID_BYTES;
+    }
+
+    /**
+     * The first byte of the ids starting with PREFIX, with the rest of the
+     * byte filled in with FILL, as two hex digits.
+     * @param prefix
+     * @param fill
+     * @return string
+     */
+    private static String pad(String prefix, char fill) {
+        return prefix.length() >= 2 ? prefix.substring(0, 2)
+                : prefix + fill;
+    }
+
+    /**
+     * Fan-out entry B of TABLE.
+     * @param table
+     * @param b
+     * @return int
+     */
+    private static int fanout(ByteBuffer table, int b) {
+        return table.getInt(2 * Integer.BYTES + b * Integer.BYTES);
+    }
+
+    /**
+     * The id at position POS of the sorted ids of TABLE.
+     * @param table
+     * @param pos
+     * @return id
+     */
+    private static String idAt(ByteBuffer table, int pos) {
+        return uidAt(table, HEADER_SIZE + pos * Utils.UID_BYTES);
+    }
+
+    /**
+     * The binary id at OFF in TABLE, as a hex string.
+     * @param table
+     * @param off
+     * @return id
+     */
+    private static String uidAt(ByteBuffer table, int off) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        table.get(off, id);
+        return Utils.bytesToUid(id, 0);
+    }
+
+    /**
+     * Return the first position in [START, END) of TABLE whose id is not
+     * less than KEY, or END.
+     * @param table
+     * @param key
+     * @param start
+     * @param end
+     * @return int
+     */
+    private static int search(ByteBuffer table, byte[] key, int start,
+                              int end) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            table.get(HEADER_SIZE + mid * Utils.UID_BYTES, id);
+            if (Arrays.compareUnsigned(id, key) < 0) {
+                start = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        return start;
+    }
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static gitlet.TestRepository.importCommit;
+
+/**
+ * Tests of the commit id index used to expand abbreviated ids.
+ * @author Nora Povejsil
+ */
+public class CommitIndexTest {
+    /**
+     * Bytes before the first id of the index.
+     */
+    private static final int HEADER_SIZE = 8 + 256 * 4;
+
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * Import a chain of N commits on the branch master.
+     * @param n
+     */
+    private void importMany(int n) {
+        StringBuilder stream = new StringBuilder();
+        for (int i = 1; i <= n; i += 1) {
+            if (i == 1) {
+                stream.append(importCommit("master", i, 1000, "c1"));
+            } else {
+                stream.append(importCommit("master", i, 1000 + i, "c" + i,
+                        i - 1));
+            }
+        }
+        repo.importHistory(stream.toString());
+    }
+
+    /**
+     * Make N commits, one at a time.
+     * @param n
+     */
+    private void commitEach(int n) {
+        for (int i = 0; i < n; i += 1) {
+            repo.write("f.txt", repo.head());
+            repo.commit("commit", "f.txt");
+        }
+    }
+
+    /**
+     * The ids of every stored commit, in ascending order.
+     * @return ids
+     */
+    private static List<String> all() {
+        List<String> result = ObjectStore.list(Command.COMMIT_DIR);
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * The number of ids in the sorted part of the index.
+     * @return count
+     */
+    private static int sorted() {
+        return ByteBuffer.wrap(Utils.readContents(CommitIndex.INDEX_FILE))
+                .getInt(HEADER_SIZE - Integer.BYTES);
+    }
+
+    /**
+     * The number of ids in the tail of the index.
+     * @return count
+     */
+    private static int tail() {
+        return (int) ((CommitIndex.INDEX_FILE.length() - HEADER_SIZE)
+                / Utils.UID_BYTES) - sorted();
+    }
+
+    /**
+     * Check that every prefix of every commit id of up to 6 digits, and
+     * the full id, resolves to the id if it is unique and is reported as
+     * ambiguous otherwise, and that the index lists every id.
+     */
+    private static void checkResolve() {
+        List<String> ids = all();
+        for (String id : ids) {
+            for (int len = 1; len <= 6; len += 1) {
+                String prefix = id.substring(0, len);
+                long matches = ids.stream()
+                        .filter(other -> other.startsWith(prefix)).count();
+                if (matches == 1) {
+                    assertEquals(id, CommitIndex.resolve(prefix));
+                    assertEquals(id, CommitIndex.resolve(
+                            prefix.toUpperCase()));
+                } else {
+                    try {
+                        CommitIndex.resolve(prefix);
+                        fail(prefix + " is ambiguous");
+                    } catch (GitletException excp) {
+                        assertEquals("Commit id " + prefix
+                                + " is ambiguous.", excp.getMessage());
+                    }
+                }
+            }
+            assertEquals(id, CommitIndex.resolve(id));
+        }
+        List<String> listed = new ArrayList<>();
+        for (Iterator<String> it = CommitIndex.iterator(); it.hasNext();) {
+            listed.add(it.next());
+        }
+        assertEquals(ids, listed);
+    }
+
+    /**
+     * A prefix that no commit id starts with, with length LEN.
+     * @param len
+     * @return prefix
+     */
+    private static String absent(int len) {
+        List<String> ids = all();
+        for (long n = 0;; n += 1) {
+            String prefix = String.format("%0" + len + "x", n);
+            if (ids.stream().noneMatch(id -> id.startsWith(prefix))) {
+                return prefix;
+            }
+        }
+    }
+
+    /**
+     * Commits, made or imported, are appended to the tail without
+     * rewriting the sorted ids, and resolved from both.
+     */
+    @Test
+    public void appendedCommits() {
+        importMany(40);
+        assertEquals(40, tail());
+        CommitIndex.rebuild();
+        assertEquals(0, tail());
+        byte[] before = Utils.readContents(CommitIndex.INDEX_FILE);
+        commitEach(20);
+        assertEquals(20, tail());
+        byte[] after = Utils.readContents(CommitIndex.INDEX_FILE);
+        assertEquals(before.length + 20 * Utils.UID_BYTES, after.length);
+        assertArrayEquals(before, Arrays.copyOf(after, before.length));
+        checkResolve();
+    }
+
+    /**
+     * A prefix that matches no commit is not found, without rebuilding
+     * the index, and commands report it.
+     */
+    @Test
+    public void misses() {
+        importMany(30);
+        commitEach(2);
+        byte[] before = Utils.readContents(CommitIndex.INDEX_FILE);
+        long time = CommitIndex.INDEX_FILE.lastModified() - 10000;
+        CommitIndex.INDEX_FILE.setLastModified(time);
+        for (int len : new int[] {2, 6, Utils.UID_LENGTH}) {
+            assertNull(CommitIndex.resolve(absent(len)));
+        }
+        assertNull(CommitIndex.resolve("xyz"));
+        assertEquals("No commit with that id exists.\n",
+                repo.run("reset", absent(4)));
+        assertEquals("No commit with that id exists.\n",
+                repo.run("checkout", absent(7), "--", "f.txt"));
+        assertEquals(time, CommitIndex.INDEX_FILE.lastModified());
+        assertArrayEquals(before, Utils.readContents(CommitIndex.INDEX_FILE));
+    }
+
+    /**
+     * Once the tail reaches its limit it is merged into the sorted ids.
+     */
+    @Test
+    public void mergedTail() {
+        commitEach(3);
+        importMany(CommitIndex.TAIL_LIMIT);
+        assertEquals(0, tail());
+        assertEquals(all().size(), sorted());
+        checkResolve();
+    }
+
+    /**
+     * An index that is missing, or holds a different number of ids than
+     * its header counts, is rebuilt, and one from before the tail was
+     * added is read and then upgraded.
+     */
+    @Test
+    public void rebuilt() {
+        importMany(30);
+        commitEach(3);
+        CommitIndex.INDEX_FILE.delete();
+        checkResolve();
+
+        byte[] data = Utils.readContents(CommitIndex.INDEX_FILE);
+        Utils.writeContents(CommitIndex.INDEX_FILE,
+                Arrays.copyOf(data, data.length - 7));
+        checkResolve();
+        assertEquals(data.length, CommitIndex.INDEX_FILE.length());
+
+        ByteBuffer.wrap(data).putInt(HEADER_SIZE - Integer.BYTES,
+                sorted() + 1);
+        Utils.writeContents(CommitIndex.INDEX_FILE, data);
+        checkResolve();
+        assertEquals(0, tail());
+
+        data = Utils.readContents(CommitIndex.INDEX_FILE);
+        ByteBuffer.wrap(data).putInt(Integer.BYTES, 1);
+        Utils.writeContents(CommitIndex.INDEX_FILE, data);
+        checkResolve();
+        commitEach(1);
+        assertEquals(2, ByteBuffer.wrap(Utils.readContents(
+                CommitIndex.INDEX_FILE)).getInt(Integer.BYTES));
+        assertEquals(0, tail());
+        checkResolve();
+    }
+
+    /**
+     * A file that is not a commit id index is rejected.
+     */
+    @Test
+    public void corrupt() {
+        byte[] data = Utils.readContents(CommitIndex.INDEX_FILE);
+        ByteBuffer.wrap(data).putInt(0, 0);
+        Utils.writeContents(CommitIndex.INDEX_FILE, data);
+        try {
+            CommitIndex.resolve("ab");
+            fail("read a corrupt index");
+        } catch (GitletException excp) {
+            assertEquals("corrupt commit id index", excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-repository settings, kept as KEY=VALUE lines in CONFIG_FILE. A Java
+ * system property gitlet.KEY overrides the stored value for one run.
+ * @author Nora Povejsil
+ */
+class Config {
+    /**
+     * Config file in GITLET_FOLDER.
+     */
+    static final File CONFIG_FILE = Utils.join(Command.GITLET_FOLDER,
+            "CONFIG");
+
+    /**
+     * Key: recompute commit ids when reading commits.
+     */
+    static final String VERIFY = "verify";
+
+    /**
+     * Stored settings, read on first use.
+     */
+    private static TreeMap<String, String> values = null;
+
+    /**
+     * Stored settings. Synchronized, since commits are read on worker
+     * threads.
+     * @return map
+     */
+    private static synchronized TreeMap<String, String> values() {
+        if (values == null) {
+            values = new TreeMap<>();
+            if (CONFIG_FILE.exists()) {
+                String[] lines =
+                        Utils.readContentsAsString(CONFIG_FILE).split("\n");
+                for (String line : lines) {
+                    int eq = line.indexOf('=');
+                    if (eq > 0) {
+                        values.put(line.substring(0, eq).trim(),
+                                line.substring(eq + 1).trim());
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Forget the stored settings, so that they are read again on next
+     * use. A daemon calls this before each command, since another process
+     * may have changed them.
+     */
+    static synchronized void reload() {
+        values = null;
+    }
+
+    /**
+     * Get the setting KEY, or DEFAULTVALUE if it is not set.
+     * @param key
+     * @param defaultValue
+     * @return string
+     */
+    static String get(String key, String defaultValue) {
+        String value = System.getProperty("gitlet." + key);
+        if (value == null) {
+            value = values().get(key);
+        }
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Get the boolean setting KEY, or DEFAULTVALUE if it is not set.
+     * @param key
+     * @param defaultValue
+     * @return boolean
+     */
+    static boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(get(key,
+                Boolean.toString(defaultValue)));
+    }
+
+    /**
+     * Get the integer setting KEY, or DEFAULTVALUE if it is not set or
+     * not a number.
+     * @param key
+     * @param defaultValue
+     * @return int
+     */
+    static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, Integer.toString(defaultValue)));
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Store VALUE as the setting KEY.
+     * @param key
+     * @param value
+     */
+    static void set(String key, String value) {
+        values().put(key, value);
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> entry : values().entrySet()) {
+            out.append(entry.getKey()).append('=').append(entry.getValue())
+                    .append('\n');
+        }
+        Utils.writeContentsAtomically(CONFIG_FILE, out.toString());
+    }
+}
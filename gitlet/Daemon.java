@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A long-running gitlet process for one repository, so that commands skip
+ * JVM startup and find commits and trees already in the object caches.
+ * The daemon listens on the Unix domain socket SOCKET_FILE; while it runs,
+ * Main forwards each command to it and copies back what it prints.
+ * <p>
+ * A request is the number of arguments and then each argument in
+ * modified UTF-8. The reply is a series of frames, each a stream number
+ * (OUT or ERR), a length and that many bytes, ended by a frame for stream
+ * END with no length. Each request runs while holding the RepoLock, with
+ * System.out and System.err sending frames to its client, so requests
+ * from concurrent clients run one at a time.
+ * @author Nora Povejsil
+ */
+class Daemon {
+    /**
+     * The socket the daemon listens on.
+     */
+    static final File SOCKET_FILE = Utils.join(Command.GITLET_FOLDER,
+            "daemon.sock");
+
+    /**
+     * Reply stream: standard output.
+     */
+    private static final int OUT = 1;
+
+    /**
+     * Reply stream: standard error.
+     */
+    private static final int ERR = 2;
+
+    /**
+     * End of the reply.
+     */
+    private static final int END = 0;
+
+    /**
+     * Size of the buffers of the redirected output streams.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The channel the daemon accepts connections on.
+     */
+    private static ServerSocketChannel server;
+
+    /**
+     * Run the daemon command with ARGS: "daemon" starts the daemon and
+     * "daemon stop" asks a running one to exit.
+     * @param args
+     */
+    static void command(String... args) {
+        if (!Command.GITLET_FOLDER.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+        } else if (args.length == 1) {
+            serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            if (!forward(args)) {
+                System.out.println("No daemon is running.");
+            }
+        } else {
+            System.out.println("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Accept connections until asked to stop, handling each on its own
+     * thread.
+     */
+    private static void serve() {
+        UnixDomainSocketAddress address =
+                UnixDomainSocketAddress.of(SOCKET_FILE.toPath());
+        if (SOCKET_FILE.exists()) {
+            try {
+                SocketChannel.open(address).close();
+                System.out.println("A daemon is already running.");
+                return;
+            } catch (IOException excp) {
+                SOCKET_FILE.delete();
+            }
+        }
+        try {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(address);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                new Thread(() -> handle(client)).start();
+            }
+        } catch (ClosedChannelException excp) {
+            return;
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /**
+     * Read one request from CLIENT, run it and send back its output.
+     * @param client
+     */
+    private static void handle(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            DataInputStream in = new DataInputStream(
+                    Channels.newInputStream(channel));
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = in.readUTF();
+            }
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            if (args.length == 2 && args[0].equals("daemon")
+                    && args[1].equals("stop")) {
+                server.close();
+            } else {
+                RepoLock.run(() -> run(args, out));
+            }
+            out.writeByte(END);
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Run the command ARGS with its output sent as frames to OUT. Caller
+     * holds the RepoLock.
+     * @param args
+     * @param out
+     */
+    private static void run(String[] args, DataOutputStream out) {
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        PrintStream stdout = redirect(out, OUT);
+        PrintStream stderr = redirect(out, ERR);
+        System.setOut(stdout);
+        System.setErr(stderr);
+        try {
+            Config.reload();
+            Main.run(args);
+        } catch (RuntimeException excp) {
+            System.err.println(excp);
+        } finally {
+            stdout.flush();
+            stderr.flush();
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+        }
+    }
+
+    /**
+     * A stream that sends what is printed to it to OUT as frames for
+     * STREAM.
+     * @param out
+     * @param stream
+     * @return stream
+     */
+    private static PrintStream redirect(DataOutputStream out, int stream) {
+        OutputStream frames = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+                    throws IOException {
+                synchronized (out) {
+                    out.writeByte(stream);
+                    out.writeInt(len);
+                    out.write(b, off, len);
+                }
+            }
+        };
+        return new PrintStream(new BufferedOutputStream(frames,
+                BUFFER_SIZE), false, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Send the command ARGS to the daemon of this repository, if one is
+     * running, and copy its output to System.out and System.err. Return
+     * false, having done nothing, if there is no daemon.
+     * @param args
+     * @return boolean
+     */
+    static boolean forward(String... args) {
+        if (!SOCKET_FILE.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(
+                    UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(
+                            Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(
+                    Channels.newInputStream(channel));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int stream = in.readByte(); stream != END;
+                 stream = in.readByte()) {
+                PrintStream dest = stream == ERR ? System.err : System.out;
+                int len = in.readInt();
+                while (len > 0) {
+                    int n = in.read(buffer, 0, Math.min(len, buffer.length));
+                    if (n < 0) {
+                        throw new GitletException("daemon disconnected");
+                    }
+                    dest.write(buffer, 0, n);
+                    len -= n;
+                }
+            }
+            System.out.flush();
+            System.err.flush();
+            return true;
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Delta encoding of one byte array against another, used for blobs in
+ * packs. A delta starts with the sizes of the base and of the result and
+ * then has a series of instructions: COPY, with an offset and a length,
+ * copies that part of the base; INSERT, with a length, inserts the bytes
+ * that follow it. Numbers are written in 7-bit groups, low group first.
+ * <p>
+ * Deltas are found by a block matcher: the base is cut into BLOCK-byte
+ * blocks, which are put in a hash table, and a rolling hash of each
+ * BLOCK-byte window of the target is looked up there. A match is grown in
+ * both directions as far as the bytes agree. Only the first of equal
+ * blocks is put in the table, and a block is left out rather than probe
+ * more than MAX_PROBES slots for it, so repetitive contents such as
+ * padding cannot make the table slow. Unlike a line diff, this works on
+ * any contents and in time linear in their size.
+ * @author Nora Povejsil
+ */
+class Delta {
+    /**
+     * Size of the blocks matched.
+     */
+    private static final int BLOCK = 16;
+
+    /**
+     * Most slots of the hash table probed for one block.
+     */
+    private static final int MAX_PROBES = 64;
+
+    /**
+     * Multiplier of the rolling hash.
+     */
+    private static final int PRIME = 0x01000193;
+
+    /**
+     * PRIME to the power BLOCK, to take a byte out of the rolling hash.
+     */
+    private static final int PRIME_POWER;
+
+    static {
+        int power = 1;
+        for (int i = 0; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+        PRIME_POWER = power;
+    }
+
+    /**
+     * Instruction to insert the bytes that follow.
+     */
+    private static final int INSERT = 0;
+
+    /**
+     * Instruction to copy part of the base.
+     */
+    private static final int COPY = 1;
+
+    /**
+     * Bits per group of a number.
+     */
+    private static final int GROUP_BITS = 7;
+
+    /**
+     * Mask of the bits of a group.
+     */
+    private static final int GROUP = 0x7f;
+
+    /**
+     * Flag of a group followed by another.
+     */
+    private static final int MORE = 0x80;
+
+    /**
+     * The delta that turns BASE into TARGET.
+     * @param base
+     * @param target
+     * @return delta
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        return create(base, index(base), target);
+    }
+
+    /**
+     * The hash table of the blocks of BASE, for create. Each slot holds
+     * the offset of a block or -1; a block is in the first free slot at or
+     * after its hash, unless an equal block is there first or there is no
+     * free slot within MAX_PROBES.
+     * @param base
+     * @return table
+     */
+    static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int[] table = new int[Integer.highestOneBit(Math.max(blocks, 1)) * 4];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int b = 0; b < blocks; b += 1) {
+            int offset = b * BLOCK;
+            int slot = hash(base, offset) & mask;
+            int probes = 0;
+            while (table[slot] >= 0 && probes < MAX_PROBES
+                    && !Arrays.equals(base, table[slot], table[slot] + BLOCK,
+                            base, offset, offset + BLOCK)) {
+                slot = (slot + 1) & mask;
+                probes += 1;
+            }
+            if (table[slot] < 0 && probes < MAX_PROBES) {
+                table[slot] = offset;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * The delta that turns BASE, whose block table is TABLE, into TARGET.
+     * @param base
+     * @param table
+     * @param target
+     * @return delta
+     */
+    static byte[] create(byte[] base, int[] table, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeNumber(out, base.length);
+        writeNumber(out, target.length);
+        int mask = table.length - 1;
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int match = find(table, mask, h, base, target, i);
+            if (match < 0) {
+                if (i + BLOCK < target.length) {
+                    h = h * PRIME - target[i] * PRIME_POWER
+                            + target[i + BLOCK];
+                }
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (start > pending && match > 0
+                    && target[start - 1] == base[match - 1]) {
+                start -= 1;
+                match -= 1;
+            }
+            int length = i - start + BLOCK;
+            while (start + length < target.length
+                    && match + length < base.length
+                    && target[start + length] == base[match + length]) {
+                length += 1;
+            }
+            insert(out, target, pending, start);
+            out.write(COPY);
+            writeNumber(out, match);
+            writeNumber(out, length);
+            i = start + length;
+            pending = i;
+            if (i + BLOCK <= target.length) {
+                h = hash(target, i);
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * The offset of a block of BASE equal to the BLOCK bytes of TARGET at
+     * POS, whose hash is H, looked up in TABLE with MASK, or -1.
+     * @param table
+     * @param mask
+     * @param h
+     * @param base
+     * @param target
+     * @param pos
+     * @return offset
+     */
+    private static int find(int[] table, int mask, int h, byte[] base,
+                            byte[] target, int pos) {
+        int slot = h & mask;
+        for (int probes = 0; probes < MAX_PROBES && table[slot] >= 0;
+             probes += 1) {
+            int offset = table[slot];
+            if (Arrays.equals(base, offset, offset + BLOCK, target, pos,
+                    pos + BLOCK)) {
+                return offset;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * The hash of the BLOCK bytes of DATA at POS.
+     * @param data
+     * @param pos
+     * @return hash
+     */
+    private static int hash(byte[] data, int pos) {
+        int h = 0;
+        for (int i = pos; i < pos + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /**
+     * Write an instruction to OUT inserting bytes START to END of TARGET,
+     * unless there are none.
+     * @param out
+     * @param target
+     * @param start
+     * @param end
+     */
+    private static void insert(ByteArrayOutputStream out, byte[] target,
+                               int start, int end) {
+        if (start < end) {
+            out.write(INSERT);
+            writeNumber(out, end - start);
+            out.write(target, start, end - start);
+        }
+    }
+
+    /**
+     * The result of applying DELTA to BASE.
+     * @param base
+     * @param delta
+     * @return result
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        try {
+            if (readNumber(delta, pos) != base.length) {
+                throw Utils.error("Delta does not fit its base.");
+            }
+            byte[] result = new byte[readNumber(delta, pos)];
+            int n = 0;
+            while (pos[0] < delta.length) {
+                int op = delta[pos[0]];
+                pos[0] += 1;
+                if (op == COPY) {
+                    int offset = readNumber(delta, pos);
+                    int length = readNumber(delta, pos);
+                    System.arraycopy(base, offset, result, n, length);
+                    n += length;
+                } else if (op == INSERT) {
+                    int length = readNumber(delta, pos);
+                    System.arraycopy(delta, pos[0], result, n, length);
+                    pos[0] += length;
+                    n += length;
+                } else {
+                    throw Utils.error("Corrupt delta.");
+                }
+            }
+            if (n != result.length) {
+                throw Utils.error("Corrupt delta.");
+            }
+            return result;
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException
+                excp) {
+            throw Utils.error("Corrupt delta.");
+        }
+    }
+
+    /**
+     * Write the non-negative number N to OUT.
+     * @param out
+     * @param n
+     */
+    private static void writeNumber(ByteArrayOutputStream out, int n) {
+        while (n > GROUP) {
+            out.write(n & GROUP | MORE);
+            n >>>= GROUP_BITS;
+        }
+        out.write(n);
+    }
+
+    /**
+     * Read a number from DATA at POS[0], advancing POS[0] past it.
+     * @param data
+     * @param pos
+     * @return n
+     */
+    private static int readNumber(byte[] data, int[] pos) {
+        int n = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            n |= (b & GROUP) << shift;
+            if ((b & MORE) == 0) {
+                return n;
+            }
+            shift += GROUP_BITS;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the Delta codec.
+ * @author Nora Povejsil
+ */
+public class DeltaTest {
+    /**
+     * Source of random contents, seeded so failures repeat.
+     */
+    private final Random random = new Random(61);
+
+    /**
+     * SIZE random bytes.
+     * @param size
+     * @return bytes
+     */
+    private byte[] randomBytes(int size) {
+        byte[] result = new byte[size];
+        random.nextBytes(result);
+        return result;
+    }
+
+    /**
+     * Check that the delta from BASE to TARGET applies to BASE to give
+     * TARGET, and return it.
+     * @param base
+     * @param target
+     * @return delta
+     */
+    private static byte[] roundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta;
+    }
+
+    /**
+     * Sizes around BLOCK, in every combination of base and target.
+     */
+    @Test
+    public void edgeSizes() {
+        int[] sizes = {0, 1, 15, 16, 17, 31, 32, 33, 100};
+        for (int b : sizes) {
+            for (int t : sizes) {
+                roundTrip(randomBytes(b), randomBytes(t));
+                byte[] base = randomBytes(Math.max(b, t));
+                roundTrip(Arrays.copyOf(base, b), Arrays.copyOf(base, t));
+            }
+        }
+    }
+
+    /**
+     * A target equal to its base, or an edit of it, is a small delta.
+     */
+    @Test
+    public void similarContents() {
+        byte[] base = randomBytes(100000);
+        assertTrue(roundTrip(base, base).length < 20);
+        byte[] target = Arrays.copyOf(base, base.length + 10);
+        target[50000] ^= 1;
+        System.arraycopy(base, 0, target, base.length, 10);
+        assertTrue(roundTrip(base, target).length < 100);
+        byte[] moved = new byte[base.length];
+        System.arraycopy(base, 60000, moved, 0, 40000);
+        System.arraycopy(base, 0, moved, 40000, 60000);
+        assertTrue(roundTrip(base, moved).length < 100);
+    }
+
+    /**
+     * Unrelated contents round trip as an insertion.
+     */
+    @Test
+    public void randomContents() {
+        for (int i = 0; i < 20; i += 1) {
+            roundTrip(randomBytes(random.nextInt(5000)),
+                    randomBytes(random.nextInt(5000)));
+        }
+    }
+
+    /**
+     * Repetitive contents round trip, compress, and are indexed in time
+     * linear in their size.
+     */
+    @Test
+    public void repetitiveContents() {
+        byte[] zeros = new byte[4 << 20];
+        byte[] more = new byte[zeros.length + 100];
+        long start = System.nanoTime();
+        assertTrue(roundTrip(zeros, more).length < 100);
+        assertTrue((System.nanoTime() - start) / 1e9 < 5);
+        byte[] pattern = new byte[100000];
+        for (int i = 0; i < pattern.length; i += 1) {
+            pattern[i] = (byte) "abcabcabd".charAt(i % 9);
+        }
+        byte[] shifted = Arrays.copyOfRange(pattern, 7, pattern.length);
+        assertTrue(roundTrip(pattern, shifted).length < 100);
+    }
+
+    /**
+     * Applying a delta to the wrong base, or a corrupt delta, fails.
+     */
+    @Test
+    public void badDeltas() {
+        byte[] base = randomBytes(1000);
+        byte[] delta = Delta.create(base, randomBytes(500));
+        try {
+            Delta.apply(randomBytes(999), delta);
+            fail("applied to the wrong base");
+        } catch (GitletException excp) {
+            assertEquals("Delta does not fit its base.", excp.getMessage());
+        }
+        for (int n : new int[] {2, 3, delta.length - 1}) {
+            try {
+                Delta.apply(base, Arrays.copyOf(delta, n));
+                fail("applied a truncated delta");
+            } catch (GitletException excp) {
+                assertEquals("Corrupt delta.", excp.getMessage());
+            }
+        }
+    }
+}
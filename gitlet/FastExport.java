@@ -0,0 +1,309 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the history reachable from every branch as a stream that import
+ * reads back, in the format described in FastImport. Commits come in
+ * topological order, parents first, each with the files changed from its
+ * first parent, and each blob is written once, just before the first
+ * commit that uses it. The stream ends with a reset for every branch.
+ * <p>
+ * Initial commits are never written: a commit on one starts with a reset
+ * of its branch instead, so it is rebuilt on the initial commit of the
+ * importing repository. An incremental export leaves out the commits
+ * already exported and their ancestors, and refers to them by full id.
+ * Output is gathered in a buffer and written through a channel, with blob
+ * contents read from their files straight into the buffer.
+ * @author Nora Povejsil
+ */
+class FastExport {
+    /**
+     * Seconds per minute, and minutes per hour, of a time zone offset.
+     */
+    private static final int SIXTY = 60;
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Marks of the blobs and commits written so far, by id.
+     */
+    private final HashMap<String, Integer> marks = new HashMap<>();
+
+    /**
+     * The commit graph.
+     */
+    private final CommitGraph graph;
+
+    /**
+     * The channel the stream is written to.
+     */
+    private final WritableByteChannel out;
+
+    /**
+     * Output not yet written to OUT.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * An exporter writing to OUT1 the commits of GRAPH1.
+     * @param out1
+     * @param graph1
+     */
+    private FastExport(OutputStream out1, CommitGraph graph1) {
+        out = Channels.newChannel(out1);
+        graph = graph1;
+    }
+
+    /**
+     * Write the history of every branch to standard output, leaving out
+     * the commits EXPORTED, given by full id, and their ancestors.
+     * @param exported
+     */
+    static void run(List<String> exported) {
+        CommitGraph graph = CommitGraph.load();
+        TreeMap<String, String> tips = new TreeMap<>();
+        for (String branch : Utils.plainFilenamesIn(Command.BRANCHES)) {
+            tips.put(branch, Utils.readContentsAsString(
+                    Utils.join(Command.BRANCHES, branch)));
+        }
+        List<String> branches = new ArrayList<>(tips.keySet());
+        String current = Utils.readContentsAsString(Command.ACTIVE_BRANCH);
+        if (branches.remove(current)) {
+            branches.add(0, current);
+        }
+        List<Integer> skipped = new ArrayList<>();
+        for (String id : exported) {
+            skipped.add(graph.lookup(id));
+        }
+        List<Integer> tipNodes = new ArrayList<>();
+        for (String branch : branches) {
+            tipNodes.add(graph.lookup(tips.get(branch)));
+        }
+        boolean[] seen = new boolean[graph.size()];
+        for (int node : skipped) {
+            walk(graph, node, seen, null);
+        }
+        String[] branchOf = new String[graph.size()];
+        List<Integer> nodes = new ArrayList<>();
+        for (int i = 0; i < branches.size(); i += 1) {
+            int start = nodes.size();
+            walk(graph, tipNodes.get(i), seen, nodes);
+            for (int j = start; j < nodes.size(); j += 1) {
+                branchOf[nodes.get(j)] = branches.get(i);
+            }
+        }
+        nodes.sort(Comparator.comparingInt(graph::generation)
+                .thenComparingInt(Integer::intValue));
+        FastExport exporter = new FastExport(System.out, graph);
+        try {
+            for (int node : nodes) {
+                exporter.commit(node, branchOf[node]);
+            }
+            for (int i = 0; i < branches.size(); i += 1) {
+                exporter.reset(branches.get(i), tipNodes.get(i));
+            }
+            exporter.drain();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Mark the commit NODE of GRAPH and its ancestors in SEEN, not
+     * following commits already marked or initial commits. If NODES is not
+     * null, add to it each commit newly marked other than an initial
+     * commit.
+     * @param graph
+     * @param node
+     * @param seen
+     * @param nodes
+     */
+    private static void walk(CommitGraph graph, int node, boolean[] seen,
+                             List<Integer> nodes) {
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(node);
+        while (!work.isEmpty()) {
+            int next = work.pop();
+            if (seen[next]) {
+                continue;
+            }
+            seen[next] = true;
+            int parent = graph.parent(next);
+            int second = graph.secondParent(next);
+            if (parent == CommitGraph.NONE && second == CommitGraph.NONE) {
+                continue;
+            }
+            if (nodes != null) {
+                nodes.add(next);
+            }
+            if (parent != CommitGraph.NONE) {
+                work.push(parent);
+            }
+            if (second != CommitGraph.NONE) {
+                work.push(second);
+            }
+        }
+    }
+
+    /**
+     * Write the commit NODE on BRANCH, after any blobs it introduces.
+     * @param node
+     * @param branch
+     */
+    private void commit(int node, String branch) throws IOException {
+        Commit c = Command.readCommit(graph.id(node));
+        int parent = graph.parent(node);
+        String base = parent == CommitGraph.NONE ? null
+                : Command.readCommit(graph.id(parent)).getTree();
+        TreeMap<String, String> before = new TreeMap<>();
+        TreeMap<String, String> after = new TreeMap<>();
+        Tree.diff(base, c.getTree(), before, after);
+        for (String blob : after.values()) {
+            if (!marks.containsKey(blob)) {
+                blob(blob);
+            }
+        }
+        if (parent == CommitGraph.NONE || isInitial(parent)) {
+            write("reset " + branch + "\n");
+        }
+        int mark = marks.size() + 1;
+        marks.put(graph.id(node), mark);
+        OffsetDateTime time = CommitFormat.time(c.getTimeStamp());
+        int offset = time.getOffset().getTotalSeconds() / SIXTY;
+        byte[] message = c.getMessage().getBytes(StandardCharsets.UTF_8);
+        write(String.format("commit %s\nmark :%d\ncommitter %d %s%02d%02d\n"
+                + "data %d\n", branch, mark, time.toEpochSecond(),
+                offset < 0 ? "-" : "+", Math.abs(offset) / SIXTY,
+                Math.abs(offset) % SIXTY, message.length));
+        write(message);
+        write("\n");
+        if (parent != CommitGraph.NONE && !isInitial(parent)) {
+            write("from " + ref(parent) + "\n");
+        }
+        if (graph.secondParent(node) != CommitGraph.NONE) {
+            write("merge " + ref(graph.secondParent(node)) + "\n");
+        }
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) {
+                write("D " + path + "\n");
+            }
+        }
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            write("M :" + marks.get(entry.getValue()) + " "
+                    + entry.getKey() + "\n");
+        }
+        write("\n");
+    }
+
+    /**
+     * Write BRANCH's move to the commit NODE.
+     * @param branch
+     * @param node
+     */
+    private void reset(String branch, int node) throws IOException {
+        write("reset " + branch + "\n");
+        if (!isInitial(node)) {
+            write("from " + ref(node) + "\n");
+        }
+        write("\n");
+    }
+
+    /**
+     * Write blob BLOBSHA1, with a new mark.
+     * @param blobSHA1
+     */
+    private void blob(String blobSHA1) throws IOException {
+        int mark = marks.size() + 1;
+        marks.put(blobSHA1, mark);
+        write("blob\nmark :" + mark + "\ndata " + ObjectStore.size(blobSHA1)
+                + "\n");
+        try (ReadableByteChannel in = ObjectStore.open(blobSHA1)) {
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                if (in.read(buffer) < 0) {
+                    break;
+                }
+            }
+        }
+        write("\n");
+    }
+
+    /**
+     * Return true iff the commit NODE has no parents.
+     * @param node
+     * @return boolean
+     */
+    private boolean isInitial(int node) {
+        return graph.parent(node) == CommitGraph.NONE
+                && graph.secondParent(node) == CommitGraph.NONE;
+    }
+
+    /**
+     * How the stream names the commit NODE: its mark if it was written,
+     * and otherwise its full id.
+     * @param node
+     * @return ref
+     */
+    private String ref(int node) {
+        Integer mark = marks.get(graph.id(node));
+        return mark == null ? graph.id(node) : ":" + mark;
+    }
+
+    /**
+     * Write TEXT.
+     * @param text
+     */
+    private void write(String text) throws IOException {
+        write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write DATA.
+     * @param data
+     */
+    private void write(byte[] data) throws IOException {
+        if (data.length > buffer.remaining()) {
+            drain();
+        }
+        if (data.length > buffer.capacity()) {
+            ByteBuffer whole = ByteBuffer.wrap(data);
+            while (whole.hasRemaining()) {
+                out.write(whole);
+            }
+        } else {
+            buffer.put(data);
+        }
+    }
+
+    /**
+     * Write what is in the buffer to OUT.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
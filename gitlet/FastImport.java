@@ -0,0 +1,476 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a stream of blobs, commits and branch updates and stores them
+ * directly, without touching the working directory or the staging area.
+ * Objects are held in memory and written in large batches by a bulk
+ * write of ObjectStore, and the commit graph, commit id index and message
+ * indexes are each updated once per checkpoint rather than once per
+ * commit.
+ * <p>
+ * The stream is a series of the following commands; blank lines between
+ * them are ignored.
+ * <pre>
+ * blob
+ * mark :MARK                 (optional)
+ * data SIZE
+ * SIZE bytes of contents, optionally followed by a newline
+ *
+ * commit BRANCH
+ * mark :MARK                 (optional)
+ * committer SECONDS +HHMM    (optional; the default is now)
+ * data SIZE
+ * SIZE bytes of message, optionally followed by a newline
+ * from COMMIT                (optional; the default is BRANCH's tip)
+ * merge COMMIT               (optional; the second parent)
+ * deleteall                  (any number of these and the next two,
+ * M BLOB PATH                 applied in order to the files of the
+ * D PATH                      first parent)
+ *
+ * reset BRANCH
+ * from COMMIT                (optional; the default is the initial commit)
+ *
+ * checkpoint                 (write everything imported so far)
+ * done                       (optional; ends the stream)
+ * </pre>
+ * A BLOB is :MARK or a blob id. A COMMIT is :MARK, a full or abbreviated
+ * commit id or a branch name. A branch that does not exist yet starts at
+ * the initial commit. Branch names may not be empty or contain "/" or
+ * "..", and paths may not lead outside the working directory. Branches
+ * are updated at checkpoints and at the end; if the current branch moves,
+ * its files are not checked out. A stream with a bad command is rejected:
+ * the objects read so far are kept, but the branches stay where the last
+ * checkpoint left them.
+ * @author Nora Povejsil
+ */
+class FastImport {
+    /**
+     * Seconds per minute, and minutes per hour, of a time zone offset.
+     */
+    private static final int SIXTY = 60;
+
+    /**
+     * Factor between the hours and minutes of a +HHMM time zone.
+     */
+    private static final int HOURS = 100;
+
+    /**
+     * Size of the stream buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Ids of the objects with marks, by mark.
+     */
+    private final HashMap<String, String> marks = new HashMap<>();
+
+    /**
+     * Commit ids of the branches changed by the stream, by branch.
+     */
+    private final TreeMap<String, String> tips = new TreeMap<>();
+
+    /**
+     * Ids of the commits not yet recorded in the indexes, in order.
+     */
+    private final List<String> newIds = new ArrayList<>();
+
+    /**
+     * Commits not yet recorded in the indexes, in order.
+     */
+    private final List<Commit> newCommits = new ArrayList<>();
+
+    /**
+     * The stream.
+     */
+    private final InputStream in;
+
+    /**
+     * Buffer for reading lines.
+     */
+    private final ByteArrayOutputStream lineBuffer =
+            new ByteArrayOutputStream();
+
+    /**
+     * A line read but not yet used, or null.
+     */
+    private String unread;
+
+    /**
+     * Id of the initial commit, or null until needed.
+     */
+    private String root;
+
+    /**
+     * Number of commits imported.
+     */
+    private int commitCount;
+
+    /**
+     * Number of blobs imported.
+     */
+    private int blobCount;
+
+    /**
+     * An importer reading the stream IN.
+     * @param in1
+     */
+    private FastImport(InputStream in1) {
+        in = in1;
+    }
+
+    /**
+     * Import the stream IN and print how much was imported.
+     * @param in
+     */
+    static void run(InputStream in) {
+        FastImport importer = new FastImport(new BufferedInputStream(in,
+                BUFFER_SIZE));
+        ObjectStore.beginBulk();
+        try {
+            importer.parse();
+            importer.checkpoint();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            ObjectStore.endBulk();
+        }
+        System.out.println("Imported " + importer.commitCount
+                + " commits and " + importer.blobCount + " blobs.");
+    }
+
+    /**
+     * Read and run every command in the stream.
+     */
+    private void parse() throws IOException {
+        for (String line = readLine(); line != null; line = readLine()) {
+            if (line.isEmpty()) {
+                continue;
+            } else if (line.equals("blob")) {
+                blob();
+            } else if (line.startsWith("commit ")) {
+                commit(line.substring("commit ".length()));
+            } else if (line.startsWith("reset ")) {
+                reset(line.substring("reset ".length()));
+            } else if (line.equals("checkpoint")) {
+                checkpoint();
+            } else if (line.equals("done")) {
+                return;
+            } else {
+                throw Utils.error("Unexpected import command: %s", line);
+            }
+        }
+    }
+
+    /**
+     * Read the rest of a blob command and store the blob.
+     */
+    private void blob() throws IOException {
+        String line = readLine();
+        String mark = null;
+        if (line != null && line.startsWith("mark :")) {
+            mark = line.substring("mark :".length());
+            line = readLine();
+        }
+        String id = ObjectStore.store(readData(line));
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+        blobCount += 1;
+    }
+
+    /**
+     * Read the rest of a commit command on BRANCH and store the commit.
+     * @param branch
+     */
+    private void commit(String branch) throws IOException {
+        checkBranch(branch);
+        String line = readLine();
+        String mark = null;
+        if (line != null && line.startsWith("mark :")) {
+            mark = line.substring("mark :".length());
+            line = readLine();
+        }
+        OffsetDateTime now = OffsetDateTime.now();
+        long seconds = now.toEpochSecond();
+        int offset = now.getOffset().getTotalSeconds() / SIXTY;
+        if (line != null && line.startsWith("committer ")) {
+            String[] fields = line.split(" ");
+            try {
+                seconds = Long.parseLong(fields[1]);
+                int zone = Integer.parseInt(fields[2]);
+                offset = zone / HOURS * SIXTY + zone % HOURS;
+            } catch (NumberFormatException
+                     | ArrayIndexOutOfBoundsException excp) {
+                throw Utils.error("Bad committer line: %s", line);
+            }
+            line = readLine();
+        }
+        String message = new String(readData(line), StandardCharsets.UTF_8);
+        String parent = null;
+        String secondParent = null;
+        boolean deleteAll = false;
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (line = readLine(); line != null; line = readLine()) {
+            if (line.startsWith("from ")) {
+                parent = commitRef(line.substring("from ".length()));
+            } else if (line.startsWith("merge ")) {
+                if (secondParent != null) {
+                    throw Utils.error("A commit has at most two parents.");
+                }
+                secondParent = commitRef(line.substring("merge ".length()));
+            } else if (line.startsWith("M ")) {
+                int space = line.indexOf(' ', 2);
+                if (space < 0 || space == line.length() - 1) {
+                    throw Utils.error("Bad file line: %s", line);
+                }
+                String path = path(line.substring(space + 1));
+                String blob = blobRef(line.substring(2, space));
+                changes.put(path, blob);
+                ObjectStore.hint(blob, path);
+            } else if (line.startsWith("D ")) {
+                changes.put(path(line.substring(2)), null);
+            } else if (line.equals("deleteall")) {
+                deleteAll = true;
+                changes.clear();
+            } else {
+                unread = line;
+                break;
+            }
+        }
+        if (parent == null) {
+            parent = tip(branch);
+        }
+        String base = deleteAll ? null : Command.readCommit(parent).getTree();
+        Commit c = new Commit(message, CommitFormat.timestamp(seconds,
+                offset), null, parent, secondParent, false);
+        c.setTree(Tree.update(base, changes));
+        String id = Command.storeCommit(c);
+        newIds.add(id);
+        newCommits.add(c);
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+        tips.put(branch, id);
+        commitCount += 1;
+    }
+
+    /**
+     * Read the rest of a reset command on BRANCH and move the branch.
+     * @param branch
+     */
+    private void reset(String branch) throws IOException {
+        checkBranch(branch);
+        String line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            tips.put(branch, commitRef(line.substring("from ".length())));
+        } else {
+            unread = line;
+            tips.put(branch, root());
+        }
+    }
+
+    /**
+     * Write the objects imported so far, record the new commits in the
+     * indexes and move the branches.
+     */
+    private void checkpoint() {
+        ObjectStore.flush();
+        if (!newIds.isEmpty()) {
+            CommitGraph.appendAll(newIds, newCommits);
+            CommitIndex.addAll(newIds);
+            MessageIndex.addAll(newIds, newCommits);
+            newIds.clear();
+            newCommits.clear();
+        }
+        for (Map.Entry<String, String> entry : tips.entrySet()) {
+            Utils.writeContents(Utils.join(Command.BRANCHES,
+                    entry.getKey()), entry.getValue());
+        }
+        Session.setHead(null);
+    }
+
+    /**
+     * The commit id that BRANCH points to, or the initial commit if there
+     * is no such branch.
+     * @param branch
+     * @return commitSHA1
+     */
+    private String tip(String branch) {
+        String id = tips.get(branch);
+        if (id == null) {
+            File file = Utils.join(Command.BRANCHES, branch);
+            id = file.isFile() ? Utils.readContentsAsString(file) : root();
+        }
+        return id;
+    }
+
+    /**
+     * The id of the initial commit, found by following first parents
+     * from the current branch.
+     * @return commitSHA1
+     */
+    private String root() {
+        if (root == null) {
+            CommitGraph graph = CommitGraph.load();
+            int node = graph.lookup(Command.getRecentCommit());
+            while (graph.parent(node) != CommitGraph.NONE) {
+                node = graph.parent(node);
+            }
+            root = graph.id(node);
+        }
+        return root;
+    }
+
+    /**
+     * The commit id named by REF: a mark, a full or abbreviated id or a
+     * branch name.
+     * @param ref
+     * @return commitSHA1
+     */
+    private String commitRef(String ref) {
+        if (ref.startsWith(":")) {
+            return markRef(ref);
+        } else if (tips.containsKey(ref) || isBranchName(ref)
+                && Utils.join(Command.BRANCHES, ref).isFile()) {
+            return tip(ref);
+        } else if (ref.length() == Utils.UID_LENGTH
+                && ObjectStore.exists(Command.COMMIT_DIR, ref)) {
+            return ref;
+        }
+        String id = CommitIndex.resolve(ref);
+        if (id == null) {
+            throw Utils.error("No commit %s.", ref);
+        }
+        return id;
+    }
+
+    /**
+     * Return true iff NAME may name a branch: it is not empty, ".", or
+     * "..", and contains no "/", so that its file is in BRANCHES.
+     * @param name
+     * @return boolean
+     */
+    private static boolean isBranchName(String name) {
+        return !name.isEmpty() && !name.equals(".") && !name.contains("..")
+                && name.indexOf(Tree.SEPARATOR) < 0
+                && name.indexOf(File.separatorChar) < 0;
+    }
+
+    /**
+     * Reject the stream unless BRANCH may name a branch.
+     * @param branch
+     */
+    private static void checkBranch(String branch) {
+        if (!isBranchName(branch)) {
+            throw Utils.error("Bad branch name: %s", branch);
+        }
+    }
+
+    /**
+     * PATH, from a file line, as Command.normalize gives it. Reject the
+     * stream if it leads outside the working directory or names it.
+     * @param path
+     * @return path
+     */
+    private static String path(String path) {
+        String result = Command.normalize(path);
+        if (result.equals(".")) {
+            throw Utils.error("Bad path: %s", path);
+        }
+        return result;
+    }
+
+    /**
+     * The blob id named by REF: a mark or a blob id.
+     * @param ref
+     * @return blobSHA1
+     */
+    private String blobRef(String ref) {
+        if (ref.startsWith(":")) {
+            return markRef(ref);
+        } else if (ref.length() != Utils.UID_LENGTH
+                || !ObjectStore.exists(Command.BLOBS, ref)) {
+            throw Utils.error("No blob %s.", ref);
+        }
+        return ref;
+    }
+
+    /**
+     * The id of the object marked REF, a colon and the mark.
+     * @param ref
+     * @return id
+     */
+    private String markRef(String ref) {
+        String id = marks.get(ref.substring(1));
+        if (id == null) {
+            throw Utils.error("Unknown mark %s.", ref);
+        }
+        return id;
+    }
+
+    /**
+     * Read the contents announced by LINE, which must be "data SIZE", and
+     * the newline that may follow them.
+     * @param line
+     * @return bytes
+     */
+    private byte[] readData(String line) throws IOException {
+        if (line == null || !line.startsWith("data ")) {
+            throw Utils.error("Expected data, found: %s", line);
+        }
+        int size;
+        try {
+            size = Integer.parseInt(line.substring("data ".length()));
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Bad data line: %s", line);
+        }
+        if (size < 0) {
+            throw Utils.error("Bad data line: %s", line);
+        }
+        byte[] data = in.readNBytes(size);
+        if (data.length < size) {
+            throw Utils.error("Import stream ended inside data.");
+        }
+        in.mark(1);
+        if (in.read() != '\n') {
+            in.reset();
+        }
+        return data;
+    }
+
+    /**
+     * Read the next line, without its newline, or return null at the end
+     * of the stream.
+     * @return line
+     */
+    private String readLine() throws IOException {
+        if (unread != null) {
+            String line = unread;
+            unread = null;
+            return line;
+        }
+        lineBuffer.reset();
+        int b = in.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n') {
+            lineBuffer.write(b);
+            b = in.read();
+        }
+        return lineBuffer.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,51 @@
+package gitlet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the import command.
+ * @author Nora Povejsil
+ */
+public class FastImportTest {
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * A data line with a size that is negative or not a number is
+     * reported as an error, and leaves the branches alone.
+     */
+    @Test
+    public void badDataLines() {
+        String master = repo.branch("master");
+        for (String size : new String[] {"-5", "x", "99999999999"}) {
+            String output = repo.importHistory("blob\nmark :1\ndata "
+                    + size + "\nabc\n");
+            assertEquals("Bad data line: data " + size + "\n", output);
+            assertEquals(master, repo.branch("master"));
+        }
+        assertEquals("Import stream ended inside data.\n",
+                repo.importHistory("blob\nmark :1\ndata 10\nabc\n"));
+    }
+}
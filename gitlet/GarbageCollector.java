@@ -0,0 +1,578 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The gc and repack commands. Every object reachable from a branch, or
+ * staged for addition, is marked: the commits by a walk of the commit
+ * graph, and then the trees of those commits in parallel, the threads
+ * sharing the sets of marked objects so that a tree common to many commits
+ * is read once. The marked objects are written as a new pack, with blobs
+ * stored as deltas by path, and their loose copies and every other pack
+ * are then deleted. Objects beyond MAX_PACK_SIZE go into further packs,
+ * and blobs larger than MAX_OBJECT_SIZE are left loose.
+ * <p>
+ * An unreachable object in an old pack is written out as a loose object
+ * dated like its pack, so it is not lost before it has been unreachable
+ * for the grace period, the GRACE setting in seconds. Repack keeps every
+ * other loose object; gc deletes the unreachable ones older than the grace
+ * period, and drops the unreachable objects of packs that old. The grace
+ * period leaves time to get back a commit left behind by reset, so gc
+ * first marks as recent everything reachable from the unreachable commits
+ * and trees that are younger than the grace period, however old its own
+ * copy is, and keeps it. When commits are deleted, the commit graph and
+ * the commit id and message indexes are rebuilt.
+ * @author Nora Povejsil
+ */
+class GarbageCollector {
+    /**
+     * Setting for the grace period in seconds.
+     */
+    static final String GRACE = "gc.grace";
+
+    /**
+     * Grace period if GRACE is not set: two weeks.
+     */
+    private static final int DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /**
+     * Milliseconds per second.
+     */
+    private static final long MILLIS = 1000;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double NANOS = 1e9;
+
+    /**
+     * Bytes per kilobyte.
+     */
+    private static final long KILO = 1024;
+
+    /**
+     * Directories of loose objects.
+     */
+    private static final File[] DIRS = {
+        Command.COMMIT_DIR, Command.TREES, Command.BLOBS,
+    };
+
+    /**
+     * The commit each branch points to.
+     */
+    private final List<String> tips;
+
+    /**
+     * Whether unreachable objects older than the grace period are deleted.
+     */
+    private final boolean prune;
+
+    /**
+     * Time, in milliseconds, before which an unreachable object is older
+     * than the grace period.
+     */
+    private final long cutoff;
+
+    /**
+     * Marked commits.
+     */
+    private final Set<String> commits = new HashSet<>();
+
+    /**
+     * Marked trees.
+     */
+    private final Set<String> trees = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Marked blobs, with a path at which each is used.
+     */
+    private final Map<String, String> blobs = new ConcurrentHashMap<>();
+
+    /**
+     * Marked blobs too large for a pack, which are left loose.
+     */
+    private final Set<String> unpacked = new HashSet<>();
+
+    /**
+     * Unreachable commits marked as recent.
+     */
+    private final Set<String> recentCommits = new HashSet<>();
+
+    /**
+     * Unreachable trees marked as recent, and also the marked trees, so
+     * that marking recent trees stops at them.
+     */
+    private final Set<String> recentTrees = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Blobs marked as recent, with a path at which each is used.
+     */
+    private final Map<String, String> recentBlobs =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Whether any commit was deleted.
+     */
+    private boolean commitsDeleted;
+
+    /**
+     * Number of packs deleted.
+     */
+    private int packsDeleted;
+
+    /**
+     * Number of loose objects deleted because they were packed.
+     */
+    private int packed;
+
+    /**
+     * Number of unreachable objects deleted.
+     */
+    private int pruned;
+
+    /**
+     * Number of unreachable objects kept as loose objects.
+     */
+    private int kept;
+
+    /**
+     * Number of temporary files deleted.
+     */
+    private int swept;
+
+    /**
+     * A collector for the current repository, deleting unreachable
+     * objects iff PRUNE1.
+     * @param prune1
+     */
+    private GarbageCollector(boolean prune1) {
+        prune = prune1;
+        cutoff = System.currentTimeMillis()
+                - Config.getInt(GRACE, DEFAULT_GRACE) * MILLIS;
+        tips = new ArrayList<>();
+        for (String branch : Utils.plainFilenamesIn(Command.BRANCHES)) {
+            tips.add(Utils.readContentsAsString(
+                    Utils.join(Command.BRANCHES, branch)));
+        }
+    }
+
+    /**
+     * Pack every reachable object into one pack, and delete the other
+     * packs and the loose copies of packed objects, and also unreachable
+     * loose objects older than the grace period iff PRUNE, and the
+     * temporary files of commands that did not finish. Report the
+     * time taken by each phase and the space reclaimed.
+     * @param prune
+     */
+    static void run(boolean prune) {
+        GarbageCollector collector = new GarbageCollector(prune);
+        long before = storage();
+        long start = System.nanoTime();
+        collector.mark();
+        System.out.println(String.format(
+                "Marked %d commits, %d trees and %d blobs in %.2fs.",
+                collector.commits.size(), collector.trees.size(),
+                collector.blobs.size(), seconds(start)));
+        start = System.nanoTime();
+        List<String> names = collector.pack();
+        long packBytes = 0;
+        for (String name : names) {
+            packBytes += Utils.join(Pack.PACK_DIR, name + ".pack").length();
+        }
+        System.out.println(String.format("Packed them into %s (%s) in %.2fs.",
+                String.join(", ", names), bytes(packBytes), seconds(start)));
+        if (!collector.unpacked.isEmpty()) {
+            System.out.println(String.format("Left %d blobs too large for "
+                    + "a pack loose.", collector.unpacked.size()));
+        }
+        start = System.nanoTime();
+        collector.clean(names);
+        System.out.println(String.format("Deleted %d old packs and %d "
+                + "packed loose objects, pruned %d unreachable objects and "
+                + "kept %d in %.2fs.", collector.packsDeleted,
+                collector.packed, collector.pruned, collector.kept,
+                seconds(start)));
+        if (collector.swept > 0) {
+            System.out.println(String.format("Deleted %d temporary files.",
+                    collector.swept));
+        }
+        long after = storage();
+        System.out.println(String.format("%s %s (%s before, %s after).",
+                before >= after ? "Reclaimed" : "Grew by",
+                bytes(Math.abs(before - after)), bytes(before), bytes(after)));
+    }
+
+    /**
+     * Mark the commits reachable from TIPS, then their trees and blobs
+     * and the blobs staged for addition. If unreachable objects may be
+     * pruned, then mark as recent what the recent commits and trees reach.
+     */
+    private void mark() {
+        CommitGraph graph = CommitGraph.load();
+        List<Integer> tipNodes = new ArrayList<>();
+        for (String tip : tips) {
+            tipNodes.add(graph.lookup(tip));
+        }
+        List<Integer> recentNodes = new ArrayList<>();
+        if (prune) {
+            for (String id : recent(Command.COMMIT_DIR)) {
+                recentNodes.add(graph.lookup(id));
+            }
+        }
+        boolean[] seen = new boolean[graph.size()];
+        walk(graph, tipNodes, seen, commits);
+        commits.parallelStream().forEach(id -> Tree.mark(
+                Command.readCommit(id).getTree(), "", trees, blobs));
+        for (Map.Entry<String, String> entry
+                : StagingIndex.read().added().entrySet()) {
+            if (ObjectStore.contains(entry.getValue())) {
+                blobs.putIfAbsent(entry.getValue(), entry.getKey());
+            }
+        }
+        walk(graph, recentNodes, seen, recentCommits);
+        List<String> roots = new ArrayList<>();
+        for (String id : recentCommits) {
+            roots.add(Command.readCommit(id).getTree());
+        }
+        roots.addAll(recent(Command.TREES));
+        roots.removeIf(trees::contains);
+        if (!roots.isEmpty()) {
+            recentTrees.addAll(trees);
+            roots.parallelStream().forEach(id -> Tree.mark(id, "",
+                    recentTrees, recentBlobs));
+        }
+    }
+
+    /**
+     * Add the id of each commit reachable from the nodes STARTS of GRAPH,
+     * and not SEEN, to RESULT, marking it SEEN.
+     * @param graph
+     * @param starts
+     * @param seen
+     * @param result
+     */
+    private static void walk(CommitGraph graph, List<Integer> starts,
+                             boolean[] seen, Set<String> result) {
+        ArrayDeque<Integer> work = new ArrayDeque<>(starts);
+        while (!work.isEmpty()) {
+            int node = work.pop();
+            if (seen[node]) {
+                continue;
+            }
+            seen[node] = true;
+            result.add(graph.id(node));
+            if (graph.parent(node) != CommitGraph.NONE) {
+                work.push(graph.parent(node));
+            }
+            if (graph.secondParent(node) != CommitGraph.NONE) {
+                work.push(graph.secondParent(node));
+            }
+        }
+    }
+
+    /**
+     * The ids of the objects of the directory DIR that are younger than
+     * the grace period: loose ones, by their own time, and packed ones, by
+     * the time of their pack. Some may be marked already.
+     * @param dir
+     * @return ids
+     */
+    private List<String> recent(File dir) {
+        List<String> result = new ArrayList<>();
+        Iterator<String> ids = ObjectStore.loose(dir);
+        while (ids.hasNext()) {
+            String id = ids.next();
+            if (ObjectStore.file(dir, id).lastModified() >= cutoff) {
+                result.add(id);
+            }
+        }
+        byte kind = Pack.kind(dir);
+        for (Pack pack : Pack.all()) {
+            if (pack.file().lastModified() >= cutoff) {
+                for (int i = 0; i < pack.size(); i += 1) {
+                    if (pack.kind(i) == kind) {
+                        result.add(pack.id(i));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write every marked object into new packs and return their names,
+     * each pack holding at most MAX_PACK_SIZE bytes of objects, with the
+     * blobs of a path together. Marked blobs too large for a pack are
+     * left out, and written loose if they are only packed.
+     * @return names
+     */
+    private List<String> pack() {
+        List<String> packable = new ArrayList<>();
+        for (String id : blobs.keySet()) {
+            if (ObjectStore.size(id) <= Pack.MAX_OBJECT_SIZE) {
+                packable.add(id);
+            } else {
+                unpacked.add(id);
+                if (!ObjectStore.file(Command.BLOBS, id).isFile()) {
+                    ObjectStore.writeLoose(Command.BLOBS, id,
+                            ObjectStore.read(Command.BLOBS, id));
+                }
+            }
+        }
+        packable.sort(Comparator.comparing(blobs::get));
+        int n = commits.size() + trees.size() + packable.size();
+        String[] ids = new String[n];
+        byte[] kinds = new byte[n];
+        int i = 0;
+        for (String id : commits) {
+            ids[i] = id;
+            kinds[i] = Pack.COMMIT;
+            i += 1;
+        }
+        for (String id : trees) {
+            ids[i] = id;
+            kinds[i] = Pack.TREE;
+            i += 1;
+        }
+        for (String id : packable) {
+            ids[i] = id;
+            kinds[i] = Pack.BLOB;
+            i += 1;
+        }
+        List<String> names = new ArrayList<>();
+        int first = 0;
+        long total = 0;
+        for (i = 0; i < n; i += 1) {
+            long size = ObjectStore.size(Pack.dir(kinds[i]), ids[i]);
+            if (i > first && total + size > Pack.MAX_PACK_SIZE) {
+                names.add(pack(Arrays.copyOfRange(ids, first, i),
+                        Arrays.copyOfRange(kinds, first, i)));
+                first = i;
+                total = 0;
+            }
+            total += size;
+        }
+        String name = pack(Arrays.copyOfRange(ids, first, n),
+                Arrays.copyOfRange(kinds, first, n));
+        if (name != null) {
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Write the objects IDS, of kinds KINDS, into a new pack and return
+     * its name, or null if there are none.
+     * @param ids
+     * @param kinds
+     * @return name
+     */
+    private String pack(String[] ids, byte[] kinds) {
+        return Pack.write(ids, kinds, j -> {
+            byte[] data = ObjectStore.read(Pack.dir(kinds[j]), ids[j]);
+            if (data == null) {
+                throw Utils.error("Object %s is missing.", ids[j]);
+            }
+            return data;
+        }, j -> ObjectStore.size(Pack.dir(kinds[j]), ids[j]), blobs);
+    }
+
+    /**
+     * Delete every pack but the packs NAMES, keeping the unreachable
+     * objects in them as described above, and the loose objects that are
+     * packed or may be pruned, and the fan-out directories left empty.
+     * Rebuild the commit indexes if any commit was deleted.
+     * @param names
+     */
+    private void clean(List<String> names) {
+        sweep();
+        for (Pack pack : Pack.all()) {
+            String packName = pack.file().getName();
+            if (names.contains(packName.substring(0, packName.length()
+                    - ".pack".length()))) {
+                continue;
+            }
+            keepUnreachable(pack);
+            pack.delete();
+            packsDeleted += 1;
+        }
+        for (File dir : DIRS) {
+            byte kind = Pack.kind(dir);
+            Iterator<String> ids = ObjectStore.loose(dir);
+            while (ids.hasNext()) {
+                String id = ids.next();
+                File file = ObjectStore.file(dir, id);
+                if (kind == Pack.BLOB && unpacked.contains(id)) {
+                    continue;
+                } else if (isMarked(id, kind)) {
+                    file.delete();
+                    packed += 1;
+                } else if (prune && file.lastModified() < cutoff
+                        && !isRecent(id, kind)) {
+                    file.delete();
+                    pruned += 1;
+                    commitsDeleted |= kind == Pack.COMMIT;
+                } else {
+                    kept += 1;
+                }
+            }
+            File[] subdirs = dir.listFiles(File::isDirectory);
+            if (subdirs != null) {
+                for (File subdir : subdirs) {
+                    subdir.delete();
+                }
+            }
+        }
+        if (commitsDeleted) {
+            CommitGraph.rebuild(tips);
+            CommitIndex.rebuild();
+            MessageIndex.rebuild();
+        }
+    }
+
+    /**
+     * Delete the temporary files left by commands that did not finish:
+     * blobs that ingest had not yet moved into place, and the lock files
+     * of loose objects and packs that were being written. Every command
+     * holds the RepoLock, as gc does, so none of them is in use.
+     */
+    private void sweep() {
+        List<File> dirs = new ArrayList<>();
+        dirs.add(Pack.PACK_DIR);
+        for (File dir : DIRS) {
+            File[] subdirs = dir.listFiles(File::isDirectory);
+            if (subdirs != null) {
+                dirs.addAll(Arrays.asList(subdirs));
+            }
+        }
+        File[] temps = Command.BLOBS.listFiles(f -> f.isFile()
+                && f.getName().startsWith(ObjectStore.INGEST_PREFIX));
+        List<File> files = new ArrayList<>();
+        if (temps != null) {
+            files.addAll(Arrays.asList(temps));
+        }
+        for (File dir : dirs) {
+            File[] locks = dir.listFiles(f -> f.getName().endsWith(".lock"));
+            if (locks != null) {
+                files.addAll(Arrays.asList(locks));
+            }
+        }
+        for (File file : files) {
+            if (file.delete()) {
+                swept += 1;
+            }
+        }
+    }
+
+    /**
+     * Write the unreachable objects of PACK as loose objects dated like
+     * PACK, unless it is older than the grace period and they may be
+     * pruned and are not recent.
+     * @param pack
+     */
+    private void keepUnreachable(Pack pack) {
+        long time = pack.file().lastModified();
+        boolean keep = !prune || time >= cutoff;
+        for (int i = 0; i < pack.size(); i += 1) {
+            String id = pack.id(i);
+            byte kind = pack.kind(i);
+            if (isMarked(id, kind)) {
+                continue;
+            } else if (!keep && !isRecent(id, kind)) {
+                pruned += 1;
+                commitsDeleted |= kind == Pack.COMMIT;
+                continue;
+            }
+            File file = ObjectStore.file(Pack.dir(kind), id);
+            if (!file.exists()) {
+                ObjectStore.writeLoose(Pack.dir(kind), id,
+                        pack.read(id, kind));
+                file.setLastModified(time);
+            }
+        }
+    }
+
+    /**
+     * Return true iff the object ID of kind KIND is marked.
+     * @param id
+     * @param kind
+     * @return boolean
+     */
+    private boolean isMarked(String id, byte kind) {
+        if (kind == Pack.COMMIT) {
+            return commits.contains(id);
+        } else if (kind == Pack.TREE) {
+            return trees.contains(id);
+        }
+        return blobs.containsKey(id);
+    }
+
+    /**
+     * Return true iff the object ID of kind KIND is marked as recent.
+     * @param id
+     * @param kind
+     * @return boolean
+     */
+    private boolean isRecent(String id, byte kind) {
+        if (kind == Pack.COMMIT) {
+            return recentCommits.contains(id);
+        } else if (kind == Pack.TREE) {
+            return recentTrees.contains(id);
+        }
+        return recentBlobs.containsKey(id);
+    }
+
+    /**
+     * Bytes used by loose objects and packs.
+     * @return bytes
+     */
+    private static long storage() {
+        long total = 0;
+        for (File dir : DIRS) {
+            Iterator<String> ids = ObjectStore.loose(dir);
+            while (ids.hasNext()) {
+                total += ObjectStore.file(dir, ids.next()).length();
+            }
+        }
+        List<String> names = Utils.plainFilenamesIn(Pack.PACK_DIR);
+        if (names != null) {
+            for (String name : names) {
+                total += Utils.join(Pack.PACK_DIR, name).length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Seconds since the time START from System.nanoTime.
+     * @param start
+     * @return seconds
+     */
+    private static double seconds(long start) {
+        return (System.nanoTime() - start) / NANOS;
+    }
+
+    /**
+     * COUNT bytes, in the largest unit that leaves at least one.
+     * @param count
+     * @return text
+     */
+    private static String bytes(long count) {
+        if (Math.abs(count) < KILO) {
+            return count + " bytes";
+        } else if (Math.abs(count) < KILO * KILO) {
+            return String.format("%.1f KB", (double) count / KILO);
+        }
+        return String.format("%.1f MB", (double) count / (KILO * KILO));
+    }
+}
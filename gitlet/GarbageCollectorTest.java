@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of gc and repack.
+ * @author Nora Povejsil
+ */
+public class GarbageCollectorTest {
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * A commit left behind by reset within the grace period survives gc,
+     * and so does everything it reaches, even objects older than the grace
+     * period.
+     */
+    @Test
+    public void gcKeepsWhatRecentCommitsReach() {
+        String initial = repo.head();
+        repo.write("a.txt", "one\n");
+        repo.commit("P", "a.txt");
+        repo.age(21);
+        repo.write("b.txt", "two\n");
+        String c = repo.commit("C", "b.txt");
+        repo.quiet("reset", initial);
+        repo.run("gc");
+        repo.quiet("reset", c);
+        assertEquals("one\n", repo.read("a.txt"));
+        assertEquals("two\n", repo.read("b.txt"));
+        repo.quiet("reset", initial);
+        repo.quiet("checkout", c, "--", "a.txt");
+        assertEquals("one\n", repo.read("a.txt"));
+    }
+
+    /**
+     * As above, with the old objects in a pack.
+     */
+    @Test
+    public void gcKeepsWhatRecentCommitsReachInOldPacks() {
+        String initial = repo.head();
+        repo.write("a.txt", "one\n");
+        repo.commit("P", "a.txt");
+        repo.run("repack");
+        repo.age(21);
+        repo.write("b.txt", "two\n");
+        String c = repo.commit("C", "b.txt");
+        repo.quiet("reset", initial);
+        repo.run("gc");
+        repo.quiet("reset", c);
+        assertEquals("one\n", repo.read("a.txt"));
+        assertEquals("two\n", repo.read("b.txt"));
+    }
+
+    /**
+     * Unreachable objects older than the grace period are pruned, and the
+     * reachable ones are kept.
+     */
+    @Test
+    public void gcPrunesOldUnreachableObjects() {
+        String initial = repo.head();
+        repo.write("a.txt", "one\n");
+        String p = repo.commit("P", "a.txt");
+        repo.quiet("reset", initial);
+        repo.age(21);
+        repo.run("gc");
+        assertEquals("No commit with that id exists.\n",
+                repo.run("reset", p));
+        assertFalse(ObjectStore.exists(Command.COMMIT_DIR, p));
+        assertTrue(ObjectStore.exists(Command.COMMIT_DIR, initial));
+    }
+
+    /**
+     * Repack keeps unreachable objects however old they are.
+     */
+    @Test
+    public void repackKeepsUnreachableObjects() {
+        String initial = repo.head();
+        repo.write("a.txt", "one\n");
+        String p = repo.commit("P", "a.txt");
+        repo.quiet("reset", initial);
+        repo.age(21);
+        repo.run("repack");
+        repo.quiet("reset", p);
+        assertEquals("one\n", repo.read("a.txt"));
+    }
+
+    /**
+     * A blob too large for a pack, going by the size in its header, is
+     * left loose by gc and reported as too large, not corrupt, when read.
+     */
+    @Test
+    public void gcLeavesOversizedBlobsLoose() {
+        repo.write("a.txt", "one\n");
+        repo.write("big.txt", "big\n");
+        repo.commit("P", "a.txt", "big.txt");
+        String big = Command.readCommit(repo.head()).getBlob("big.txt");
+        File file = ObjectStore.file(Command.BLOBS, big);
+        Utils.writeContents(file, ByteBuffer.allocate(1 + Long.BYTES + 4)
+                .put(Pack.BLOB).putLong(3L << 30).array());
+        String output = repo.run("gc");
+        assertTrue(output, output.contains(
+                "Left 1 blobs too large for a pack loose.\n"));
+        assertTrue(file.isFile());
+        assertNull(Pack.locate(big, Pack.BLOB));
+        assertNotNull(Pack.locate(repo.head(), Pack.COMMIT));
+        assertEquals(3L << 30, ObjectStore.size(big));
+        try {
+            ObjectStore.read(Command.BLOBS, big);
+            fail("read an oversized blob");
+        } catch (GitletException excp) {
+            assertEquals("Object " + big + " is too large to read into "
+                    + "memory.", excp.getMessage());
+        }
+        repo.run("gc");
+        assertTrue(file.isFile());
+        Utils.join(Command.CWD, "a.txt").delete();
+        repo.quiet("checkout", "--", "a.txt");
+        assertEquals("one\n", repo.read("a.txt"));
+    }
+
+    /**
+     * Temporary files left by an ingest or by writes of loose objects and
+     * packs that did not finish are deleted.
+     */
+    @Test
+    public void gcDeletesTemporaryFiles() {
+        repo.write("a.txt", "one\n");
+        String p = repo.commit("P", "a.txt");
+        File blob = ObjectStore.file(Command.BLOBS,
+                Command.readCommit(p).getBlob("a.txt"));
+        File[] temps = {
+            Utils.join(Command.BLOBS, ObjectStore.INGEST_PREFIX + "1.tmp"),
+            new File(blob.getParentFile(), blob.getName() + ".lock"),
+            Utils.join(Pack.PACK_DIR, "pack-0.pack.lock"),
+        };
+        Pack.PACK_DIR.mkdirs();
+        for (File temp : temps) {
+            Utils.writeContents(temp, "partial");
+        }
+        String output = repo.run("gc");
+        assertTrue(output, output.contains("Deleted 3 temporary files.\n"));
+        for (File temp : temps) {
+            assertFalse(temp.exists());
+        }
+        assertFalse(repo.run("gc").contains("temporary"));
+        assertEquals("one\n", repo.read("a.txt"));
+    }
+}
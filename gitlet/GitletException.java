@@ -7,7 +7,8 @@ package gitlet;
  *  @author P. N. Hilfinger
  */
 class GitletException extends RuntimeException {
-
+    /** Version of the serialized form. */
+    private static final long serialVersionUID = 1L;
 
     /** A GitletException with no message. */
     GitletException() {
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams the global log. Commit ids come either from the loose commits,
+ * a fan-out directory at a time, followed by the indexes of the packs or,
+ * for a
+ * deterministic order, from the sorted commit id index. Commits are
+ * decoded on a fixed pool of worker threads, but at most a small window of
+ * them is in flight at once and they are written in the order their ids
+ * arrived, so memory use does not grow with the number of commits.
+ * @author Nora Povejsil
+ */
+class GlobalLog {
+    /**
+     * Commits in flight per worker thread.
+     */
+    private static final int WINDOW_PER_THREAD = 16;
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Print every commit, in id order if SORTED and otherwise the loose
+     * ones in directory order and then the packed ones in pack order.
+     * @param sorted
+     */
+    static void print(boolean sorted) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out,
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            if (sorted) {
+                print(CommitIndex.iterator(), out);
+            } else {
+                print(ObjectStore.loose(Command.COMMIT_DIR), out);
+                print(ObjectStore.packed(Command.COMMIT_DIR), out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the log entry of every commit in IDS to OUT, in order.
+     * @param ids
+     * @param out
+     */
+    private static void print(Iterator<String> ids, Writer out)
+            throws IOException {
+        int threads = Config.getInt(WorkTree.THREADS,
+                Runtime.getRuntime().availableProcessors());
+        if (threads <= 1) {
+            while (ids.hasNext()) {
+                out.write(entry(ids.next()));
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        try {
+            while (ids.hasNext()) {
+                String id = ids.next();
+                window.add(pool.submit(() -> entry(id)));
+                if (window.size() >= threads * WINDOW_PER_THREAD) {
+                    out.write(window.poll().get());
+                }
+            }
+            while (!window.isEmpty()) {
+                out.write(window.poll().get());
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof GitletException) {
+                throw (GitletException) cause;
+            }
+            throw new GitletException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The log entry of commit ID.
+     * @param id
+     * @return string
+     */
+    private static String entry(String id) {
+        Commit commit = Command.readCommit(id);
+        return "===\ncommit " + id + "\nDate: " + commit.getTimeStamp()
+                + "\n" + commit.getMessage() + "\n\n";
+    }
+}
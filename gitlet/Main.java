@@ -5,18 +5,48 @@ package gitlet;
  */
 public class Main {
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+     *  <COMMAND> <OPERAND> .... If a daemon is running for the
+     *  repository, the command is sent to it; otherwise it runs here.
+     *  "--batch" runs commands read from standard input instead. Import
+     *  reads standard input too, so it always runs here. */
     public static void main(String... args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
         }
+        if (args[0].equals("daemon")) {
+            Daemon.command(args);
+        } else if (args[0].equals("--batch")) {
+            RepoLock.run(() -> Batch.command(args));
+        } else if (args[0].equals("import") || !Daemon.forward(args)) {
+            RepoLock.run(() -> run(args));
+        }
+    }
+
+    /** Run the command ARGS in this process, reporting errors.
+     *  @param args */
+    static void run(String... args) {
+        try {
+            ObjectStore.checkLayout();
+            dispatch(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+        if (Config.getBoolean(ObjectCache.STATS, false)) {
+            System.err.println(Command.COMMITS);
+            System.err.println(Tree.CACHE);
+        }
+    }
+
+    /** Run the command named by ARGS[0] with operands ARGS[1..].
+     *  @param args */
+    static void dispatch(String... args) {
         switch (args[0]) {
         case "init":
             Command.init();
             break;
         case "add":
-            Command.add(args[1]);
+            Command.add(java.util.Arrays.copyOfRange(args, 1, args.length));
             break;
         case "commit":
             Command.commit(args[1]);
@@ -28,10 +58,12 @@ public class Main {
             Command.log();
             break;
         case "global-log":
-            Command.globalLog();
+            Command.globalLog(java.util.Arrays.copyOfRange(args, 1,
+                    args.length));
             break;
         case "find":
-            Command.find(args[1]);
+            Command.find(java.util.Arrays.copyOfRange(args, 1,
+                    args.length));
             break;
         case "status":
             java.io.File file = Utils.join(Command.GITLET_FOLDER);
@@ -56,6 +88,25 @@ public class Main {
         case "merge":
             Command.merge(args[1]);
             break;
+        case "config":
+            Command.config(args);
+            break;
+        case "migrate":
+            Command.migrate();
+            break;
+        case "import":
+            Command.importHistory();
+            break;
+        case "export":
+            Command.exportHistory(java.util.Arrays.copyOfRange(args, 1,
+                    args.length));
+            break;
+        case "gc":
+            Command.gc();
+            break;
+        case "repack":
+            Command.repack();
+            break;
         case "":
             System.out.println("Please enter a command.");
             break;
@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merge base queries over the commit graph. Both sides are walked at once,
+ * highest generation first, painting each commit with the side(s) it is
+ * reachable from; a commit reached from both sides is a common ancestor and
+ * everything below it is stale. The walk stops as soon as only stale
+ * commits are left to visit.
+ * @author Nora Povejsil
+ */
+class MergeBase {
+    /**
+     * Flag: reachable from the first commit.
+     */
+    private static final int PARENT1 = 1;
+
+    /**
+     * Flag: reachable from the second commit.
+     */
+    private static final int PARENT2 = 2;
+
+    /**
+     * Flag: reachable from a common ancestor.
+     */
+    private static final int STALE = 4;
+
+    /**
+     * Flag: already in the result.
+     */
+    private static final int RESULT = 8;
+
+    /**
+     * The commit graph walked.
+     */
+    private final CommitGraph graph;
+
+    /**
+     * Merge base queries over GRAPH1.
+     * @param graph1
+     */
+    MergeBase(CommitGraph graph1) {
+        graph = graph1;
+    }
+
+    /**
+     * Return the best common ancestor of commits ONEID and TWOID: of the
+     * best common ancestors, the one with the highest generation, and of
+     * those the most recent.
+     * @param oneID
+     * @param twoID
+     * @return id
+     */
+    String base(String oneID, String twoID) {
+        String best = null;
+        int bestNode = CommitGraph.NONE;
+        for (int node : bases(graph.lookup(oneID),
+                graph.lookup(twoID))) {
+            if (bestNode == CommitGraph.NONE
+                    || graph.generation(node) > graph.generation(bestNode)
+                    || graph.generation(node) == graph.generation(bestNode)
+                    && graph.time(node) > graph.time(bestNode)) {
+                bestNode = node;
+                best = graph.id(node);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return true iff commit ANCESTORID is DESCENDANTID or one of its
+     * ancestors.
+     * @param ancestorID
+     * @param descendantID
+     * @return boolean
+     */
+    boolean isAncestor(String ancestorID, String descendantID) {
+        return isAncestor(graph.lookup(ancestorID),
+                graph.lookup(descendantID));
+    }
+
+    /**
+     * Return every best common ancestor of commits ONE and TWO, that is,
+     * every common ancestor that is not an ancestor of another common
+     * ancestor. There is more than one for criss-cross merges.
+     * @param one
+     * @param two
+     * @return nodes
+     */
+    List<Integer> bases(int one, int two) {
+        List<Integer> candidates = paintDownToCommon(one, two);
+        List<Integer> result = new ArrayList<>();
+        for (int c : candidates) {
+            boolean redundant = false;
+            for (int other : candidates) {
+                if (other != c && isAncestor(c, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                result.add(c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return true iff ANCESTOR is DESCENDANT or reachable from it. Only
+     * commits with a higher generation than ANCESTOR are visited.
+     * @param ancestor
+     * @param descendant
+     * @return boolean
+     */
+    boolean isAncestor(int ancestor, int descendant) {
+        int floor = graph.generation(ancestor);
+        boolean[] seen = new boolean[graph.size()];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.push(descendant);
+        seen[descendant] = true;
+        while (!work.isEmpty()) {
+            int node = work.pop();
+            if (node == ancestor) {
+                return true;
+            }
+            if (graph.generation(node) <= floor) {
+                continue;
+            }
+            for (int p : new int[] {graph.parent(node),
+                                    graph.secondParent(node)}) {
+                if (p != CommitGraph.NONE && !seen[p]) {
+                    seen[p] = true;
+                    work.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the common ancestors of ONE and TWO found by the painting
+     * walk. Every best common ancestor is among them.
+     * @param one
+     * @param two
+     * @return nodes
+     */
+    private List<Integer> paintDownToCommon(int one, int two) {
+        List<Integer> result = new ArrayList<>();
+        if (one == two) {
+            result.add(one);
+            return result;
+        }
+        int[] flags = new int[graph.size()];
+        boolean[] queued = new boolean[graph.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                Comparator.comparingInt((Integer n) -> graph.generation(n))
+                        .thenComparingLong(n -> graph.time(n)).reversed());
+        flags[one] = PARENT1;
+        flags[two] = PARENT2;
+        queue.add(one);
+        queue.add(two);
+        queued[one] = queued[two] = true;
+        int live = 2;
+        while (live > 0) {
+            int node = queue.poll();
+            queued[node] = false;
+            int paint = flags[node] & (PARENT1 | PARENT2 | STALE);
+            if ((paint & STALE) == 0) {
+                live -= 1;
+            }
+            if ((paint & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2)) {
+                if ((flags[node] & (RESULT | STALE)) == 0) {
+                    flags[node] |= RESULT;
+                    result.add(node);
+                }
+                paint |= STALE;
+            }
+            for (int p : new int[] {graph.parent(node),
+                                    graph.secondParent(node)}) {
+                if (p == CommitGraph.NONE || (flags[p] & paint) == paint) {
+                    continue;
+                }
+                boolean wasLive = queued[p] && (flags[p] & STALE) == 0;
+                flags[p] |= paint;
+                boolean isLive = (flags[p] & STALE) == 0;
+                if (!queued[p]) {
+                    queued[p] = true;
+                    queue.add(p);
+                    if (isLive) {
+                        live += 1;
+                    }
+                } else if (wasLive && !isLive) {
+                    live -= 1;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of merge base queries.
+ * @author Nora Povejsil
+ */
+public class MergeBaseTest {
+    /**
+     * Milliseconds per second.
+     */
+    private static final long SECOND = 1000;
+
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * The ids of the best common ancestors of the commits ONE and TWO.
+     * @param one
+     * @param two
+     * @return ids
+     */
+    private static Set<String> bases(String one, String two) {
+        CommitGraph graph = CommitGraph.load();
+        List<Integer> nodes = new MergeBase(graph).bases(graph.lookup(one),
+                graph.lookup(two));
+        Set<String> result = new HashSet<>();
+        for (int node : nodes) {
+            result.add(graph.id(node));
+        }
+        assertEquals(nodes.size(), result.size());
+        return result;
+    }
+
+    /**
+     * A criss-cross merge has two best common ancestors, and base picks
+     * the more recent of them. Commit times are in seconds, so A1 is made
+     * a second after B1.
+     * @throws InterruptedException
+     */
+    @Test
+    public void crissCross() throws InterruptedException {
+        repo.write("r.txt", "r\n");
+        repo.commit("R", "r.txt");
+        repo.quiet("branch", "a");
+        repo.quiet("branch", "b");
+        repo.quiet("checkout", "b");
+        repo.write("b.txt", "b\n");
+        repo.commit("B1", "b.txt");
+        repo.quiet("branch", "b1");
+        Thread.sleep(SECOND);
+        repo.quiet("checkout", "a");
+        repo.write("a.txt", "a\n");
+        repo.commit("A1", "a.txt");
+        repo.quiet("branch", "a1");
+        repo.quiet("merge", "b1");
+        repo.quiet("checkout", "b");
+        repo.quiet("merge", "a1");
+        String r = repo.branch("master");
+        String a1 = repo.branch("a1");
+        String b1 = repo.branch("b1");
+        String ma = repo.branch("a");
+        String mb = repo.branch("b");
+        MergeBase engine = new MergeBase(CommitGraph.load());
+        assertEquals(Set.of(a1, b1), bases(ma, mb));
+        assertEquals(Set.of(a1, b1), bases(mb, ma));
+        assertEquals(a1, engine.base(ma, mb));
+        assertEquals(Set.of(r), bases(a1, b1));
+        assertEquals(r, engine.base(a1, b1));
+    }
+
+    /**
+     * When one commit is an ancestor of the other, it is the base.
+     */
+    @Test
+    public void ancestors() {
+        repo.write("f.txt", "R\n");
+        repo.commit("R", "f.txt");
+        repo.quiet("branch", "r");
+        repo.write("f.txt", "S\n");
+        repo.commit("S", "f.txt");
+        repo.write("f.txt", "T\n");
+        repo.commit("T", "f.txt");
+        String r = repo.branch("r");
+        String t = repo.branch("master");
+        MergeBase engine = new MergeBase(CommitGraph.load());
+        assertEquals(r, engine.base(r, t));
+        assertEquals(r, engine.base(t, r));
+        assertEquals(t, engine.base(t, t));
+        assertTrue(engine.isAncestor(r, t));
+        assertTrue(engine.isAncestor(t, t));
+        assertFalse(engine.isAncestor(t, r));
+    }
+
+    /**
+     * Branches of very different lengths still meet at their fork, and
+     * neither is an ancestor of the other.
+     */
+    @Test
+    public void unevenBranches() {
+        repo.write("r.txt", "r\n");
+        repo.commit("R", "r.txt");
+        repo.quiet("branch", "long");
+        repo.quiet("branch", "short");
+        repo.quiet("checkout", "long");
+        for (int i = 2; i < 40; i += 1) {
+            repo.write("l.txt", "L" + i + "\n");
+            repo.commit("L" + i, "l.txt");
+        }
+        repo.quiet("branch", "merged");
+        repo.quiet("checkout", "short");
+        repo.write("s.txt", "s\n");
+        repo.commit("S", "s.txt");
+        repo.quiet("checkout", "merged");
+        repo.quiet("merge", "short");
+        String r = repo.branch("master");
+        String tip = repo.branch("long");
+        String s = repo.branch("short");
+        String m = repo.branch("merged");
+        MergeBase engine = new MergeBase(CommitGraph.load());
+        assertEquals(r, engine.base(tip, s));
+        assertEquals(r, engine.base(s, tip));
+        assertFalse(engine.isAncestor(s, tip));
+        assertFalse(engine.isAncestor(tip, s));
+        assertEquals(s, engine.base(m, s));
+        assertEquals(tip, engine.base(tip, m));
+        assertTrue(engine.isAncestor(r, m));
+    }
+
+    /**
+     * Merge uses the base to combine the changes of both branches, and
+     * to recognize ancestors and fast-forwards.
+     */
+    @Test
+    public void mergeCommand() {
+        repo.write("f.txt", "base\n");
+        repo.write("g.txt", "g\n");
+        repo.commit("base", "f.txt", "g.txt");
+        repo.quiet("branch", "other");
+        repo.write("f.txt", "master\n");
+        repo.commit("master", "f.txt");
+        repo.quiet("checkout", "other");
+        repo.write("h.txt", "other\n");
+        repo.commit("other", "h.txt");
+        repo.quiet("rm", "g.txt");
+        repo.quiet("commit", "remove g");
+        repo.quiet("checkout", "master");
+        assertEquals("", repo.run("merge", "other"));
+        assertEquals("master\n", repo.read("f.txt"));
+        assertEquals("other\n", repo.read("h.txt"));
+        assertNull(repo.read("g.txt"));
+        assertEquals("Given branch is an ancestor of the current branch.\n",
+                repo.run("merge", "other"));
+        repo.quiet("checkout", "other");
+        assertEquals("Current branch fast-forwarded.\n",
+                repo.run("merge", "master"));
+        assertEquals("master\n", repo.read("f.txt"));
+    }
+}
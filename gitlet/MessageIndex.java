@@ -0,0 +1,683 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Indexes over commit messages, so that find never reads a commit, and
+ * reads only a small part of the indexes.
+ * <p>
+ * Each index file starts with a magic number, a version, a count, and the
+ * offset of its tail. MESSAGE_FILE holds one record per commit, sorted by
+ * the SHA-1 of its message: the SHA-1 followed by the commit id. WORD_FILE
+ * holds the ids of the commits it counts, then for each distinct word,
+ * lower-cased and in order, the positions in that list of the commits
+ * whose message has the word. Word lookups binary-search a table of the
+ * offsets of the words.
+ * <p>
+ * New commits are appended to the tails: the records of MESSAGE_FILE, and
+ * in WORD_FILE one record per distinct word of each message, the
+ * length-prefixed word followed by the commit id. Queries scan the tails,
+ * and once they reach TAIL_LIMIT commits they are merged into the sorted
+ * parts. Ids come back in the order their commits were made.
+ * @author Nora Povejsil
+ */
+class MessageIndex {
+    /**
+     * Message hash index file in GITLET_FOLDER.
+     */
+    static final File MESSAGE_FILE = Utils.join(Command.GITLET_FOLDER,
+            "MESSAGES");
+
+    /**
+     * Word index file in GITLET_FOLDER.
+     */
+    static final File WORD_FILE = Utils.join(Command.GITLET_FOLDER,
+            "WORDS");
+
+    /**
+     * Commits in the tails that cause them to be merged into the sorted
+     * parts.
+     */
+    static final int TAIL_LIMIT = 1024;
+
+    /**
+     * Magic number at the start of MESSAGE_FILE ("GMSG").
+     */
+    private static final int MESSAGE_MAGIC = 0x474d5347;
+
+    /**
+     * Magic number at the start of WORD_FILE ("GWRD").
+     */
+    private static final int WORD_MAGIC = 0x47575244;
+
+    /**
+     * Version of the format of both files.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Position of the count in the header.
+     */
+    private static final int COUNT = 2 * Integer.BYTES;
+
+    /**
+     * Position of the offset of the tail in the header.
+     */
+    private static final int TAIL = 3 * Integer.BYTES;
+
+    /**
+     * Bytes in the header.
+     */
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    /**
+     * Size of a MESSAGE_FILE record.
+     */
+    private static final int MESSAGE_RECORD = 2 * Utils.UID_BYTES;
+
+    /**
+     * Record commit C, whose id is ID, in both indexes. If either is
+     * missing both are rebuilt from COMMIT_DIR instead, as for addAll.
+     * @param id
+     * @param c
+     */
+    static void add(String id, Commit c) {
+        addAll(List.of(id), List.of(c));
+    }
+
+    /**
+     * Record the commits COMMITS, whose ids are IDS, in both indexes with
+     * one append to each, merging the tails if they grow too long. If
+     * either index is missing, or cannot be read, both are rebuilt from
+     * COMMIT_DIR instead.
+     * @param ids
+     * @param commits
+     */
+    static void addAll(List<String> ids, List<Commit> commits) {
+        ByteBuffer header = current();
+        if (header == null) {
+            return;
+        }
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        ByteArrayOutputStream words = new ByteArrayOutputStream();
+        for (int i = 0; i < ids.size(); i += 1) {
+            String msg = commits.get(i).getMessage();
+            messages.writeBytes(messageRecord(ids.get(i), msg));
+            words.writeBytes(wordRecords(ids.get(i), msg));
+        }
+        append(MESSAGE_FILE, messages.toByteArray());
+        append(WORD_FILE, words.toByteArray());
+        long tail = (MESSAGE_FILE.length() - header.getInt(TAIL))
+                / MESSAGE_RECORD;
+        if (tail >= TAIL_LIMIT) {
+            merge();
+        }
+    }
+
+    /**
+     * Rebuild both indexes from every stored commit, loose or packed,
+     * oldest first.
+     */
+    static void rebuild() {
+        List<Commit> commits = new ArrayList<>();
+        for (String name : ObjectStore.list(Command.COMMIT_DIR)) {
+            commits.add(Command.readCommit(name));
+        }
+        commits.sort((a, b) -> Long.compare(a.getTime(), b.getTime()));
+        List<byte[]> messages = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        TreeMap<String, List<Integer>> postings = new TreeMap<>();
+        for (Commit c : commits) {
+            messages.add(messageRecord(c.getId(), c.getMessage()));
+            for (String word : indexed(c.getMessage())) {
+                postings.computeIfAbsent(word, k -> new ArrayList<>())
+                        .add(ids.size());
+            }
+            ids.add(c.getId());
+        }
+        writeMessages(messages);
+        writeWords(ids, postings);
+    }
+
+    /**
+     * Merge the tails of both indexes into their sorted parts.
+     */
+    private static void merge() {
+        byte[] data = Utils.readContents(MESSAGE_FILE);
+        List<byte[]> messages = new ArrayList<>();
+        for (int off = HEADER_SIZE; off + MESSAGE_RECORD <= data.length;
+             off += MESSAGE_RECORD) {
+            messages.add(Arrays.copyOfRange(data, off,
+                    off + MESSAGE_RECORD));
+        }
+        writeMessages(messages);
+
+        ByteBuffer words = ByteBuffer.wrap(Utils.readContents(WORD_FILE));
+        int count = words.getInt(COUNT);
+        int tail = words.getInt(TAIL);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            ids.add(idAt(words, i));
+        }
+        TreeMap<String, List<Integer>> postings = new TreeMap<>();
+        int offsets = idsStart() + count * Utils.UID_BYTES;
+        for (int i = 0; i < words.getInt(HEADER_SIZE); i += 1) {
+            int off = words.getInt(offsets + i * Integer.BYTES);
+            List<Integer> list = new ArrayList<>();
+            for (int n : postings(words, off)) {
+                list.add(n);
+            }
+            postings.put(wordAt(words, off), list);
+        }
+        Map<String, Integer> added = new HashMap<>();
+        int off = tail;
+        while (off + Short.BYTES <= words.limit()) {
+            int len = Short.toUnsignedInt(words.getShort(off));
+            int start = off + Short.BYTES;
+            off = start + len + Utils.UID_BYTES;
+            if (off > words.limit()) {
+                break;
+            }
+            String id = uidAt(words, start + len);
+            Integer n = added.get(id);
+            if (n == null) {
+                n = ids.size();
+                ids.add(id);
+                added.put(id, n);
+            }
+            postings.computeIfAbsent(string(words, start, len),
+                    k -> new ArrayList<>()).add(n);
+        }
+        writeWords(ids, postings);
+    }
+
+    /**
+     * Write MESSAGE_FILE holding the records MESSAGES, oldest first,
+     * sorted by message hash and otherwise kept in order.
+     * @param messages
+     */
+    private static void writeMessages(List<byte[]> messages) {
+        messages.sort((a, b) -> Arrays.compareUnsigned(a, 0,
+                Utils.UID_BYTES, b, 0, Utils.UID_BYTES));
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE
+                + messages.size() * MESSAGE_RECORD);
+        out.putInt(MESSAGE_MAGIC).putInt(VERSION).putInt(messages.size())
+                .putInt(out.capacity());
+        for (byte[] record : messages) {
+            out.put(record);
+        }
+        Utils.writeContentsAtomically(MESSAGE_FILE, out.array());
+    }
+
+    /**
+     * Write WORD_FILE holding the commit ids IDS, oldest first, and for
+     * each word of POSTINGS the ascending positions in IDS of the commits
+     * whose message has it.
+     * @param ids
+     * @param postings
+     */
+    private static void writeWords(List<String> ids,
+                                   TreeMap<String, List<Integer>> postings) {
+        int offsets = idsStart() + ids.size() * Utils.UID_BYTES;
+        int size = offsets + postings.size() * Integer.BYTES;
+        List<byte[]> words = new ArrayList<>(postings.size());
+        for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+            byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            words.add(word);
+            size += Short.BYTES + word.length
+                    + (1 + entry.getValue().size()) * Integer.BYTES;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(WORD_MAGIC).putInt(VERSION).putInt(ids.size())
+                .putInt(size).putInt(postings.size());
+        for (String id : ids) {
+            out.put(Utils.uidToBytes(id));
+        }
+        out.position(offsets + postings.size() * Integer.BYTES);
+        int i = 0;
+        for (List<Integer> list : postings.values()) {
+            byte[] word = words.get(i);
+            out.putInt(offsets + i * Integer.BYTES, out.position());
+            out.putShort((short) word.length).put(word).putInt(list.size());
+            for (int n : list) {
+                out.putInt(n);
+            }
+            i += 1;
+        }
+        Utils.writeContentsAtomically(WORD_FILE, out.array());
+    }
+
+    /**
+     * Ids of the commits whose message is exactly MSG.
+     * @param msg
+     * @return ids
+     */
+    static List<String> exact(String msg) {
+        ByteBuffer data = map(MESSAGE_FILE);
+        byte[] key = sha1(msg);
+        List<String> result = new ArrayList<>();
+        int count = data.getInt(COUNT);
+        int start = 0;
+        int end = count;
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            if (compare(data, HEADER_SIZE + mid * MESSAGE_RECORD, key) < 0) {
+                start = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        for (int off = HEADER_SIZE + start * MESSAGE_RECORD;
+             start < count && compare(data, off, key) == 0;
+             off += MESSAGE_RECORD) {
+            result.add(uidAt(data, off + Utils.UID_BYTES));
+            start += 1;
+        }
+        for (int off = data.getInt(TAIL); off + MESSAGE_RECORD <= data.limit();
+             off += MESSAGE_RECORD) {
+            if (compare(data, off, key) == 0) {
+                result.add(uidAt(data, off + Utils.UID_BYTES));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ids of the commits whose message contains every word in QUERY. If
+     * PARTIAL, a word of QUERY need only be part of a word of the message,
+     * and every distinct word indexed is checked; otherwise each word is
+     * found by binary search. Case is ignored.
+     * @param query
+     * @param partial
+     * @return ids
+     */
+    static List<String> words(String query, boolean partial) {
+        ByteBuffer data = map(WORD_FILE);
+        int count = data.getInt(COUNT);
+        int words = data.getInt(HEADER_SIZE);
+        int offsets = idsStart() + count * Utils.UID_BYTES;
+        int[] commits = null;
+        LinkedHashSet<String> tail = null;
+        for (String word : tokens(query)) {
+            byte[] key = word.getBytes(StandardCharsets.UTF_8);
+            int[] hits = new int[0];
+            if (partial) {
+                List<int[]> lists = new ArrayList<>();
+                for (int i = 0; i < words; i += 1) {
+                    int off = data.getInt(offsets + i * Integer.BYTES);
+                    if (Short.toUnsignedInt(data.getShort(off)) >= key.length
+                            && wordAt(data, off).contains(word)) {
+                        lists.add(postings(data, off));
+                    }
+                }
+                hits = union(lists);
+            } else {
+                int start = 0;
+                int end = words;
+                while (start < end) {
+                    int mid = (start + end) >>> 1;
+                    int off = data.getInt(offsets + mid * Integer.BYTES);
+                    int cmp = wordAt(data, off).compareTo(word);
+                    if (cmp == 0) {
+                        hits = postings(data, off);
+                        break;
+                    } else if (cmp < 0) {
+                        start = mid + 1;
+                    } else {
+                        end = mid;
+                    }
+                }
+            }
+            commits = commits == null ? hits : intersect(commits, hits);
+            LinkedHashSet<String> tailHits = new LinkedHashSet<>();
+            int off = data.getInt(TAIL);
+            while (off + Short.BYTES <= data.limit()) {
+                int len = Short.toUnsignedInt(data.getShort(off));
+                int start = off + Short.BYTES;
+                off = start + len + Utils.UID_BYTES;
+                if (off > data.limit()) {
+                    break;
+                }
+                boolean hit;
+                if (partial) {
+                    hit = len >= key.length
+                            && string(data, start, len).contains(word);
+                } else {
+                    hit = len == key.length
+                            && string(data, start, len).equals(word);
+                }
+                if (hit) {
+                    tailHits.add(uidAt(data, start + len));
+                }
+            }
+            if (tail == null) {
+                tail = tailHits;
+            } else {
+                tail.retainAll(tailHits);
+            }
+        }
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        if (commits != null) {
+            for (int n : commits) {
+                result.add(idAt(data, n));
+            }
+            result.addAll(tail);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * The ascending values that are in both of the ascending arrays A and
+     * B.
+     * @param a
+     * @param b
+     * @return values
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n] = a[i];
+                n += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * The values of the arrays LISTS, each once, in ascending order.
+     * @param lists
+     * @return values
+     */
+    private static int[] union(List<int[]> lists) {
+        int size = 0;
+        for (int[] list : lists) {
+            size += list.length;
+        }
+        int[] all = new int[size];
+        int n = 0;
+        for (int[] list : lists) {
+            System.arraycopy(list, 0, all, n, list.length);
+            n += list.length;
+        }
+        Arrays.sort(all);
+        n = 0;
+        for (int i = 0; i < all.length; i += 1) {
+            if (n == 0 || all[n - 1] != all[i]) {
+                all[n] = all[i];
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(all, n);
+    }
+
+    /**
+     * The distinct lower-case words of MSG, in order.
+     * @param msg
+     * @return words
+     */
+    static Set<String> tokens(String msg) {
+        Set<String> result = new TreeSet<>();
+        for (String word : msg.toLowerCase(Locale.ROOT)
+                .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The words of MSG that are indexed: its tokens short enough for
+     * their length to be recorded.
+     * @param msg
+     * @return words
+     */
+    private static List<String> indexed(String msg) {
+        List<String> result = new ArrayList<>();
+        for (String word : tokens(msg)) {
+            if (word.getBytes(StandardCharsets.UTF_8).length
+                    <= Short.MAX_VALUE) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The MESSAGE_FILE record for commit ID with message MSG.
+     * @param id
+     * @param msg
+     * @return bytes
+     */
+    private static byte[] messageRecord(String id, String msg) {
+        return ByteBuffer.allocate(MESSAGE_RECORD).put(sha1(msg))
+                .put(Utils.uidToBytes(id)).array();
+    }
+
+    /**
+     * The WORD_FILE tail records for commit ID with message MSG.
+     * @param id
+     * @param msg
+     * @return bytes
+     */
+    private static byte[] wordRecords(String id, String msg) {
+        byte[] uid = Utils.uidToBytes(id);
+        List<byte[]> words = new ArrayList<>();
+        int size = 0;
+        for (String word : indexed(msg)) {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            words.add(bytes);
+            size += Short.BYTES + bytes.length + Utils.UID_BYTES;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (byte[] bytes : words) {
+            out.putShort((short) bytes.length).put(bytes).put(uid);
+        }
+        return out.array();
+    }
+
+    /**
+     * The position in WORD_FILE of the list of commit ids.
+     * @return offset
+     */
+    private static int idsStart() {
+        return HEADER_SIZE + Integer.BYTES;
+    }
+
+    /**
+     * The id of commit N in the list of commit ids of DATA, the contents
+     * of WORD_FILE.
+     * @param data
+     * @param n
+     * @return id
+     */
+    private static String idAt(ByteBuffer data, int n) {
+        return uidAt(data, idsStart() + n * Utils.UID_BYTES);
+    }
+
+    /**
+     * The word of the WORD_FILE entry at OFF in DATA.
+     * @param data
+     * @param off
+     * @return word
+     */
+    private static String wordAt(ByteBuffer data, int off) {
+        return string(data, off + Short.BYTES,
+                Short.toUnsignedInt(data.getShort(off)));
+    }
+
+    /**
+     * The commit positions, ascending, of the WORD_FILE entry at OFF in
+     * DATA.
+     * @param data
+     * @param off
+     * @return positions
+     */
+    private static int[] postings(ByteBuffer data, int off) {
+        off += Short.BYTES + Short.toUnsignedInt(data.getShort(off));
+        int[] result = new int[data.getInt(off)];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = data.getInt(off + (i + 1) * Integer.BYTES);
+        }
+        return result;
+    }
+
+    /**
+     * The LEN bytes at OFF in DATA, decoded as UTF-8.
+     * @param data
+     * @param off
+     * @param len
+     * @return string
+     */
+    private static String string(ByteBuffer data, int off, int len) {
+        byte[] bytes = new byte[len];
+        data.get(off, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The binary id at OFF in DATA, as a hex string.
+     * @param data
+     * @param off
+     * @return id
+     */
+    private static String uidAt(ByteBuffer data, int off) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        data.get(off, id);
+        return Utils.bytesToUid(id, 0);
+    }
+
+    /**
+     * Compare the binary id at OFF in DATA with KEY.
+     * @param data
+     * @param off
+     * @param key
+     * @return int
+     */
+    private static int compare(ByteBuffer data, int off, byte[] key) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        data.get(off, id);
+        return Arrays.compareUnsigned(id, key);
+    }
+
+    /**
+     * The SHA-1 of MSG.
+     * @param msg
+     * @return bytes
+     */
+    private static byte[] sha1(String msg) {
+        return ObjectStore.sha1Digest().digest(
+                msg.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The header of index FILE, or null if it is missing or is not of the
+     * current format, with magic number MAGIC.
+     * @param file
+     * @param magic
+     * @return header
+     */
+    private static ByteBuffer header(File file, int magic) {
+        if (!file.exists()) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.read(header);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        if (header.hasRemaining() || header.getInt(0) != magic
+                || header.getInt(Integer.BYTES) != VERSION) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Make sure both indexes are in the current format, and return the
+     * header of MESSAGE_FILE. Indexes written before the sorted parts
+     * consist of tail records alone, so they are given empty sorted parts
+     * and merged. If either index is missing, or neither format fits,
+     * both are rebuilt from COMMIT_DIR, and null is returned.
+     * @return header
+     */
+    private static ByteBuffer current() {
+        ByteBuffer header = header(MESSAGE_FILE, MESSAGE_MAGIC);
+        ByteBuffer words = header(WORD_FILE, WORD_MAGIC);
+        if (header != null && words != null) {
+            return header;
+        }
+        if (header == null && words == null && MESSAGE_FILE.exists()
+                && WORD_FILE.exists()
+                && MESSAGE_FILE.length() % MESSAGE_RECORD == 0) {
+            Utils.writeContentsAtomically(MESSAGE_FILE, ByteBuffer
+                    .allocate(HEADER_SIZE).putInt(MESSAGE_MAGIC)
+                    .putInt(VERSION).putInt(0).putInt(HEADER_SIZE)
+                    .array(), Utils.readContents(MESSAGE_FILE));
+            Utils.writeContentsAtomically(WORD_FILE, ByteBuffer
+                    .allocate(idsStart()).putInt(WORD_MAGIC)
+                    .putInt(VERSION).putInt(0).putInt(idsStart()).putInt(0)
+                    .array(), Utils.readContents(WORD_FILE));
+            merge();
+            return header(MESSAGE_FILE, MESSAGE_MAGIC);
+        }
+        rebuild();
+        return null;
+    }
+
+    /**
+     * A read-only mapping of index FILE, in the current format.
+     * @param file
+     * @return data
+     */
+    private static ByteBuffer map(File file) {
+        current();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Append RECORDS to the end of FILE.
+     * @param file
+     * @param records
+     */
+    private static void append(File file, byte[] records) {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(records);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static gitlet.TestRepository.importCommit;
+
+/**
+ * Tests of the commit message indexes behind find.
+ * @author Nora Povejsil
+ */
+public class MessageIndexTest {
+    /**
+     * Words the messages of the commits are made from.
+     */
+    private static final String[] WORDS = {"fix", "parser", "Index",
+        "merge", "prefix", "docs", "\u00e9t\u00e9"};
+
+    /**
+     * Bytes in the header of an index file.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Bytes in a message record.
+     */
+    private static final int MESSAGE_RECORD = 40;
+
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Ids of the commits made, oldest first.
+     */
+    private List<String> ids;
+
+    /**
+     * Messages of the commits IDS.
+     */
+    private List<String> messages;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+        ids = new ArrayList<>();
+        messages = new ArrayList<>();
+        ids.add(repo.head());
+        messages.add("initial commit");
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * The message of the Ith commit made by commitMany.
+     * @param i
+     * @return message
+     */
+    private static String message(int i) {
+        return WORDS[i % WORDS.length] + " " + WORDS[i % 3] + ", "
+                + (i % 4 == 0 ? "again" : "") + (i % 11);
+    }
+
+    /**
+     * Import N commits in one stream, a second apart and older than any
+     * made by commitEach, recording them in IDS and MESSAGES.
+     * @param n
+     */
+    private void commitMany(int n) {
+        StringBuilder stream = new StringBuilder();
+        int first = messages.size();
+        long start = System.currentTimeMillis() / 1000 - 100000;
+        for (int i = 0; i < n; i += 1) {
+            int mark = i + 1;
+            String msg = message(first + i);
+            messages.add(msg);
+            if (i == 0) {
+                stream.append(importCommit("master", mark, start + i, msg));
+            } else {
+                stream.append(importCommit("master", mark, start + i, msg,
+                        mark - 1));
+            }
+        }
+        repo.importHistory(stream.toString());
+        Commit c = Command.readCommit(repo.branch("master"));
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            added.add(0, c.getId());
+            c = c.getParent() == null ? null
+                    : Command.readCommit(c.getParent());
+        }
+        ids.addAll(added);
+    }
+
+    /**
+     * Commit N changes, one at a time, recording them in IDS and MESSAGES.
+     * @param n
+     */
+    private void commitEach(int n) {
+        for (int i = 0; i < n; i += 1) {
+            String msg = message(messages.size());
+            repo.write("f.txt", msg);
+            messages.add(msg);
+            ids.add(repo.commit(msg, "f.txt"));
+        }
+    }
+
+    /**
+     * The output of find for the commits IDS[I] that MATCHES accepts.
+     * @param matches
+     * @return output
+     */
+    private String expected(IntPredicate matches) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < ids.size(); i += 1) {
+            if (matches.test(i)) {
+                result.append(ids.get(i)).append("\n");
+            }
+        }
+        return result.length() == 0 ? "Found no commit with that message.\n"
+                : result.toString();
+    }
+
+    /**
+     * Check that find gives every commit of IDS that matches the queries,
+     * in the order the commits were made.
+     */
+    private void checkFind() {
+        for (int i = 0; i < 30; i += 1) {
+            String msg = message(i);
+            assertEquals(msg, expected(j -> messages.get(j).equals(msg)),
+                    repo.run("find", msg));
+        }
+        assertEquals(expected(j -> false), repo.run("find", "no such"));
+        for (String query : new String[] {"fix", "INDEX merge",
+            "\u00e9t\u00e9", "again 4", "fix docs", "nothing"}) {
+            List<String> words = new ArrayList<>(
+                    MessageIndex.tokens(query));
+            assertEquals(query, expected(j -> MessageIndex.tokens(
+                    messages.get(j)).containsAll(words)),
+                    repo.run("find", "--word", query));
+        }
+        for (String query : new String[] {"fix", "ix", "ERG ag", "t",
+            "1", "zz"}) {
+            List<String> words = new ArrayList<>(
+                    MessageIndex.tokens(query));
+            assertEquals(query, expected(j -> words.stream().allMatch(
+                    w -> MessageIndex.tokens(messages.get(j)).stream()
+                            .anyMatch(m -> m.contains(w)))),
+                    repo.run("find", "--grep", query));
+        }
+    }
+
+    /**
+     * The number of records in the tail of MESSAGE_FILE.
+     * @return count
+     */
+    private static int tail() {
+        ByteBuffer data = ByteBuffer.wrap(
+                Utils.readContents(MessageIndex.MESSAGE_FILE));
+        return (data.limit() - data.getInt(3 * Integer.BYTES))
+                / MESSAGE_RECORD;
+    }
+
+    /**
+     * Commits made one at a time are appended to the tails, and found.
+     */
+    @Test
+    public void appendedCommits() {
+        commitEach(25);
+        assertEquals(25, tail());
+        checkFind();
+    }
+
+    /**
+     * Once the tails reach their limit they are merged into the sorted
+     * parts, and queries give the same results, in the same order.
+     */
+    @Test
+    public void mergedTails() {
+        commitMany(MessageIndex.TAIL_LIMIT);
+        assertEquals(0, tail());
+        assertEquals(HEADER_SIZE + ids.size() * MESSAGE_RECORD,
+                MessageIndex.MESSAGE_FILE.length());
+        checkFind();
+        commitEach(3);
+        assertEquals(3, tail());
+        checkFind();
+    }
+
+    /**
+     * Indexes that are missing, or that do not fit either format, are
+     * rebuilt.
+     */
+    @Test
+    public void rebuilt() {
+        commitMany(12);
+        MessageIndex.WORD_FILE.delete();
+        checkFind();
+        byte[] bad = new byte[2 * MESSAGE_RECORD];
+        Arrays.fill(bad, (byte) 7);
+        Utils.writeContents(MessageIndex.MESSAGE_FILE, bad);
+        commitEach(1);
+        assertEquals(0, tail());
+        checkFind();
+        Utils.writeContents(MessageIndex.MESSAGE_FILE, bad);
+        checkFind();
+    }
+
+    /**
+     * Indexes written before the sorted parts, as records alone, are
+     * merged into the current format, and new commits appended to them.
+     */
+    @Test
+    public void upgraded() {
+        commitMany(20);
+        ByteArrayOutputStream oldMessages = new ByteArrayOutputStream();
+        ByteArrayOutputStream oldWords = new ByteArrayOutputStream();
+        for (int i = 0; i < ids.size(); i += 1) {
+            byte[] id = Utils.uidToBytes(ids.get(i));
+            oldMessages.writeBytes(ObjectStore.sha1Digest().digest(
+                    messages.get(i).getBytes(StandardCharsets.UTF_8)));
+            oldMessages.writeBytes(id);
+            for (String word : MessageIndex.tokens(messages.get(i))) {
+                byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+                oldWords.write(bytes.length >> 8);
+                oldWords.write(bytes.length);
+                oldWords.writeBytes(bytes);
+                oldWords.writeBytes(id);
+            }
+        }
+        Utils.writeContents(MessageIndex.MESSAGE_FILE,
+                oldMessages.toByteArray());
+        Utils.writeContents(MessageIndex.WORD_FILE, oldWords.toByteArray());
+        commitEach(2);
+        assertEquals(2, tail());
+        assertEquals(HEADER_SIZE + ids.size() * MESSAGE_RECORD,
+                MessageIndex.MESSAGE_FILE.length());
+        checkFind();
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of decoded objects by id, evicting the least recently
+ * used one when full. Objects are content-addressed and never change once
+ * stored, so entries never need invalidating. Counts hits and misses, and
+ * may be used from several threads.
+ * @param <V> the type of the cached objects
+ * @author Nora Povejsil
+ */
+class ObjectCache<V> {
+    /**
+     * Config key: print the hit and miss counts of the caches after each
+     * command.
+     */
+    static final String STATS = "cache.stats";
+
+    /**
+     * Config key: the most objects kept by each cache.
+     */
+    static final String SIZE = "cache.size";
+
+    /**
+     * Default for SIZE.
+     */
+    private static final int DEFAULT_SIZE = 1024;
+
+    /**
+     * Name of this cache, for the statistics.
+     */
+    private final String name;
+
+    /**
+     * The cached objects, least recently used first.
+     */
+    private final LinkedHashMap<String, V> entries =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, V> e) {
+                    return size() > capacity;
+                }
+            };
+
+    /**
+     * The most objects kept, or 0 until the first object added reads
+     * SIZE.
+     */
+    private int capacity;
+
+    /**
+     * Number of lookups that found their object.
+     */
+    private long hits;
+
+    /**
+     * Number of lookups that had to load their object.
+     */
+    private long misses;
+
+    /**
+     * An empty cache called NAME1.
+     * @param name1
+     */
+    ObjectCache(String name1) {
+        name = name1;
+    }
+
+    /**
+     * Return the object ID, loading it with LOAD if it is not cached.
+     * LOAD runs without the cache locked, so two threads may both load
+     * the same object; they get equal objects.
+     * @param id
+     * @param load
+     * @return object
+     */
+    V get(String id, Function<String, V> load) {
+        synchronized (this) {
+            V value = entries.get(id);
+            if (value != null) {
+                hits += 1;
+                return value;
+            }
+            misses += 1;
+        }
+        V value = load.apply(id);
+        put(id, value);
+        return value;
+    }
+
+    /**
+     * Add VALUE, just stored under ID, to the cache.
+     * @param id
+     * @param value
+     */
+    synchronized void put(String id, V value) {
+        if (capacity == 0) {
+            capacity = Math.max(1, Config.getInt(SIZE, DEFAULT_SIZE));
+        }
+        entries.put(id, value);
+    }
+
+    /**
+     * The name and hit and miss counts of this cache.
+     * @return string
+     */
+    @Override
+    public synchronized String toString() {
+        return name + ": " + hits + " hits, " + misses + " misses";
+    }
+}
@@ -0,0 +1,781 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reading and writing blobs in BLOBS. File contents are streamed through
+ * a fixed-size buffer, hashed and compressed on the way, so memory use
+ * does not depend on file size; checkout inflates them straight into the
+ * working file. A loose object is a header holding its kind and size,
+ * followed by its contents compressed at the COMPRESSION level.
+ * <p>
+ * Trees and commits, and blobs that are already in memory, are stored
+ * with write and read back with read. During a bulk write, as done by
+ * import, new objects are held in memory and written together by flush
+ * as one Pack; read finds them before they reach the disk. Blobs too
+ * large for a pack stay loose, and those too large for an array are
+ * only streamed: read reports them as too large rather than corrupt.
+ * <p>
+ * Every object is looked for first as a loose file and then in the packs,
+ * so callers need not know where it is stored. A loose object is in a
+ * subdirectory of its directory named by the first hex digits of its id;
+ * see file.
+ * @author Nora Povejsil
+ */
+class ObjectStore {
+    /**
+     * Size of the copy buffer.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of leading hex digits of an id that name the subdirectory
+     * holding a loose object.
+     */
+    static final int FANOUT_DIGITS = 2;
+
+    /**
+     * File in GITLET_FOLDER naming the layout of loose objects.
+     */
+    static final File LAYOUT_FILE = Utils.join(Command.GITLET_FOLDER,
+            "OBJECT_LAYOUT");
+
+    /**
+     * Contents of LAYOUT_FILE once loose objects are compressed in
+     * fan-out subdirectories.
+     */
+    private static final String LAYOUT = "fanout zlib";
+
+    /**
+     * Setting for the compression level of loose objects, from 0 (none)
+     * to 9 (smallest).
+     */
+    static final String COMPRESSION = "loose.compression";
+
+    /**
+     * Prefix of the names of the temporary files in BLOBS that ingest
+     * writes blobs to before it knows their ids.
+     */
+    static final String INGEST_PREFIX = "ingest";
+
+    /**
+     * Bytes before the compressed contents of a loose object: its kind,
+     * as in Pack, and its size.
+     */
+    private static final int HEADER_SIZE = 1 + Long.BYTES;
+
+    /**
+     * Directories of loose objects.
+     */
+    private static final File[] DIRS = {
+        Command.COMMIT_DIR, Command.TREES, Command.BLOBS,
+    };
+
+    /**
+     * An inflater for each thread, reset before each use.
+     */
+    private static final ThreadLocal<Inflater> INFLATERS =
+            ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Bytes of pending objects at which a bulk write flushes them.
+     */
+    private static final long BULK_LIMIT = 64L * 1024 * 1024;
+
+    /**
+     * Size of the largest object that read loads into memory.
+     */
+    private static final long MAX_READ_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Objects waiting to be written during a bulk write, by file, or null
+     * if no bulk write is in progress.
+     */
+    private static HashMap<File, byte[]> pending;
+
+    /**
+     * Total size of the pending objects.
+     */
+    private static long pendingBytes;
+
+    /**
+     * Paths at which pending blobs were used, by blob id, during a bulk
+     * write, for choosing delta bases.
+     */
+    private static HashMap<String, String> paths;
+
+    /**
+     * The file of the loose object ID in the directory DIR: the rest of ID
+     * in a subdirectory named by its first FANOUT_DIGITS hex digits, which
+     * keeps each directory small however many objects there are. Every
+     * path of a loose object is made here.
+     * @param dir
+     * @param id
+     * @return file
+     */
+    static File file(File dir, String id) {
+        return Utils.join(dir, id.substring(0, FANOUT_DIGITS),
+                id.substring(FANOUT_DIGITS));
+    }
+
+    /**
+     * Bring loose objects stored by older versions up to date, unless
+     * LAYOUT_FILE shows this was done: move those stored directly in their
+     * directories into fan-out subdirectories, and compress those stored
+     * as plain contents, keeping their modification times. Objects already
+     * compressed are recognized, so an interrupted upgrade is finished by
+     * the next command.
+     */
+    static void checkLayout() {
+        if (!Command.GITLET_FOLDER.isDirectory() || LAYOUT_FILE.exists()
+                && Utils.readContentsAsString(LAYOUT_FILE).trim()
+                .equals(LAYOUT)) {
+            return;
+        }
+        for (File dir : DIRS) {
+            List<String> names = Utils.plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (name.length() != Utils.UID_LENGTH) {
+                    continue;
+                }
+                File dest = file(dir, name);
+                dest.getParentFile().mkdirs();
+                try {
+                    Files.move(Utils.join(dir, name).toPath(), dest.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException excp) {
+                    throw new GitletException(excp.getMessage());
+                }
+            }
+            Iterator<String> ids = loose(dir);
+            while (ids.hasNext()) {
+                String id = ids.next();
+                File file = file(dir, id);
+                byte[] data = Utils.readContents(file);
+                if (inflateLoose(dir, data) == null) {
+                    long modified = file.lastModified();
+                    writeLoose(dir, id, data);
+                    file.setLastModified(modified);
+                }
+            }
+        }
+        Utils.writeContents(LAYOUT_FILE, LAYOUT + "\n");
+    }
+
+    /**
+     * Return the id of the contents of FILE, without storing them.
+     * @param file
+     * @return blobSHA1
+     */
+    static String hash(File file) {
+        return copy(file, null);
+    }
+
+    /**
+     * Store the contents of FILE in BLOBS, unless a blob with the same
+     * contents is already there, and return its id. FILE is read once and
+     * the blob is compressed and written once, its header last, when its
+     * size is known.
+     * @param file
+     * @return blobSHA1
+     */
+    static String ingest(File file) {
+        File temp;
+        try {
+            temp = File.createTempFile(INGEST_PREFIX, null,
+                    Command.BLOBS);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        String blobSHA1;
+        Deflater deflater = deflater();
+        try (FileChannel channel = FileChannel.open(temp.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.position(HEADER_SIZE);
+            DeflaterOutputStream out = new DeflaterOutputStream(
+                    Channels.newOutputStream(channel), deflater, BUFFER_SIZE);
+            blobSHA1 = copy(file, out);
+            out.finish();
+            ByteBuffer header = header(Pack.BLOB, deflater.getBytesRead());
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new GitletException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        File blobFile = file(Command.BLOBS, blobSHA1);
+        if (exists(Command.BLOBS, blobSHA1)) {
+            temp.delete();
+        } else {
+            blobFile.getParentFile().mkdirs();
+            try {
+                Files.move(temp.toPath(), blobFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                temp.delete();
+                throw new GitletException(excp.getMessage());
+            }
+        }
+        return blobSHA1;
+    }
+
+    /**
+     * Store DATA as a blob, unless it is already stored, and return its
+     * id.
+     * @param data
+     * @return blobSHA1
+     */
+    static String store(byte[] data) {
+        String blobSHA1 = Utils.sha1(data);
+        write(Command.BLOBS, blobSHA1, data);
+        return blobSHA1;
+    }
+
+    /**
+     * Store DATA as the object ID in the directory DIR, unless it is
+     * already there.
+     * @param dir
+     * @param id
+     * @param data
+     */
+    static void write(File dir, String id, byte[] data) {
+        if (exists(dir, id)) {
+            return;
+        }
+        File file = file(dir, id);
+        if (pending != null && data.length <= Pack.MAX_OBJECT_SIZE) {
+            pending.put(file, data);
+            pendingBytes += data.length;
+            if (pendingBytes >= BULK_LIMIT) {
+                flush();
+            }
+        } else {
+            writeLoose(dir, id, data);
+        }
+    }
+
+    /**
+     * Write DATA, compressed, as the loose object ID in the directory DIR.
+     * @param dir
+     * @param id
+     * @param data
+     */
+    static void writeLoose(File dir, String id, byte[] data) {
+        File file = file(dir, id);
+        file.getParentFile().mkdirs();
+        Deflater deflater = deflater();
+        try {
+            Utils.writeContentsAtomically(file, header(Pack.kind(dir),
+                    data.length).array(), Pack.deflate(data, deflater));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * A deflater at the level set by COMPRESSION, by default the fastest.
+     * @return deflater
+     */
+    private static Deflater deflater() {
+        int level = Config.getInt(COMPRESSION, Deflater.BEST_SPEED);
+        if (level < Deflater.NO_COMPRESSION
+                || level > Deflater.BEST_COMPRESSION) {
+            throw Utils.error("Invalid %s: %d.", COMPRESSION, level);
+        }
+        return new Deflater(level);
+    }
+
+    /**
+     * The header of a loose object of kind KIND and size SIZE.
+     * @param kind
+     * @param size
+     * @return header
+     */
+    private static ByteBuffer header(byte kind, long size) {
+        return ByteBuffer.allocate(HEADER_SIZE).put(kind).putLong(size)
+                .flip();
+    }
+
+    /**
+     * The size in the header DATA of a loose object in the directory DIR,
+     * or -1 if DATA is not such a header.
+     * @param dir
+     * @param data
+     * @return size
+     */
+    private static long headerSize(File dir, byte[] data) {
+        if (data.length < HEADER_SIZE || data[0] != Pack.kind(dir)) {
+            return -1;
+        }
+        return ByteBuffer.wrap(data, 1, Long.BYTES).getLong();
+    }
+
+    /**
+     * The contents of the loose object in the directory DIR whose file
+     * holds DATA, or null if DATA is not a compressed object.
+     * @param dir
+     * @param data
+     * @return contents
+     */
+    private static byte[] inflateLoose(File dir, byte[] data) {
+        long size = headerSize(dir, data);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        return inflate(ByteBuffer.wrap(data, HEADER_SIZE,
+                data.length - HEADER_SIZE), (int) size);
+    }
+
+    /**
+     * The SIZE bytes inflated from INPUT, or null if INPUT does not
+     * inflate to exactly SIZE bytes.
+     * @param input
+     * @param size
+     * @return bytes
+     */
+    static byte[] inflate(ByteBuffer input, int size) {
+        byte[] result = new byte[size];
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        try {
+            inflater.setInput(input);
+            int n = 0;
+            while (n < result.length) {
+                int k = inflater.inflate(result, n, result.length - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n == result.length && !inflater.finished()
+                    && inflater.inflate(new byte[1]) != 0) {
+                return null;
+            }
+            return n == result.length && inflater.finished() ? result
+                    : null;
+        } catch (DataFormatException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * A stream of the contents of the loose object ID in the directory
+     * DIR, inflated as it is read.
+     * @param dir
+     * @param id
+     * @return stream
+     */
+    private static InputStream openLoose(File dir, String id)
+            throws IOException {
+        File file = file(dir, id);
+        InputStream in = new BufferedInputStream(Files.newInputStream(
+                file.toPath()), (int) Math.min(BUFFER_SIZE,
+                Math.max(file.length(), 1)));
+        if (headerSize(dir, in.readNBytes(HEADER_SIZE)) < 0) {
+            in.close();
+            throw Utils.error("Object %s is corrupt.", id);
+        }
+        return new InflaterInputStream(in);
+    }
+
+    /**
+     * Return the contents of the object ID in the directory DIR, or null
+     * if there is no such object.
+     * @param dir
+     * @param id
+     * @return bytes
+     */
+    static byte[] read(File dir, String id) {
+        File file = file(dir, id);
+        if (pending != null && pending.containsKey(file)) {
+            return pending.get(file);
+        }
+        if (file.isFile()) {
+            if (file.length() > MAX_READ_SIZE) {
+                throw tooLarge(id);
+            }
+            byte[] data = Utils.readContents(file);
+            if (headerSize(dir, data) > MAX_READ_SIZE) {
+                throw tooLarge(id);
+            }
+            byte[] result = inflateLoose(dir, data);
+            if (result == null) {
+                throw Utils.error("Object %s is corrupt.", id);
+            }
+            return result;
+        }
+        Pack pack = Pack.locate(id, Pack.kind(dir));
+        return pack == null ? null : pack.read(id, Pack.kind(dir));
+    }
+
+    /**
+     * The error for an object ID too large to be read into memory, which
+     * is left loose and is only streamed.
+     * @param id
+     * @return error
+     */
+    private static GitletException tooLarge(String id) {
+        return Utils.error("Object %s is too large to read into memory.", id);
+    }
+
+    /**
+     * Return true iff the object ID is in the directory DIR, in a pack or
+     * waiting in a bulk write.
+     * @param dir
+     * @param id
+     * @return boolean
+     */
+    static boolean exists(File dir, String id) {
+        File file = file(dir, id);
+        return pending != null && pending.containsKey(file) || file.exists()
+                || Pack.locate(id, Pack.kind(dir)) != null;
+    }
+
+    /**
+     * The ids of every object of the directory DIR, loose or packed, each
+     * once, in no particular order.
+     * @param dir
+     * @return ids
+     */
+    static List<String> list(File dir) {
+        List<String> ids = new ArrayList<>();
+        loose(dir).forEachRemaining(ids::add);
+        packed(dir).forEachRemaining(ids::add);
+        return ids;
+    }
+
+    /**
+     * The ids of the loose objects of the directory DIR, read from one
+     * fan-out subdirectory at a time as they are needed.
+     * @param dir
+     * @return ids
+     */
+    static Iterator<String> loose(File dir) {
+        File[] found = dir.listFiles(f -> f.getName().length()
+                == FANOUT_DIGITS && f.isDirectory());
+        File[] subdirs = found == null ? new File[0] : found;
+        return new Iterator<String>() {
+            private int next = 0;
+            private final ArrayDeque<String> ids = new ArrayDeque<>();
+
+            @Override
+            public boolean hasNext() {
+                while (ids.isEmpty() && next < subdirs.length) {
+                    String prefix = subdirs[next].getName();
+                    for (String name : Utils.plainFilenamesIn(subdirs[next])) {
+                        if (name.length()
+                                == Utils.UID_LENGTH - FANOUT_DIGITS) {
+                            ids.add(prefix + name);
+                        }
+                    }
+                    next += 1;
+                }
+                return !ids.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return ids.poll();
+            }
+        };
+    }
+
+    /**
+     * The ids of the packed objects of the directory DIR that are not
+     * also loose, each once, read from the pack indexes as they are
+     * needed.
+     * @param dir
+     * @return ids
+     */
+    static Iterator<String> packed(File dir) {
+        byte kind = Pack.kind(dir);
+        List<Pack> packs = Pack.all();
+        return new Iterator<String>() {
+            private int pack = 0;
+            private int next = -1;
+            private String id = advance();
+
+            @Override
+            public boolean hasNext() {
+                return id != null;
+            }
+
+            @Override
+            public String next() {
+                if (id == null) {
+                    throw new NoSuchElementException();
+                }
+                String result = id;
+                id = advance();
+                return result;
+            }
+
+            /** The next id to return, or null if there are no more.
+             *  @return id */
+            private String advance() {
+                while (pack < packs.size()) {
+                    Pack p = packs.get(pack);
+                    next += 1;
+                    if (next == p.size()) {
+                        pack += 1;
+                        next = -1;
+                    } else if (p.kind(next) == kind && isFirst(pack,
+                            p.id(next))) {
+                        return p.id(next);
+                    }
+                }
+                return null;
+            }
+
+            /** Return true iff ID is not loose and not in a pack before
+             *  pack number N.
+             *  @param n
+             *  @param id
+             *  @return boolean */
+            private boolean isFirst(int n, String id) {
+                if (file(dir, id).exists()) {
+                    return false;
+                }
+                byte[] key = Utils.uidToBytes(id);
+                for (int i = 0; i < n; i += 1) {
+                    if (packs.get(i).find(key, kind) >= 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Start a bulk write.
+     */
+    static void beginBulk() {
+        pending = new HashMap<>();
+        paths = new HashMap<>();
+        pendingBytes = 0;
+    }
+
+    /**
+     * Record, during a bulk write, that blob BLOBSHA1 was used at PATH.
+     * @param blobSHA1
+     * @param path
+     */
+    static void hint(String blobSHA1, String path) {
+        if (paths != null) {
+            paths.put(blobSHA1, path);
+        }
+    }
+
+    /**
+     * Write the pending objects of a bulk write and end it.
+     */
+    static void endBulk() {
+        flush();
+        pending = null;
+        paths = null;
+    }
+
+    /**
+     * Write the pending objects of a bulk write as a new pack.
+     */
+    static void flush() {
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        int n = pending.size();
+        String[] ids = new String[n];
+        byte[] kinds = new byte[n];
+        byte[][] contents = new byte[n][];
+        int i = 0;
+        for (Map.Entry<File, byte[]> entry : pending.entrySet()) {
+            File file = entry.getKey();
+            File subdir = file.getParentFile();
+            ids[i] = subdir.getName() + file.getName();
+            kinds[i] = Pack.kind(subdir.getParentFile());
+            contents[i] = entry.getValue();
+            i += 1;
+        }
+        Pack.write(ids, kinds, j -> contents[j], j -> contents[j].length,
+                paths);
+        pending.clear();
+        paths.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * Return true iff blob BLOBSHA1 is stored.
+     * @param blobSHA1
+     * @return boolean
+     */
+    static boolean contains(String blobSHA1) {
+        return exists(Command.BLOBS, blobSHA1);
+    }
+
+    /**
+     * Write the contents of blob BLOBSHA1 to DEST, creating its
+     * directory if needed. The contents are inflated straight into DEST.
+     * @param blobSHA1
+     * @param dest
+     */
+    static void checkout(String blobSHA1, File dest) {
+        File blobFile = file(Command.BLOBS, blobSHA1);
+        File parent = dest.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (InputStream in = blobFile.isFile()
+                ? openLoose(Command.BLOBS, blobSHA1)
+                : packOf(blobSHA1).open(blobSHA1, Pack.BLOB)) {
+            Files.copy(in, dest.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return the size in bytes of blob BLOBSHA1.
+     * @param blobSHA1
+     * @return size
+     */
+    static long size(String blobSHA1) {
+        return size(Command.BLOBS, blobSHA1);
+    }
+
+    /**
+     * Return the size in bytes of the object ID in the directory DIR,
+     * read from its header without inflating it.
+     * @param dir
+     * @param id
+     * @return size
+     */
+    static long size(File dir, String id) {
+        File file = file(dir, id);
+        if (pending != null && pending.containsKey(file)) {
+            return pending.get(file).length;
+        }
+        if (!file.isFile()) {
+            Pack pack = Pack.locate(id, Pack.kind(dir));
+            if (pack == null) {
+                throw Utils.error("Object %s is missing.", id);
+            }
+            return pack.size(id, Pack.kind(dir));
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            long size = headerSize(dir, in.readNBytes(HEADER_SIZE));
+            if (size < 0) {
+                throw Utils.error("Object %s is corrupt.", id);
+            }
+            return size;
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Open blob BLOBSHA1 for reading its contents.
+     * @param blobSHA1
+     * @return channel
+     */
+    static ReadableByteChannel open(String blobSHA1) {
+        File blobFile = file(Command.BLOBS, blobSHA1);
+        if (!blobFile.isFile()) {
+            return Channels.newChannel(packOf(blobSHA1).open(blobSHA1,
+                    Pack.BLOB));
+        }
+        try {
+            return Channels.newChannel(openLoose(Command.BLOBS, blobSHA1));
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /**
+     * The pack holding blob BLOBSHA1, which is not loose.
+     * @param blobSHA1
+     * @return pack
+     */
+    private static Pack packOf(String blobSHA1) {
+        Pack pack = Pack.locate(blobSHA1, Pack.BLOB);
+        if (pack == null) {
+            throw Utils.error("Blob %s is missing.", blobSHA1);
+        }
+        return pack;
+    }
+
+    /**
+     * Copy the contents of FILE to OUT, if OUT is not null, and return
+     * their SHA-1 id.
+     * @param file
+     * @param out
+     * @return blobSHA1
+     */
+    private static String copy(File file, OutputStream out) {
+        MessageDigest md = sha1Digest();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+             InputStream in = new DigestInputStream(
+                     Channels.newInputStream(channel), md)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                if (out != null) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        return Utils.bytesToUid(md.digest(), 0);
+    }
+
+    /**
+     * A new SHA-1 digest.
+     * @return digest
+     */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support "
+                    + "SHA-1");
+        }
+    }
+}
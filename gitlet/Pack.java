@@ -0,0 +1,897 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A pack: many objects, of any kind, in one file in PACK_DIR, with an
+ * index beside it. The pack file holds a header and then each object as
+ * its kind, its size, the size of its compressed form and the compressed
+ * contents. A blob may instead be stored as a Delta against another blob
+ * of the pack, flagged by DELTA in its kind and followed by the offset of
+ * its base and the size of the delta. The index file holds a 256-entry
+ * fan-out table, as in CommitIndex, then the sorted binary ids of the
+ * objects, their kinds and their offsets in the pack. Both files are read
+ * through mappings, so an object is found by a binary search within its
+ * fan-out bucket and inflated from the mapped pack without reading the
+ * rest.
+ * <p>
+ * When a pack is written, blobs are grouped by the path they were given
+ * for, and within a group, ordered by size, each is tried as a delta
+ * against the WINDOW next larger ones; the smallest delta is kept if it is
+ * less than half the blob. Only the blobs in that window are loaded at
+ * once. Chains of deltas are at most the DEPTH setting long, and the
+ * bases resolved while reading them are kept in a small cache, so reading
+ * a blob inflates a bounded number of objects. Objects are compressed
+ * and written a batch at a time, each base before its deltas, so the
+ * objects of a pack need not fit in memory together.
+ * <p>
+ * A pack is named by the SHA-1 of its sorted ids. Its pack file is written
+ * before its index, and only packs with an index are read, so a pack is
+ * never seen half written.
+ * @author Nora Povejsil
+ */
+class Pack {
+    /**
+     * Directory of the packs in GITLET_FOLDER.
+     */
+    static final File PACK_DIR = Utils.join(Command.GITLET_FOLDER, "PACKS");
+
+    /**
+     * Kind of a commit.
+     */
+    static final byte COMMIT = 1;
+
+    /**
+     * Kind of a tree.
+     */
+    static final byte TREE = 2;
+
+    /**
+     * Kind of a blob.
+     */
+    static final byte BLOB = 3;
+
+    /**
+     * Setting for the longest chain of deltas in a pack.
+     */
+    static final String DEPTH = "pack.depth";
+
+    /**
+     * Longest chain of deltas if DEPTH is not set.
+     */
+    private static final int DEFAULT_DEPTH = 50;
+
+    /**
+     * Number of larger blobs of the same path tried as delta bases.
+     */
+    private static final int WINDOW = 10;
+
+    /**
+     * Size of the smallest blob stored as a delta.
+     */
+    private static final int MIN_DELTA_SIZE = 64;
+
+    /**
+     * Size of the largest object stored in a pack. Larger blobs are left
+     * loose, which keeps every object of a pack within an int.
+     */
+    static final long MAX_OBJECT_SIZE = 1L << 30;
+
+    /**
+     * Total size of the objects written together into one pack, which
+     * keeps the offsets of a pack, compressed, within an int.
+     */
+    static final long MAX_PACK_SIZE = 1L << 30;
+
+    /**
+     * Number of objects compressed together while writing a pack.
+     */
+    private static final int BATCH = 256;
+
+    /**
+     * Flag, in the kind of an object in a pack file, of a delta.
+     */
+    private static final int DELTA = 0x40;
+
+    /**
+     * Bytes of resolved delta bases cached per pack.
+     */
+    private static final long BASE_CACHE_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * Magic number at the start of a pack file ("GPAK").
+     */
+    private static final int MAGIC = 0x4750414b;
+
+    /**
+     * Magic number at the start of an index file ("GIDX").
+     */
+    private static final int INDEX_MAGIC = 0x47494458;
+
+    /**
+     * Version of the pack and index formats.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Version of the pack and index formats before deltas.
+     */
+    private static final int OLD_VERSION = 1;
+
+    /**
+     * Bytes before the first object of a pack file.
+     */
+    private static final int PACK_HEADER_SIZE = 3 * Integer.BYTES;
+
+    /**
+     * Bytes before the contents of an object in a pack file.
+     */
+    private static final int OBJECT_HEADER_SIZE = 1 + 2 * Integer.BYTES;
+
+    /**
+     * Bytes before the contents of a delta in a pack file.
+     */
+    private static final int DELTA_HEADER_SIZE = OBJECT_HEADER_SIZE
+            + 2 * Integer.BYTES;
+
+    /**
+     * Entries in the fan-out table.
+     */
+    private static final int FANOUT = 256;
+
+    /**
+     * Bytes before the first id of an index file.
+     */
+    private static final int INDEX_HEADER_SIZE = 2 * Integer.BYTES
+            + FANOUT * Integer.BYTES;
+
+    /**
+     * The packs read so far, or null until PACK_DIR is first scanned.
+     */
+    private static volatile List<Pack> packs;
+
+    /**
+     * Modification time of PACK_DIR when it was last scanned.
+     */
+    private static long scanned;
+
+    /**
+     * The pack file.
+     */
+    private final File packFile;
+
+    /**
+     * The index file.
+     */
+    private final File indexFile;
+
+    /**
+     * The mapped pack file.
+     */
+    private final MappedByteBuffer data;
+
+    /**
+     * The mapped index file.
+     */
+    private final MappedByteBuffer index;
+
+    /**
+     * Number of objects.
+     */
+    private final int count;
+
+    /**
+     * Delta bases resolved recently, by offset, least recently used
+     * first.
+     */
+    private final LinkedHashMap<Integer, byte[]> bases =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Total size of BASES.
+     */
+    private long baseBytes;
+
+    /**
+     * The pack whose index file is INDEXFILE.
+     * @param indexFile
+     */
+    private Pack(File indexFile1) {
+        indexFile = indexFile1;
+        String name = indexFile.getName();
+        packFile = Utils.join(PACK_DIR, name.substring(0, name.length()
+                - ".idx".length()) + ".pack");
+        index = map(indexFile);
+        data = map(packFile);
+        if (index.getInt(0) != INDEX_MAGIC || data.getInt(0) != MAGIC
+                || !isVersion(index.getInt(Integer.BYTES))
+                || !isVersion(data.getInt(Integer.BYTES))) {
+            throw Utils.error("Pack %s is corrupt.", name);
+        }
+        count = fanout(FANOUT - 1);
+    }
+
+    /**
+     * Return true iff VERSION1 is a format version that can be read.
+     * @param version1
+     * @return boolean
+     */
+    private static boolean isVersion(int version1) {
+        return version1 == VERSION || version1 == OLD_VERSION;
+    }
+
+    /**
+     * A read-only mapping of FILE.
+     * @param file
+     * @return buffer
+     */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+    }
+
+    /**
+     * The kind of the objects stored loose in the directory DIR.
+     * @param dir
+     * @return kind
+     */
+    static byte kind(File dir) {
+        if (dir.equals(Command.COMMIT_DIR)) {
+            return COMMIT;
+        } else if (dir.equals(Command.TREES)) {
+            return TREE;
+        }
+        return BLOB;
+    }
+
+    /**
+     * The directory of the loose objects of kind KIND.
+     * @param kind
+     * @return dir
+     */
+    static File dir(byte kind) {
+        if (kind == COMMIT) {
+            return Command.COMMIT_DIR;
+        } else if (kind == TREE) {
+            return Command.TREES;
+        }
+        return Command.BLOBS;
+    }
+
+    /**
+     * Every pack in PACK_DIR.
+     * @return packs
+     */
+    static List<Pack> all() {
+        List<Pack> result = packs;
+        return result == null ? rescan() : result;
+    }
+
+    /**
+     * Every pack in PACK_DIR, reading any written since it was last
+     * scanned.
+     * @return packs
+     */
+    static synchronized List<Pack> rescan() {
+        long modified = PACK_DIR.lastModified();
+        if (packs != null && modified == scanned) {
+            return packs;
+        }
+        List<Pack> result = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(PACK_DIR);
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(".idx")) {
+                    result.add(new Pack(Utils.join(PACK_DIR, name)));
+                }
+            }
+        }
+        scanned = modified;
+        packs = result;
+        return result;
+    }
+
+    /**
+     * The pack holding the object ID of kind KIND, or null if no pack
+     * holds it.
+     * @param id
+     * @param kind
+     * @return pack
+     */
+    static Pack locate(String id, byte kind) {
+        byte[] key = Utils.uidToBytes(id);
+        List<Pack> searched = all();
+        for (Pack pack : searched) {
+            if (pack.find(key, kind) >= 0) {
+                return pack;
+            }
+        }
+        if (rescan() != searched) {
+            for (Pack pack : all()) {
+                if (pack.find(key, kind) >= 0) {
+                    return pack;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The pack file of this pack, whose name without its extension is
+     * the name of the pack.
+     * @return file
+     */
+    File file() {
+        return packFile;
+    }
+
+    /**
+     * Delete this pack, its index first so that no reader finds it half
+     * deleted. Processes that have already mapped it can still read it.
+     */
+    void delete() {
+        indexFile.delete();
+        packFile.delete();
+        packs = null;
+    }
+
+    /**
+     * Number of objects in this pack.
+     * @return count
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * The id of object I, in id order.
+     * @param i
+     * @return id
+     */
+    String id(int i) {
+        byte[] id = new byte[Utils.UID_BYTES];
+        index.get(INDEX_HEADER_SIZE + i * Utils.UID_BYTES, id);
+        return Utils.bytesToUid(id, 0);
+    }
+
+    /**
+     * The kind of object I.
+     * @param i
+     * @return kind
+     */
+    byte kind(int i) {
+        return index.get(INDEX_HEADER_SIZE + count * Utils.UID_BYTES + i);
+    }
+
+    /**
+     * The offset in the pack file of object I.
+     * @param i
+     * @return offset
+     */
+    private int offset(int i) {
+        return index.getInt(INDEX_HEADER_SIZE
+                + count * (Utils.UID_BYTES + 1) + i * Integer.BYTES);
+    }
+
+    /**
+     * Entry B of the fan-out table.
+     * @param b
+     * @return count
+     */
+    private int fanout(int b) {
+        return index.getInt(2 * Integer.BYTES + b * Integer.BYTES);
+    }
+
+    /**
+     * The number of the object whose binary id is KEY and whose kind is
+     * KIND, or -1 if this pack does not hold it.
+     * @param key
+     * @param kind
+     * @return i
+     */
+    int find(byte[] key, byte kind) {
+        int first = key[0] & 0xff;
+        int low = first == 0 ? 0 : fanout(first - 1);
+        int high = fanout(first);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < count && compare(i, key) == 0; i += 1) {
+            if (kind(i) == kind) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the id of object I with the binary id KEY.
+     * @param i
+     * @param key
+     * @return comparison
+     */
+    private int compare(int i, byte[] key) {
+        int pos = INDEX_HEADER_SIZE + i * Utils.UID_BYTES;
+        for (int j = 0; j < Utils.UID_BYTES; j += 1) {
+            int c = Integer.compare(index.get(pos + j) & 0xff,
+                    key[j] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The number of the object ID of kind KIND, which this pack must hold.
+     * @param id
+     * @param kind
+     * @return i
+     */
+    private int object(String id, byte kind) {
+        int i = find(Utils.uidToBytes(id), kind);
+        if (i < 0) {
+            throw Utils.error("Object %s is not in the pack.", id);
+        }
+        return i;
+    }
+
+    /**
+     * The size of the object ID of kind KIND in this pack.
+     * @param id
+     * @param kind
+     * @return size
+     */
+    long size(String id, byte kind) {
+        return data.getInt(offset(object(id, kind)) + 1);
+    }
+
+    /**
+     * The contents of the object ID of kind KIND in this pack.
+     * @param id
+     * @param kind
+     * @return contents
+     */
+    byte[] read(String id, byte kind) {
+        return load(offset(object(id, kind)));
+    }
+
+    /**
+     * A stream of the contents of the object ID of kind KIND in this
+     * pack, inflated as it is read unless it is a delta.
+     * @param id
+     * @param kind
+     * @return stream
+     */
+    InputStream open(String id, byte kind) {
+        int pos = offset(object(id, kind));
+        if (isDelta(pos)) {
+            return new ByteArrayInputStream(load(pos));
+        }
+        ByteBuffer in = compressed(pos);
+        return new InflaterInputStream(new InputStream() {
+            @Override
+            public int read() {
+                return in.hasRemaining() ? in.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!in.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, in.remaining());
+                in.get(b, off, n);
+                return n;
+            }
+        });
+    }
+
+    /**
+     * The contents of the object at offset POS of the pack file, applying
+     * its chain of deltas, if any, to the first base that is cached or
+     * not a delta.
+     * @param pos
+     * @return contents
+     */
+    private byte[] load(int pos) {
+        ArrayDeque<Integer> chain = new ArrayDeque<>();
+        byte[] result = null;
+        while (result == null) {
+            if (!isDelta(pos)) {
+                result = inflate(pos, data.getInt(pos + 1));
+            } else {
+                result = cachedBase(pos);
+                if (result == null) {
+                    chain.push(pos);
+                    pos = data.getInt(pos + OBJECT_HEADER_SIZE);
+                }
+            }
+        }
+        while (!chain.isEmpty()) {
+            cacheBase(pos, result);
+            pos = chain.pop();
+            result = Delta.apply(result, inflate(pos,
+                    data.getInt(pos + OBJECT_HEADER_SIZE + Integer.BYTES)));
+        }
+        return result;
+    }
+
+    /**
+     * The SIZE bytes inflated from the object at offset POS of the pack
+     * file.
+     * @param pos
+     * @param size
+     * @return bytes
+     */
+    private byte[] inflate(int pos, int size) {
+        byte[] result = ObjectStore.inflate(compressed(pos), size);
+        if (result == null) {
+            throw Utils.error("Pack object at %d is corrupt.", pos);
+        }
+        return result;
+    }
+
+    /**
+     * Return true iff the object at offset POS of the pack file is a
+     * delta.
+     * @param pos
+     * @return boolean
+     */
+    private boolean isDelta(int pos) {
+        return (data.get(pos) & DELTA) != 0;
+    }
+
+    /**
+     * The compressed contents of the object at offset POS of the pack
+     * file.
+     * @param pos
+     * @return buffer
+     */
+    private ByteBuffer compressed(int pos) {
+        int length = data.getInt(pos + 1 + Integer.BYTES);
+        return data.slice(pos + (isDelta(pos) ? DELTA_HEADER_SIZE
+                : OBJECT_HEADER_SIZE), length);
+    }
+
+    /**
+     * The cached contents of the delta base at offset POS, or null.
+     * @param pos
+     * @return contents
+     */
+    private synchronized byte[] cachedBase(int pos) {
+        return bases.get(pos);
+    }
+
+    /**
+     * Cache CONTENTS as those of the delta base at offset POS, dropping
+     * the least recently used bases to stay within BASE_CACHE_SIZE.
+     * @param pos
+     * @param contents
+     */
+    private synchronized void cacheBase(int pos, byte[] contents) {
+        if (contents.length > BASE_CACHE_SIZE / 4
+                || bases.containsKey(pos)) {
+            return;
+        }
+        bases.put(pos, contents);
+        baseBytes += contents.length;
+        Iterator<byte[]> eldest = bases.values().iterator();
+        while (baseBytes > BASE_CACHE_SIZE) {
+            baseBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Write the objects IDS, of kinds KINDS, as a new pack and return its
+     * name, or null if there are none. The contents of object I are got
+     * from LOAD when they are needed and are not kept, and its size from
+     * SIZE, so the objects need not fit in memory together. Blobs are
+     * stored as deltas where PATHS, the path of each blob by id, suggests
+     * a base. Deltas are found and objects compressed on several threads,
+     * and each base is written before its deltas.
+     * @param ids
+     * @param kinds
+     * @param load
+     * @param size
+     * @param paths
+     * @return name
+     */
+    static String write(String[] ids, byte[] kinds, IntFunction<byte[]> load,
+                        IntToLongFunction size, Map<String, String> paths) {
+        int n = ids.length;
+        if (n == 0) {
+            return null;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = ids[a].compareTo(ids[b]);
+            return c != 0 ? c : Byte.compare(kinds[a], kinds[b]);
+        });
+        String[] sortedIds = new String[n];
+        byte[] sortedKinds = new byte[n];
+        for (int i = 0; i < n; i += 1) {
+            sortedIds[i] = ids[order[i]];
+            sortedKinds[i] = kinds[order[i]];
+        }
+        IntFunction<byte[]> loader = i -> load.apply(order[i]);
+        int[] sizes = new int[n];
+        int[] deltaBases = new int[n];
+        byte[][] deltas = new byte[n][];
+        findDeltas(sortedIds, sortedKinds, loader,
+                i -> size.applyAsLong(order[i]), paths, sizes, deltaBases,
+                deltas);
+        byte[] binaryIds = new byte[n * Utils.UID_BYTES];
+        for (int i = 0; i < n; i += 1) {
+            System.arraycopy(Utils.uidToBytes(sortedIds[i]), 0, binaryIds,
+                    i * Utils.UID_BYTES, Utils.UID_BYTES);
+        }
+        String name = "pack-" + Utils.sha1(binaryIds);
+        PACK_DIR.mkdirs();
+        long[] offsets = writeObjects(Utils.join(PACK_DIR, name + ".pack"),
+                sortedKinds, loader, sizes, deltaBases, deltas);
+        ByteBuffer table = ByteBuffer.allocate(INDEX_HEADER_SIZE
+                + n * (Utils.UID_BYTES + 1 + Integer.BYTES));
+        table.putInt(INDEX_MAGIC).putInt(VERSION);
+        int[] fanout = new int[FANOUT];
+        for (int i = 0; i < n; i += 1) {
+            fanout[binaryIds[i * Utils.UID_BYTES] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < FANOUT; b += 1) {
+            total += fanout[b];
+            table.putInt(total);
+        }
+        table.put(binaryIds);
+        table.put(sortedKinds);
+        for (int i = 0; i < n; i += 1) {
+            table.putInt((int) offsets[i]);
+        }
+        Utils.writeContentsAtomically(Utils.join(PACK_DIR, name + ".idx"),
+                table.array());
+        packs = null;
+        return name;
+    }
+
+    /**
+     * Write PACKFILE holding the objects of kinds KINDS, whose contents
+     * are got from LOAD, storing object I as the delta DELTAS[I] against
+     * object DELTABASES[I] if DELTAS[I] is not null, and return the offset
+     * of each object. SIZES[I] must already hold the size of each object
+     * stored as a delta. Objects are compressed BATCH at a time, in one
+     * slice per processor, each with its own Deflater.
+     * @param packFile
+     * @param kinds
+     * @param load
+     * @param sizes
+     * @param deltaBases
+     * @param deltas
+     * @return offsets
+     */
+    private static long[] writeObjects(File packFile, byte[] kinds,
+                                       IntFunction<byte[]> load, int[] sizes,
+                                       int[] deltaBases, byte[][] deltas) {
+        int n = kinds.length;
+        int[] sequence = new int[n];
+        boolean[] placed = new boolean[n];
+        int placedCount = 0;
+        for (int i = 0; i < n; i += 1) {
+            ArrayDeque<Integer> chain = new ArrayDeque<>();
+            for (int j = i; !placed[j]; j = deltaBases[j]) {
+                placed[j] = true;
+                chain.push(j);
+                if (deltas[j] == null) {
+                    break;
+                }
+            }
+            while (!chain.isEmpty()) {
+                sequence[placedCount] = chain.pop();
+                placedCount += 1;
+            }
+        }
+        long[] offsets = new long[n];
+        byte[][] packed = new byte[BATCH][];
+        int threads = Runtime.getRuntime().availableProcessors();
+        File temp = new File(packFile.getParentFile(),
+                packFile.getName() + ".lock");
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(temp), ObjectStore.BUFFER_SIZE)) {
+            out.write(ByteBuffer.allocate(PACK_HEADER_SIZE).putInt(MAGIC)
+                    .putInt(VERSION).putInt(n).array());
+            long offset = PACK_HEADER_SIZE;
+            for (int start = 0; start < n; start += BATCH) {
+                int first = start;
+                int end = Math.min(n, start + BATCH);
+                int slices = Math.min(threads, end - start);
+                IntStream.range(0, slices).parallel().forEach(slice -> {
+                    Deflater deflater = new Deflater();
+                    try {
+                        for (int k = first + slice; k < end; k += slices) {
+                            int i = sequence[k];
+                            byte[] contents = deltas[i];
+                            if (contents == null) {
+                                contents = load.apply(i);
+                                sizes[i] = contents.length;
+                            }
+                            packed[k - first] = deflate(contents, deflater);
+                        }
+                    } finally {
+                        deflater.end();
+                    }
+                });
+                for (int k = start; k < end; k += 1) {
+                    int i = sequence[k];
+                    if (offset > Integer.MAX_VALUE) {
+                        throw Utils.error("Pack is too large.");
+                    }
+                    offsets[i] = offset;
+                    ByteBuffer header;
+                    if (deltas[i] == null) {
+                        header = ByteBuffer.allocate(OBJECT_HEADER_SIZE)
+                                .put(kinds[i]);
+                    } else {
+                        header = ByteBuffer.allocate(DELTA_HEADER_SIZE)
+                                .put((byte) (kinds[i] | DELTA));
+                    }
+                    header.putInt(sizes[i]).putInt(packed[k - start].length);
+                    if (deltas[i] != null) {
+                        header.putInt((int) offsets[deltaBases[i]])
+                                .putInt(deltas[i].length);
+                    }
+                    out.write(header.array());
+                    out.write(packed[k - start]);
+                    offset += header.capacity() + packed[k - start].length;
+                    packed[k - start] = null;
+                }
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new GitletException(excp.getMessage());
+        } catch (GitletException excp) {
+            temp.delete();
+            throw excp;
+        }
+        try {
+            Files.move(temp.toPath(), packFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new GitletException(excp.getMessage());
+        }
+        return offsets;
+    }
+
+    /**
+     * Choose which of the objects IDS, of kinds KINDS, with sizes got from
+     * SIZE and contents got from LOAD, to store as deltas, setting
+     * DELTABASES[I] to the number of the base of object I, DELTAS[I] to
+     * its delta and SIZES[I] to its size. Only blobs with a path in PATHS
+     * are tried, each against the next larger blobs of that path. The
+     * blobs of a path are ordered by the sizes in their headers, and only
+     * those in the window of bases, and their tables, are loaded at once.
+     * @param ids
+     * @param kinds
+     * @param load
+     * @param size
+     * @param paths
+     * @param sizes
+     * @param deltaBases
+     * @param deltas
+     */
+    private static void findDeltas(String[] ids, byte[] kinds,
+                                   IntFunction<byte[]> load,
+                                   IntToLongFunction size,
+                                   Map<String, String> paths, int[] sizes,
+                                   int[] deltaBases, byte[][] deltas) {
+        HashMap<String, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < ids.length; i += 1) {
+            String path = paths.get(ids[i]);
+            if (kinds[i] == BLOB && path != null) {
+                groups.computeIfAbsent(path, k -> new ArrayList<>()).add(i);
+            }
+        }
+        int maxDepth = Config.getInt(DEPTH, DEFAULT_DEPTH);
+        int[] depths = new int[ids.length];
+        groups.values().parallelStream().forEach(group -> {
+            if (group.size() < 2) {
+                return;
+            }
+            HashMap<Integer, Long> lengths = new HashMap<>();
+            for (int i : group) {
+                lengths.put(i, size.applyAsLong(i));
+            }
+            group.removeIf(i -> lengths.get(i) < MIN_DELTA_SIZE);
+            group.sort((a, b) -> Long.compare(lengths.get(b),
+                    lengths.get(a)));
+            byte[][] window = new byte[WINDOW][];
+            int[][] tables = new int[WINDOW][];
+            for (int j = 0; j < group.size(); j += 1) {
+                int target = group.get(j);
+                byte[] targetContents = load.apply(target);
+                int limit = targetContents.length / 2;
+                for (int k = Math.max(0, j - WINDOW); k < j; k += 1) {
+                    int base = group.get(k);
+                    int slot = k % WINDOW;
+                    if (depths[base] >= maxDepth) {
+                        continue;
+                    }
+                    if (tables[slot] == null) {
+                        tables[slot] = Delta.index(window[slot]);
+                    }
+                    byte[] delta = Delta.create(window[slot], tables[slot],
+                            targetContents);
+                    if (delta.length < limit) {
+                        limit = delta.length;
+                        deltaBases[target] = base;
+                        deltas[target] = delta;
+                        sizes[target] = targetContents.length;
+                        depths[target] = depths[base] + 1;
+                    }
+                }
+                window[j % WINDOW] = targetContents;
+                tables[j % WINDOW] = null;
+            }
+        });
+    }
+
+    /**
+     * CONTENTS compressed with DEFLATER.
+     * @param contents
+     * @param deflater
+     * @return bytes
+     */
+    static byte[] deflate(byte[] contents, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(contents);
+        deflater.finish();
+        byte[] buffer = new byte[contents.length + contents.length / 2 + 64];
+        int n = 0;
+        while (!deflater.finished()) {
+            if (n == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            n += deflater.deflate(buffer, n, buffer.length - n);
+        }
+        return Arrays.copyOf(buffer, n);
+    }
+}
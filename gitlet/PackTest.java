@@ -0,0 +1,333 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static gitlet.TestRepository.importCommit;
+
+/**
+ * Tests of writing, finding and reading packs.
+ * @author Nora Povejsil
+ */
+public class PackTest {
+    /**
+     * Magic number of a pack file.
+     */
+    private static final int MAGIC = 0x4750414b;
+
+    /**
+     * Magic number of an index file.
+     */
+    private static final int INDEX_MAGIC = 0x47494458;
+
+    /**
+     * Flag of a delta in the kind of a packed object.
+     */
+    private static final int DELTA = 0x40;
+
+    /**
+     * Source of random contents, seeded so failures repeat.
+     */
+    private final Random random = new Random(61);
+
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * The ids of the objects CONTENTS.
+     * @param contents
+     * @return ids
+     */
+    private static String[] ids(byte[][] contents) {
+        String[] result = new String[contents.length];
+        for (int i = 0; i < contents.length; i += 1) {
+            result[i] = Utils.sha1(contents[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Check that every object CONTENTS[I], of kind KINDS[I], is found in a
+     * pack and reads back whole, by size and as a stream.
+     * @param contents
+     * @param kinds
+     */
+    private static void checkAll(byte[][] contents, byte[] kinds) {
+        String[] ids = ids(contents);
+        for (int i = 0; i < ids.length; i += 1) {
+            Pack pack = Pack.locate(ids[i], kinds[i]);
+            assertNotNull(ids[i], pack);
+            assertArrayEquals(contents[i], pack.read(ids[i], kinds[i]));
+            assertEquals(contents[i].length, pack.size(ids[i], kinds[i]));
+            try (InputStream in = pack.open(ids[i], kinds[i])) {
+                assertArrayEquals(contents[i], in.readAllBytes());
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        }
+    }
+
+    /**
+     * Objects of every kind, more than one batch of them, are all found
+     * by id and kind, and nothing else is.
+     */
+    @Test
+    public void writeLocateRead() {
+        int n = 600;
+        byte[][] contents = new byte[n][];
+        byte[] kinds = new byte[n];
+        for (int i = 0; i < n; i += 1) {
+            contents[i] = new byte[i == 0 ? 0 : random.nextInt(3000)];
+            random.nextBytes(contents[i]);
+            kinds[i] = (byte) (Pack.COMMIT + i % 3);
+        }
+        String[] ids = ids(contents);
+        String name = Pack.write(ids, kinds, i -> contents[i],
+                i -> contents[i].length, new HashMap<>());
+        assertEquals(1, Pack.all().size());
+        assertEquals(n, Pack.all().get(0).size());
+        assertEquals(name + ".pack", Pack.all().get(0).file().getName());
+        checkAll(contents, kinds);
+        for (int i = 0; i < n; i += 1) {
+            byte other = (byte) (Pack.COMMIT + (i + 1) % 3);
+            assertNull(Pack.locate(ids[i], other));
+        }
+        assertNull(Pack.locate(Utils.sha1("absent"), Pack.BLOB));
+        assertNull(Pack.write(new String[0], new byte[0], i -> null,
+                i -> 0, new HashMap<>()));
+    }
+
+    /**
+     * Versions of one file are stored as deltas, in chains no longer
+     * than the pack.depth setting, and read back whole.
+     */
+    @Test
+    public void deltaChainsRespectDepth() {
+        int n = 40;
+        byte[][] contents = new byte[n][];
+        byte[] kinds = new byte[n];
+        StringBuilder text = new StringBuilder();
+        Map<String, String> paths = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            text.append("line ").append(i).append(" of the file\n");
+            contents[i] = text.toString().getBytes(StandardCharsets.UTF_8);
+            kinds[i] = Pack.BLOB;
+            paths.put(Utils.sha1(contents[i]), "f.txt");
+        }
+        String[] ids = ids(contents);
+        for (int depth : new int[] {0, 1, 3, 50}) {
+            for (Pack pack : Pack.all()) {
+                pack.delete();
+            }
+            repo.quiet("config", Pack.DEPTH, Integer.toString(depth));
+            Pack.write(ids, kinds, i -> contents[i],
+                    i -> contents[i].length, paths);
+            int longest = longestChain(Pack.all().get(0));
+            assertTrue(depth + " " + longest, longest <= depth);
+            if (depth > 0) {
+                assertTrue(depth + " " + longest, longest > 0);
+            }
+            checkAll(contents, kinds);
+        }
+    }
+
+    /**
+     * The versions of a file are ordered by the sizes given for them,
+     * without loading them, and each is then loaded once while deltas are
+     * found, from the largest down, skipping those too small for a delta.
+     */
+    @Test
+    public void deltasLoadedBySize() {
+        int n = 30;
+        byte[][] contents = new byte[n][];
+        byte[] kinds = new byte[n];
+        Map<String, String> paths = new HashMap<>();
+        for (int i = 0; i < n; i += 1) {
+            int size = i == 0 ? 10 : 100 + random.nextInt(2000);
+            contents[i] = new byte[size];
+            Arrays.fill(contents[i], (byte) 'a');
+            contents[i][size / 2] = (byte) i;
+            kinds[i] = Pack.BLOB;
+            paths.put(Utils.sha1(contents[i]), "f.txt");
+        }
+        String[] ids = ids(contents);
+        List<Integer> loads = new ArrayList<>();
+        Pack.write(ids, kinds, i -> {
+            synchronized (loads) {
+                loads.add(i);
+            }
+            return contents[i];
+        }, i -> contents[i].length, paths);
+        List<Integer> searched = loads.subList(0, n - 1);
+        assertEquals(n - 1, new HashSet<>(searched).size());
+        assertFalse(searched.contains(0));
+        for (int k = 1; k < searched.size(); k += 1) {
+            assertTrue(contents[searched.get(k - 1)].length
+                    >= contents[searched.get(k)].length);
+        }
+        checkAll(contents, kinds);
+    }
+
+    /**
+     * The longest chain of deltas in PACK, found by walking its pack
+     * file.
+     * @param pack
+     * @return length
+     */
+    private static int longestChain(Pack pack) {
+        ByteBuffer data = ByteBuffer.wrap(Utils.readContents(pack.file()));
+        assertEquals(MAGIC, data.getInt());
+        assertEquals(2, data.getInt());
+        int count = data.getInt();
+        Map<Integer, Integer> depths = new HashMap<>();
+        int longest = 0;
+        for (int i = 0; i < count; i += 1) {
+            int pos = data.position();
+            byte kind = data.get();
+            data.getInt();
+            int length = data.getInt();
+            int depth = 0;
+            if ((kind & DELTA) != 0) {
+                int base = data.getInt();
+                data.getInt();
+                assertTrue(depths.containsKey(base));
+                depth = depths.get(base) + 1;
+            }
+            depths.put(pos, depth);
+            longest = Math.max(longest, depth);
+            data.position(data.position() + length);
+        }
+        assertFalse(data.hasRemaining());
+        return longest;
+    }
+
+    /**
+     * A pack written in version 1 of the format, before deltas, is still
+     * read.
+     */
+    @Test
+    public void versionOnePack() {
+        int n = 50;
+        byte[][] contents = new byte[n][];
+        byte[] kinds = new byte[n];
+        for (int i = 0; i < n; i += 1) {
+            contents[i] = ("object " + i).getBytes(StandardCharsets.UTF_8);
+            kinds[i] = (byte) (Pack.COMMIT + i % 3);
+        }
+        String[] ids = ids(contents);
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> ids[a].compareTo(ids[b]));
+        ByteBuffer pack = ByteBuffer.allocate(1 << 16);
+        pack.putInt(MAGIC).putInt(1).putInt(n);
+        ByteBuffer index = ByteBuffer.allocate(8 + 256 * 4 + n * 25);
+        index.putInt(INDEX_MAGIC).putInt(1);
+        int[] fanout = new int[256];
+        for (int i : order) {
+            fanout[Utils.uidToBytes(ids[i])[0] & 0xff] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            index.putInt(total);
+        }
+        for (int i : order) {
+            index.put(Utils.uidToBytes(ids[i]));
+        }
+        for (int i : order) {
+            index.put(kinds[i]);
+        }
+        for (int i : order) {
+            index.putInt(pack.position());
+            byte[] packed = Pack.deflate(contents[i], new Deflater());
+            pack.put(kinds[i]).putInt(contents[i].length)
+                    .putInt(packed.length).put(packed);
+        }
+        Pack.PACK_DIR.mkdirs();
+        Utils.writeContents(Utils.join(Pack.PACK_DIR, "pack-v1.pack"),
+                Arrays.copyOf(pack.array(), pack.position()));
+        Utils.writeContents(Utils.join(Pack.PACK_DIR, "pack-v1.idx"),
+                index.array());
+        checkAll(contents, kinds);
+    }
+
+    /**
+     * Imported commits are written as one pack, not as loose files, and
+     * are read from it.
+     */
+    @Test
+    public void importWritesPack() {
+        repo.importHistory(importCommit("master", 1, 1000, "one")
+                + importCommit("master", 2, 2000, "two", 1)
+                + importCommit("master", 3, 3000, "three", 2));
+        assertEquals(1, Pack.all().size());
+        String head = repo.branch("master");
+        assertFalse(Utils.join(Command.COMMIT_DIR, head).exists());
+        assertNotNull(Pack.locate(head, Pack.COMMIT));
+        String log = repo.run("log");
+        assertTrue(log, log.contains("three\n"));
+        assertTrue(log, log.contains("two\n"));
+        assertTrue(log, log.contains("one\n"));
+    }
+
+    /**
+     * A pack of an unknown version is rejected.
+     */
+    @Test
+    public void unknownVersion() {
+        byte[] contents = "x".getBytes(StandardCharsets.UTF_8);
+        String name = Pack.write(new String[] {Utils.sha1(contents)},
+                new byte[] {Pack.BLOB}, i -> contents, i -> contents.length,
+                new HashMap<>());
+        File packFile = Utils.join(Pack.PACK_DIR, name + ".pack");
+        byte[] data = Utils.readContents(packFile);
+        ByteBuffer.wrap(data).putInt(Integer.BYTES, 3);
+        Utils.writeContents(packFile, data);
+        try {
+            Pack.rescan();
+            Pack.all();
+            fail("read a pack of version 3");
+        } catch (GitletException excp) {
+            assertEquals("Pack " + name + ".idx is corrupt.",
+                    excp.getMessage());
+        }
+        Utils.join(Pack.PACK_DIR, name + ".idx").delete();
+    }
+}
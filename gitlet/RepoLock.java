@@ -0,0 +1,54 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes commands on a repository. A command holds an exclusive lock
+ * on LOCK_FILE while it runs, so commands from separate processes, and
+ * from a daemon and the processes beside it, never interleave. File locks
+ * are held by a whole JVM, so threads of one process, such as a daemon's
+ * connection handlers, also take an in-process lock first.
+ * @author Nora Povejsil
+ */
+class RepoLock {
+    /**
+     * The lock file in GITLET_FOLDER.
+     */
+    static final File LOCK_FILE = Utils.join(Command.GITLET_FOLDER, "LOCK");
+
+    /**
+     * Lock held by the thread of this process that holds the file lock.
+     */
+    private static final ReentrantLock IN_PROCESS = new ReentrantLock();
+
+    /**
+     * Run ACTION holding the repository lock, waiting for other commands
+     * to finish first. Outside a repository, ACTION runs unlocked.
+     * @param action
+     */
+    static void run(Runnable action) {
+        if (!Command.GITLET_FOLDER.isDirectory()) {
+            action.run();
+            return;
+        }
+        IN_PROCESS.lock();
+        try (FileChannel channel = FileChannel.open(LOCK_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                action.run();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        } finally {
+            IN_PROCESS.unlock();
+        }
+    }
+}
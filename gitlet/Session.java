@@ -0,0 +1,134 @@
+package gitlet;
+
+/**
+ * State kept in memory across the commands of a batch. While a session is
+ * active, the staging index is read from disk once and then shared by
+ * every command, which only mark it changed; it is written at checkpoints:
+ * before the head moves, when the batch asks for one, and at the end. The
+ * id of the head commit is remembered too, so commands need not read the
+ * branch files to find it. Changes a command makes to the index without
+ * writing it, as when it fails part way or stops with an error, are
+ * dropped when it ends, so no checkpoint writes them. Outside a session
+ * every method does nothing.
+ * @author Nora Povejsil
+ */
+class Session {
+    /**
+     * Whether a session is active.
+     */
+    private static boolean active;
+
+    /**
+     * The staging index shared by the commands of the session, or null
+     * until first read.
+     */
+    private static StagingIndex index;
+
+    /**
+     * Whether INDEX changed since it was last written.
+     */
+    private static boolean indexChanged;
+
+    /**
+     * Id of the head commit, or null if not known.
+     */
+    private static String head;
+
+    /**
+     * Start a session.
+     */
+    static void begin() {
+        active = true;
+    }
+
+    /**
+     * Write what changed and end the session.
+     */
+    static void end() {
+        checkpoint();
+        active = false;
+        index = null;
+        head = null;
+    }
+
+    /**
+     * Write the staging index if it changed.
+     */
+    static void checkpoint() {
+        if (index != null && indexChanged) {
+            index.flush();
+            indexChanged = false;
+        }
+    }
+
+    /**
+     * End a command of the session, dropping the changes it made to the
+     * staging index without writing it, and forgetting the head commit if
+     * there were any.
+     */
+    static void settle() {
+        if (index != null && index.revert()) {
+            head = null;
+        }
+    }
+
+    /**
+     * Return true iff INDEX1 is the staging index of the session.
+     * @param index1
+     * @return boolean
+     */
+    static boolean holds(StagingIndex index1) {
+        return active && index1 == index;
+    }
+
+    /**
+     * The staging index of the session, or null if none is held.
+     * @return index
+     */
+    static StagingIndex index() {
+        return index;
+    }
+
+    /**
+     * Hold INDEX1, just read from disk, for the rest of the session.
+     * @param index1
+     */
+    static void keep(StagingIndex index1) {
+        if (active) {
+            index = index1;
+        }
+    }
+
+    /**
+     * Record that INDEX1 changed. Return false if it is not the index of
+     * the session, and so must be written now.
+     * @param index1
+     * @return boolean
+     */
+    static boolean changed(StagingIndex index1) {
+        if (!holds(index1)) {
+            return false;
+        }
+        indexChanged = true;
+        return true;
+    }
+
+    /**
+     * Id of the head commit, or null if not known.
+     * @return commitSHA1
+     */
+    static String head() {
+        return head;
+    }
+
+    /**
+     * Remember COMMITSHA1 as the id of the head commit, or forget it if
+     * null.
+     * @param commitSHA1
+     */
+    static void setHead(String commitSHA1) {
+        if (active) {
+            head = commitSHA1;
+        }
+    }
+}
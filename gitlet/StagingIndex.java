@@ -0,0 +1,794 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The staging area, kept in one binary file sorted by path. Each entry
+ * holds the path, blob id, mode, size, modification time and inode of a
+ * file, and whether it is staged for addition or for removal. The file is
+ * replaced atomically, so a staging command is one read and one write.
+ * <p>
+ * Each entry also holds the blob id of the file in the head commit, if it
+ * is tracked there, and the index records the id of the head's tree. So
+ * the index is a flattened copy of the head commit, and status and the
+ * tracking checks need no trees at all. When the head moves, syncHead
+ * applies the difference between the old and new trees, which skips every
+ * subtree the two share.
+ * <p>
+ * Entries that are not staged make up the stat cache: the blob id a
+ * tracked file had when it last had the recorded stat data. A file whose
+ * stat data still match its entry need not be read to know its blob id,
+ * unless it was modified no earlier than the index was last written
+ * ("racily clean"), since it could then have changed again within the
+ * same timestamp tick.
+ * @author Nora Povejsil
+ */
+class StagingIndex {
+    /**
+     * Index file in GITLET_FOLDER.
+     */
+    static final File INDEX_FILE = Utils.join(Command.GITLET_FOLDER, "INDEX");
+
+    /**
+     * Flag: staged for addition.
+     */
+    static final int ADD = 1;
+
+    /**
+     * Flag: staged for removal.
+     */
+    static final int REMOVE = 2;
+
+    /**
+     * Mode of a regular file.
+     */
+    static final int MODE_FILE = 0100644;
+
+    /**
+     * Mode of an executable file.
+     */
+    static final int MODE_EXECUTABLE = 0100755;
+
+    /**
+     * Any execute permission bit.
+     */
+    private static final int EXECUTE_BITS = 0111;
+
+    /**
+     * Magic number at the start of INDEX_FILE ("GIDX").
+     */
+    private static final int MAGIC = 0x47494458;
+
+    /**
+     * Version of the INDEX_FILE format. Version 1 had no inodes, and
+     * versions before 3 had no head blobs.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Binary form of a missing id.
+     */
+    private static final byte[] NO_ID = new byte[Utils.UID_BYTES];
+
+    /**
+     * Stat data of a file.
+     */
+    static class Stat {
+        /**
+         * File mode.
+         */
+        private final int mode;
+        /**
+         * File size.
+         */
+        private final long size;
+        /**
+         * Modification time in nanoseconds.
+         */
+        private final long mtime;
+        /**
+         * Inode number, or 0 where there is none.
+         */
+        private final long ino;
+
+        /**
+         * Stat data.
+         * @param mode1
+         * @param size1
+         * @param mtime1
+         * @param ino1
+         */
+        Stat(int mode1, long size1, long mtime1, long ino1) {
+            mode = mode1;
+            size = size1;
+            mtime = mtime1;
+            ino = ino1;
+        }
+
+        /**
+         * Stat data of FILE.
+         * @param file
+         * @return stat
+         */
+        static Stat of(File file) {
+            Path path = file.toPath();
+            try {
+                Map<String, Object> attrs = Files.readAttributes(path,
+                        "unix:mode,size,lastModifiedTime,ino");
+                int mode = ((Integer) attrs.get("mode") & EXECUTE_BITS) != 0
+                        ? MODE_EXECUTABLE : MODE_FILE;
+                return new Stat(mode, (Long) attrs.get("size"),
+                        nanos((FileTime) attrs.get("lastModifiedTime")),
+                        (Long) attrs.get("ino"));
+            } catch (UnsupportedOperationException
+                     | IllegalArgumentException excp) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path,
+                            BasicFileAttributes.class);
+                    int mode = file.canExecute() ? MODE_EXECUTABLE
+                            : MODE_FILE;
+                    return new Stat(mode, attrs.size(),
+                            nanos(attrs.lastModifiedTime()), 0);
+                } catch (IOException excp2) {
+                    throw new GitletException(excp2.getMessage());
+                }
+            } catch (IOException excp) {
+                throw new GitletException(excp.getMessage());
+            }
+        }
+
+        /**
+         * TIME in nanoseconds.
+         * @param time
+         * @return long
+         */
+        private static long nanos(FileTime time) {
+            return time.to(TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Return true iff this is the same stat data as OTHER.
+         * @param other
+         * @return boolean
+         */
+        boolean matches(Stat other) {
+            return mode == other.mode && size == other.size
+                    && mtime == other.mtime && ino == other.ino;
+        }
+    }
+
+    /**
+     * Stat data recorded for staged removals.
+     */
+    private static final Stat NO_STAT = new Stat(MODE_FILE, 0, 0, 0);
+
+    /**
+     * One path in the index.
+     */
+    static class Entry {
+        /**
+         * Path of the file.
+         */
+        private final String path;
+        /**
+         * Id of the blob staged or cached.
+         */
+        private final String blob;
+        /**
+         * Stat data of the file when the blob id was taken.
+         */
+        private final Stat stat;
+        /**
+         * ADD, REMOVE, or 0 for a stat cache entry.
+         */
+        private final int flags;
+        /**
+         * Id of the blob in the head commit, or null if untracked.
+         */
+        private final String head;
+
+        /**
+         * An entry.
+         * @param path1
+         * @param blob1
+         * @param stat1
+         * @param flags1
+         * @param head1
+         */
+        Entry(String path1, String blob1, Stat stat1, int flags1,
+              String head1) {
+            path = path1;
+            blob = blob1;
+            stat = stat1;
+            flags = flags1;
+            head = head1;
+        }
+
+        /** Get path.
+         * @return string
+         */
+        String getPath() {
+            return path;
+        }
+
+        /** Get blob id.
+         * @return string
+         */
+        String getBlob() {
+            return blob;
+        }
+
+        /** Get mode.
+         * @return int
+         */
+        int getMode() {
+            return stat.mode;
+        }
+
+        /** Is staged for addition.
+         * @return boolean
+         */
+        boolean isAdded() {
+            return (flags & ADD) != 0;
+        }
+
+        /** Is staged for removal.
+         * @return boolean
+         */
+        boolean isRemoved() {
+            return (flags & REMOVE) != 0;
+        }
+
+        /** Is staged for addition or removal.
+         * @return boolean
+         */
+        boolean isStaged() {
+            return flags != 0;
+        }
+
+        /** Get the blob id in the head commit, or null if untracked.
+         * @return string
+         */
+        String getHead() {
+            return head;
+        }
+    }
+
+    /**
+     * Entries by path.
+     */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * Modification time of INDEX_FILE in nanoseconds when read. Entries
+     * modified at or after it are racily clean.
+     */
+    private long indexTime = Long.MIN_VALUE;
+
+    /**
+     * Whether the stat cache changed since the index was read.
+     */
+    private boolean cacheChanged;
+
+    /**
+     * Id of the tree whose files are recorded as head blobs, or null if
+     * none are recorded yet.
+     */
+    private String headTree;
+
+    /**
+     * Entries as they were last written, kept while this is the index of
+     * a batch Session and has changes that were not written since, or
+     * null.
+     */
+    private TreeMap<String, Entry> written;
+
+    /**
+     * HEADTREE as it was last written, kept with WRITTEN.
+     */
+    private String writtenHeadTree;
+
+    /**
+     * Read INDEX_FILE, or return the index already held by a batch
+     * Session.
+     * @return index
+     */
+    static StagingIndex read() {
+        StagingIndex index = Session.index();
+        if (index == null) {
+            index = load();
+            Session.keep(index);
+        }
+        return index;
+    }
+
+    /**
+     * Read INDEX_FILE. A repository from before the index existed has its
+     * STAGE_ADD and STAGE_REMOVAL folders read instead.
+     * @return index
+     */
+    private static StagingIndex load() {
+        StagingIndex index = new StagingIndex();
+        if (!INDEX_FILE.exists()) {
+            index.readLegacy();
+            return index;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Utils.readContents(INDEX_FILE));
+        int version = 0;
+        if (data.getInt() == MAGIC) {
+            version = data.getInt();
+        }
+        if (version < 1 || version > VERSION) {
+            throw new GitletException("corrupt staging index");
+        }
+        byte[] id = new byte[Utils.UID_BYTES];
+        if (version >= 3) {
+            data.get(id);
+            index.headTree = readId(id);
+        }
+        int count = data.getInt();
+        for (int i = 0; i < count; i += 1) {
+            byte[] path = new byte[data.getShort() & 0xffff];
+            data.get(path);
+            data.get(id);
+            int mode = data.getInt();
+            long size = data.getLong();
+            long mtime = data.getLong();
+            long ino = version == 1 ? 0 : data.getLong();
+            String blob = Utils.bytesToUid(id, 0);
+            int flags = data.get();
+            String head = null;
+            if (version >= 3) {
+                data.get(id);
+                head = readId(id);
+            }
+            Entry e = new Entry(new String(path, StandardCharsets.UTF_8),
+                    blob, new Stat(mode, size, mtime, ino), flags, head);
+            index.entries.put(e.path, e);
+        }
+        index.indexTime = Stat.of(INDEX_FILE).mtime;
+        return index;
+    }
+
+    /**
+     * Read the staging folders used before INDEX_FILE.
+     */
+    private void readLegacy() {
+        for (File f : listOrEmpty(Command.STAGE_ADD)) {
+            String blob = Command.stagedBlob(f);
+            entries.put(f.getName(), new Entry(f.getName(), blob, NO_STAT,
+                    ADD, null));
+        }
+        for (File f : listOrEmpty(Command.STAGE_REMOVAL)) {
+            String blob = Command.stagedBlob(f);
+            entries.put(f.getName(), new Entry(f.getName(), blob, NO_STAT,
+                    REMOVE, null));
+        }
+    }
+
+    /**
+     * The hexadecimal form of the binary id ID, or null if it is NO_ID.
+     * @param id
+     * @return string
+     */
+    private static String readId(byte[] id) {
+        return Arrays.equals(id, NO_ID) ? null : Utils.bytesToUid(id, 0);
+    }
+
+    /**
+     * Files in DIR, or none if it does not exist.
+     * @param dir
+     * @return files
+     */
+    private static File[] listOrEmpty(File dir) {
+        File[] files = dir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    /**
+     * Save this index. The index of a batch Session is only marked
+     * changed, and written at the session's next checkpoint.
+     */
+    void write() {
+        if (Session.changed(this)) {
+            cacheChanged = false;
+            written = null;
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * Write INDEX_FILE atomically, removing any legacy staging folders.
+     */
+    void flush() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(headTree == null ? NO_ID
+                    : Utils.uidToBytes(headTree));
+            out.writeInt(entries.size());
+            for (Entry e : entries.values()) {
+                byte[] path = e.path.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(path.length);
+                out.write(path);
+                out.write(Utils.uidToBytes(e.blob));
+                out.writeInt(e.stat.mode);
+                out.writeLong(e.stat.size);
+                out.writeLong(e.stat.mtime);
+                out.writeLong(e.stat.ino);
+                out.writeByte(e.flags);
+                out.write(e.head == null ? NO_ID : Utils.uidToBytes(e.head));
+            }
+            out.close();
+        } catch (IOException excp) {
+            throw new GitletException(excp.getMessage());
+        }
+        Utils.writeContentsAtomically(INDEX_FILE, bytes.toByteArray());
+        indexTime = Stat.of(INDEX_FILE).mtime;
+        cacheChanged = false;
+        written = null;
+        Command.deleteFolder(Command.STAGE_ADD);
+        Command.deleteFolder(Command.STAGE_REMOVAL);
+    }
+
+    /**
+     * Note that this index is about to change. The index of a batch
+     * Session first saves its entries as last written, so that revert can
+     * restore them.
+     */
+    private void change() {
+        if (written == null && Session.holds(this)) {
+            written = new TreeMap<>(entries);
+            writtenHeadTree = headTree;
+        }
+    }
+
+    /**
+     * Drop the changes to this index of a batch Session that were not
+     * written, as by a command that failed part way, and return true iff
+     * there were any.
+     * @return boolean
+     */
+    boolean revert() {
+        if (written == null) {
+            return false;
+        }
+        entries.clear();
+        entries.putAll(written);
+        headTree = writtenHeadTree;
+        written = null;
+        return true;
+    }
+
+    /**
+     * Write INDEX_FILE if the stat cache changed since it was read.
+     */
+    void writeIfChanged() {
+        if (cacheChanged) {
+            write();
+        }
+    }
+
+    /**
+     * Return the blob id of FILE, the working copy of PATH, reading it
+     * only if the stat cache cannot vouch for it, and refresh the cache.
+     * @param path
+     * @param file
+     * @return blobSHA1
+     */
+    String workingBlob(String path, File file) {
+        Stat stat = Stat.of(file);
+        String blob = cachedBlob(path, stat);
+        if (blob == null) {
+            blob = ObjectStore.hash(file);
+            refresh(path, blob, stat);
+        }
+        return blob;
+    }
+
+    /**
+     * Return the blob id the stat cache holds for PATH with stat data
+     * STAT, or null if the file must be read.
+     * @param path
+     * @param stat
+     * @return blobSHA1
+     */
+    String cachedBlob(String path, Stat stat) {
+        Entry e = entries.get(path);
+        if (e != null && !e.isRemoved() && e.stat.matches(stat)
+                && e.stat.mtime < indexTime) {
+            return e.blob;
+        }
+        return null;
+    }
+
+    /**
+     * Record in the stat cache that the working copy of PATH, with stat
+     * data STAT, was just read and holds blob BLOB. Untracked files are
+     * not cached, since retainTracked would only drop them again.
+     * @param path
+     * @param blob
+     * @param stat
+     */
+    void refresh(String path, String blob, Stat stat) {
+        if (!isTracked(path)) {
+            return;
+        }
+        change();
+        Entry e = entries.get(path);
+        if (!e.isStaged()) {
+            entries.put(path, new Entry(path, blob, stat, 0, e.head));
+            cacheChanged = true;
+        } else if (e.isAdded() && e.blob.equals(blob)) {
+            entries.put(path, new Entry(path, blob, stat, ADD, e.head));
+            cacheChanged = true;
+        }
+    }
+
+    /**
+     * Record that the working copy FILE of PATH holds blob BLOB, as just
+     * written by a checkout.
+     * @param path
+     * @param blob
+     * @param file
+     */
+    void cache(String path, String blob, File file) {
+        change();
+        Entry e = entries.get(path);
+        if (e == null || !e.isStaged()) {
+            entries.put(path, new Entry(path, blob, Stat.of(file), 0,
+                    e == null ? null : e.head));
+            cacheChanged = true;
+        }
+    }
+
+    /**
+     * Drop stat cache entries for files that are not tracked.
+     */
+    void retainTracked() {
+        change();
+        for (Entry e : new ArrayList<>(entries.values())) {
+            if (!e.isStaged() && e.head == null) {
+                entries.remove(e.path);
+                cacheChanged = true;
+            }
+        }
+    }
+
+    /**
+     * Record the files of the tree TREE as the head blobs. Only the
+     * differences from the tree recorded before are applied.
+     * @param tree
+     */
+    void syncHead(String tree) {
+        if (tree.equals(headTree)) {
+            return;
+        }
+        change();
+        if (headTree == null) {
+            for (Entry e : new ArrayList<>(entries.values())) {
+                setHead(e.path, null);
+            }
+            for (Map.Entry<String, String> file
+                    : Tree.flatten(tree).entrySet()) {
+                setHead(file.getKey(), file.getValue());
+            }
+        } else {
+            TreeMap<String, String> before = new TreeMap<>();
+            TreeMap<String, String> after = new TreeMap<>();
+            Tree.diff(headTree, tree, before, after);
+            for (String path : before.keySet()) {
+                setHead(path, after.get(path));
+            }
+            for (Map.Entry<String, String> file : after.entrySet()) {
+                setHead(file.getKey(), file.getValue());
+            }
+        }
+        headTree = tree;
+        cacheChanged = true;
+    }
+
+    /**
+     * Record HEAD as the head blob of PATH, or that PATH is not tracked if
+     * HEAD is null.
+     * @param path
+     * @param head
+     */
+    private void setHead(String path, String head) {
+        Entry e = entries.get(path);
+        if (e == null) {
+            if (head != null) {
+                entries.put(path, new Entry(path, head, NO_STAT, 0, head));
+            }
+        } else if (head == null && !e.isStaged()) {
+            entries.remove(path);
+        } else {
+            entries.put(path, new Entry(path, e.blob, e.stat, e.flags,
+                    head));
+        }
+    }
+
+    /**
+     * Return the blob id of PATH in the head commit, or null if it is not
+     * tracked.
+     * @param path
+     * @return blobSHA1
+     */
+    String headBlob(String path) {
+        Entry e = entries.get(path);
+        return e == null ? null : e.head;
+    }
+
+    /**
+     * Files tracked in the head commit, with their blob ids, in path
+     * order.
+     * @return map
+     */
+    TreeMap<String, String> headBlobs() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Entry e : entries.values()) {
+            if (e.head != null) {
+                result.put(e.path, e.head);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stage PATH for addition as blob BLOB, read from a file whose stat
+     * data were STAT before it was read.
+     * @param path
+     * @param blob
+     * @param stat
+     */
+    void stageAdd(String path, String blob, Stat stat) {
+        change();
+        entries.put(path, new Entry(path, blob, stat, ADD, headBlob(path)));
+    }
+
+    /**
+     * Stage PATH, tracked as blob BLOB, for removal.
+     * @param path
+     * @param blob
+     */
+    void stageRemove(String path, String blob) {
+        change();
+        entries.put(path, new Entry(path, blob, NO_STAT, REMOVE,
+                headBlob(path)));
+    }
+
+    /**
+     * Unstage PATH, keeping what is known about its working copy.
+     * @param path
+     */
+    void unstage(String path) {
+        change();
+        Entry e = entries.get(path);
+        if (e != null && e.isAdded()) {
+            entries.put(path, new Entry(path, e.blob, e.stat, 0, e.head));
+        } else if (e != null && e.head != null) {
+            entries.put(path, new Entry(path, e.head, NO_STAT, 0, e.head));
+        } else {
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * Unstage everything. Files staged for addition stay in the stat
+     * cache.
+     */
+    void clear() {
+        for (Entry e : new ArrayList<>(entries.values())) {
+            if (e.isStaged()) {
+                unstage(e.path);
+            }
+        }
+    }
+
+    /**
+     * Return true iff nothing is staged.
+     * @return boolean
+     */
+    boolean isEmpty() {
+        for (Entry e : entries.values()) {
+            if (e.isStaged()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the entry for PATH, or null.
+     * @param path
+     * @return entry
+     */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Return true iff PATH is tracked in the head commit or staged.
+     * @param path
+     * @return boolean
+     */
+    boolean isTracked(String path) {
+        Entry e = entries.get(path);
+        return e != null && (e.isStaged() || e.head != null);
+    }
+
+    /**
+     * Return true iff PATH is staged for addition.
+     * @param path
+     * @return boolean
+     */
+    boolean isAdded(String path) {
+        Entry e = entries.get(path);
+        return e != null && e.isAdded();
+    }
+
+    /**
+     * Return true iff PATH is staged for removal.
+     * @param path
+     * @return boolean
+     */
+    boolean isRemoved(String path) {
+        Entry e = entries.get(path);
+        return e != null && e.isRemoved();
+    }
+
+    /**
+     * All entries, in path order.
+     * @return entries
+     */
+    Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Paths staged for addition, with their blob ids, in path order.
+     * @return map
+     */
+    TreeMap<String, String> added() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Entry e : entries.values()) {
+            if (e.isAdded()) {
+                result.put(e.path, e.blob);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Paths staged for removal, in path order.
+     * @return map
+     */
+    TreeMap<String, String> removed() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Entry e : entries.values()) {
+            if (e.isRemoved()) {
+                result.put(e.path, e.blob);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,262 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the staging index and the stat cache behind status.
+ * @author Nora Povejsil
+ */
+public class StagingIndexTest {
+    /**
+     * Magic number of the index file.
+     */
+    private static final int MAGIC = 0x47494458;
+
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * The working file NAME.
+     * @param name
+     * @return file
+     */
+    private static File file(String name) {
+        return Utils.join(Command.CWD, name);
+    }
+
+    /**
+     * The lines of the section TITLE of the status output STATUS.
+     * @param status
+     * @param title
+     * @return lines
+     */
+    private static List<String> section(String status, String title) {
+        String start = "=== " + title + " ===\n";
+        int from = status.indexOf(start);
+        assertTrue(title, from >= 0);
+        from += start.length();
+        String body = status.substring(from, status.indexOf("\n\n", from - 1)
+                + 1);
+        return body.isEmpty() ? List.of() : Arrays.asList(body.split("\n"));
+    }
+
+    /**
+     * Staged additions and removals, head blobs and cached stat data are
+     * written and read back.
+     */
+    @Test
+    public void roundTrip() {
+        repo.write("a.txt", "a\n");
+        repo.write("b.txt", "b\n");
+        repo.write("c.txt", "c\n");
+        repo.commit("abc", "a.txt", "b.txt", "c.txt");
+        String a = ObjectStore.hash(file("a.txt"));
+        String c = ObjectStore.hash(file("c.txt"));
+        repo.write("a.txt", "changed\n");
+        repo.quiet("add", "a.txt");
+        repo.quiet("rm", "b.txt");
+        repo.run("status");
+        StagingIndex index = StagingIndex.read();
+        assertTrue(index.isAdded("a.txt"));
+        assertEquals(ObjectStore.hash(file("a.txt")),
+                index.added().get("a.txt"));
+        assertEquals(a, index.headBlob("a.txt"));
+        assertTrue(index.isRemoved("b.txt"));
+        assertEquals(List.of("b.txt"),
+                List.copyOf(index.removed().keySet()));
+        assertFalse(index.get("c.txt").isStaged());
+        assertEquals(c, index.get("c.txt").getBlob());
+        assertEquals(c, index.headBlob("c.txt"));
+        assertEquals(StagingIndex.MODE_FILE, index.get("c.txt").getMode());
+        assertEquals(3, ByteBuffer.wrap(Utils.readContents(
+                StagingIndex.INDEX_FILE)).getInt(Integer.BYTES));
+        repo.quiet("commit", "next");
+        index = StagingIndex.read();
+        assertTrue(index.isEmpty());
+        assertNull(index.headBlob("b.txt"));
+        assertEquals(index.get("a.txt").getBlob(),
+                index.headBlob("a.txt"));
+    }
+
+    /**
+     * An index file of VERSION with one entry staging PATH as BLOB, with
+     * stat data STAT, and flags FLAGS.
+     * @param version
+     * @param path
+     * @param blob
+     * @param stat
+     * @param flags
+     * @return bytes
+     */
+    private static byte[] oldIndex(int version, String path, String blob,
+                                   long[] stat, int flags) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(version);
+            out.writeInt(1);
+            byte[] name = path.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+            out.write(Utils.uidToBytes(blob));
+            out.writeInt(StagingIndex.MODE_FILE);
+            out.writeLong(stat[0]);
+            out.writeLong(stat[1]);
+            if (version >= 2) {
+                out.writeLong(stat[2]);
+            }
+            out.writeByte(flags);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Index files of versions 1 and 2, without head blobs, are read, and
+     * rewritten as version 3.
+     */
+    @Test
+    public void oldVersions() {
+        repo.write("a.txt", "a\n");
+        repo.commit("a", "a.txt");
+        String a = ObjectStore.hash(file("a.txt"));
+        repo.write("n.txt", "new\n");
+        String n = ObjectStore.ingest(file("n.txt"));
+        for (int version = 1; version <= 2; version += 1) {
+            Utils.writeContents(StagingIndex.INDEX_FILE, oldIndex(version,
+                    "n.txt", n, new long[] {4, 0, 0}, StagingIndex.ADD));
+            StagingIndex index = StagingIndex.read();
+            assertEquals(n, index.added().get("n.txt"));
+            assertNull(index.headBlob("a.txt"));
+            index = Command.readIndex();
+            assertEquals(a, index.headBlob("a.txt"));
+            List<String> staged = section(repo.run("status"), "Staged Files");
+            assertEquals(List.of("n.txt"), staged);
+            index.write();
+            assertEquals(3, ByteBuffer.wrap(Utils.readContents(
+                    StagingIndex.INDEX_FILE)).getInt(Integer.BYTES));
+        }
+        Utils.writeContents(StagingIndex.INDEX_FILE, oldIndex(4, "n.txt", n,
+                new long[] {4, 0, 0}, StagingIndex.ADD));
+        try {
+            StagingIndex.read();
+            fail("read an index of version 4");
+        } catch (GitletException excp) {
+            assertEquals("corrupt staging index", excp.getMessage());
+        }
+    }
+
+    /**
+     * The stat cache vouches for a file only if it was modified before
+     * the index was written. A file rewritten within the same tick as the
+     * index, keeping its stat data, is read again.
+     */
+    @Test
+    public void racilyClean() {
+        repo.write("a.txt", "aaaa\n");
+        repo.commit("a", "a.txt");
+        File a = file("a.txt");
+        long tick = (System.currentTimeMillis() / 1000 - 60) * 1000;
+        a.setLastModified(tick);
+        StagingIndex.Stat stat = StagingIndex.Stat.of(a);
+        String blob = ObjectStore.hash(a);
+        repo.run("status");
+
+        repo.write("a.txt", "bbbb\n");
+        a.setLastModified(tick);
+        assertTrue(StagingIndex.Stat.of(a).matches(stat));
+        StagingIndex.INDEX_FILE.setLastModified(tick + 1000);
+        assertEquals(blob, StagingIndex.read().workingBlob("a.txt", a));
+        StagingIndex.INDEX_FILE.setLastModified(tick);
+        StagingIndex index = StagingIndex.read();
+        assertEquals(ObjectStore.hash(a), index.workingBlob("a.txt", a));
+        assertNotEquals(blob, index.workingBlob("a.txt", a));
+        assertEquals(List.of("a.txt (modified)"),
+                section(repo.run("status"), "Modifications Not Staged "
+                        + "For Commit"));
+    }
+
+    /**
+     * A file staged by add is cached with the stat data taken before it
+     * was read, so a change made while it was hashed is still seen.
+     */
+    @Test
+    public void addCachesStatBeforeHashing() {
+        long tick = (System.currentTimeMillis() / 1000 - 60) * 1000;
+        repo.write("a.txt", "aaaa\n");
+        file("a.txt").setLastModified(tick);
+        StagingIndex index = StagingIndex.read();
+        WorkTree tree = WorkTree.scan(index, List.of("a.txt"), true);
+        repo.write("a.txt", "bbbb\n");
+        file("a.txt").setLastModified(tick + 5000);
+        index.stageAdd("a.txt", tree.blob("a.txt"), tree.stat("a.txt"));
+        index.write();
+        String status = repo.run("status");
+        assertEquals(List.of("a.txt"), section(status, "Staged Files"));
+        assertEquals(List.of("a.txt (modified)"), section(status,
+                "Modifications Not Staged For Commit"));
+    }
+
+    /**
+     * Status reports modified, deleted and untracked files, and files
+     * staged and then changed.
+     */
+    @Test
+    public void statusSections() {
+        repo.write("a.txt", "a\n");
+        repo.write("b.txt", "b\n");
+        repo.write("c.txt", "c\n");
+        repo.commit("abc", "a.txt", "b.txt", "c.txt");
+        String status = repo.run("status");
+        assertEquals(List.of(), section(status,
+                "Modifications Not Staged For Commit"));
+        repo.write("a.txt", "a2\n");
+        file("b.txt").delete();
+        repo.write("d.txt", "d\n");
+        repo.quiet("add", "d.txt");
+        repo.write("d.txt", "d2\n");
+        repo.write("e.txt", "e\n");
+        status = repo.run("status");
+        assertEquals(List.of("d.txt"), section(status, "Staged Files"));
+        assertEquals(List.of("a.txt (modified)", "b.txt (deleted)",
+                "d.txt (modified)"), section(status,
+                "Modifications Not Staged For Commit"));
+        List<String> untracked = section(status, "Untracked Files");
+        assertTrue(untracked.contains("e.txt"));
+        assertFalse(untracked.contains("a.txt"));
+        assertFalse(untracked.contains("d.txt"));
+    }
+}
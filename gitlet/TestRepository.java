@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * A scratch repository in CWD for the unit tests. Commands run in this
+ * process, as the daemon runs them, with their output captured. The
+ * working files a test writes are remembered, and they and GITLET_FOLDER
+ * are deleted when it is done. A test refuses to start where a repository
+ * already exists, so it never deletes one it did not make.
+ * @author Nora Povejsil
+ */
+class TestRepository {
+    /**
+     * Milliseconds per day.
+     */
+    static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Working files written by the test.
+     */
+    private final List<String> files = new ArrayList<>();
+
+    /**
+     * A new repository in CWD, with only the initial commit.
+     */
+    TestRepository() {
+        assertFalse("a repository already exists here",
+                Command.GITLET_FOLDER.exists());
+        run("init");
+    }
+
+    /**
+     * Run the command ARGS and return what it printed.
+     * @param args
+     * @return output
+     */
+    String run(String... args) {
+        PrintStream oldOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+        try {
+            Config.reload();
+            Main.run(args);
+        } finally {
+            System.setOut(oldOut);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Run the command ARGS and check that it printed nothing.
+     * @param args
+     */
+    void quiet(String... args) {
+        assertEquals(String.join(" ", args), "", run(args));
+    }
+
+    /**
+     * Write CONTENTS to the working file NAME, making its directories.
+     * @param name
+     * @param contents
+     */
+    void write(String name, String contents) {
+        File file = Utils.join(Command.CWD, name);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        Utils.writeContents(file, contents);
+        files.add(name);
+    }
+
+    /**
+     * The contents of the working file NAME, or null if there is none.
+     * @param name
+     * @return contents
+     */
+    String read(String name) {
+        File file = Utils.join(Command.CWD, name);
+        return file.isFile() ? Utils.readContentsAsString(file) : null;
+    }
+
+    /**
+     * Stage the files NAMES and commit them with MESSAGE, and return the
+     * id of the new commit.
+     * @param message
+     * @param names
+     * @return commitSHA1
+     */
+    String commit(String message, String... names) {
+        quiet(prepend("add", names));
+        quiet("commit", message);
+        return head();
+    }
+
+    /**
+     * The id of the head commit.
+     * @return commitSHA1
+     */
+    String head() {
+        return Command.getRecentCommit();
+    }
+
+    /**
+     * The id of the commit the branch NAME points to.
+     * @param name
+     * @return commitSHA1
+     */
+    String branch(String name) {
+        return Utils.readContentsAsString(Utils.join(Command.BRANCHES, name));
+    }
+
+    /**
+     * Import the history STREAM, in the format read by the import
+     * command, and return what was printed.
+     * @param stream
+     * @return output
+     */
+    String importHistory(String stream) {
+        InputStream oldIn = System.in;
+        System.setIn(new ByteArrayInputStream(
+                stream.getBytes(StandardCharsets.UTF_8)));
+        try {
+            return run("import");
+        } finally {
+            System.setIn(oldIn);
+        }
+    }
+
+    /**
+     * Set the time of every loose object and pack to DAYS days ago.
+     * @param days
+     */
+    void age(int days) {
+        long time = System.currentTimeMillis() - days * DAY;
+        for (File dir : new File[] {Command.COMMIT_DIR, Command.TREES,
+                                    Command.BLOBS}) {
+            Iterator<String> ids = ObjectStore.loose(dir);
+            while (ids.hasNext()) {
+                ObjectStore.file(dir, ids.next()).setLastModified(time);
+            }
+        }
+        for (Pack pack : Pack.all()) {
+            pack.file().setLastModified(time);
+        }
+    }
+
+    /**
+     * Delete the repository and the working files written.
+     */
+    void delete() {
+        for (Pack pack : Pack.all()) {
+            pack.delete();
+        }
+        for (String name : files) {
+            Command.deleteWorkingFile(name);
+        }
+        try (Stream<Path> paths = Files.walk(
+                Command.GITLET_FOLDER.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(
+                    path -> path.toFile().delete());
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /**
+     * A commit command of an import stream, on BRANCH with mark MARK,
+     * made at SECONDS with MESSAGE, whose parents are the marks PARENTS.
+     * With no parents, the commit follows BRANCH.
+     * @param branch
+     * @param mark
+     * @param seconds
+     * @param message
+     * @param parents
+     * @return command
+     */
+    static String importCommit(String branch, int mark, long seconds,
+                               String message, int... parents) {
+        StringBuilder result = new StringBuilder();
+        result.append("commit ").append(branch).append("\nmark :")
+                .append(mark).append("\ncommitter ").append(seconds)
+                .append(" +0000\ndata ")
+                .append(message.getBytes(StandardCharsets.UTF_8).length)
+                .append("\n").append(message).append("\n");
+        for (int i = 0; i < parents.length; i += 1) {
+            result.append(i == 0 ? "from :" : "merge :").append(parents[i])
+                    .append("\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * A reset command of an import stream, pointing BRANCH at the commit
+     * marked MARK.
+     * @param branch
+     * @param mark
+     * @return command
+     */
+    static String importReset(String branch, int mark) {
+        return "reset " + branch + "\nfrom :" + mark + "\n";
+    }
+
+    /**
+     * FIRST followed by REST.
+     * @param first
+     * @param rest
+     * @return args
+     */
+    static String[] prepend(String first, String... rest) {
+        String[] result = new String[rest.length + 1];
+        result[0] = first;
+        System.arraycopy(rest, 0, result, 1, rest.length);
+        return result;
+    }
+}
@@ -0,0 +1,354 @@
+package gitlet;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A snapshot of one directory: its files and subdirectories, sorted by
+ * name, each with the id of a blob or of another tree. A tree is stored in
+ * TREES under the SHA-1 of its encoding, so equal directories are stored
+ * once and shared by every commit that contains them. A new commit writes
+ * only the trees along the paths it changed, and two commits can be
+ * compared without looking inside any subtree whose id they share.
+ * <p>
+ * An encoded tree is a magic number and entry count, then for each entry
+ * a type byte, the length-prefixed name and the binary id.
+ * @author Nora Povejsil
+ */
+class Tree {
+    /**
+     * Magic number at the start of an encoded tree ("GTRE").
+     */
+    private static final int MAGIC = 0x47545245;
+
+    /**
+     * Entry type: a file.
+     */
+    private static final byte BLOB = 0;
+
+    /**
+     * Entry type: a subdirectory.
+     */
+    private static final byte TREE = 1;
+
+    /**
+     * Separator between the names in a path.
+     */
+    static final char SEPARATOR = '/';
+
+    /**
+     * Blob or tree ids by name, in name order.
+     */
+    private final TreeMap<String, String> ids = new TreeMap<>();
+
+    /**
+     * Names of the entries that are subdirectories.
+     */
+    private final TreeSet<String> dirs = new TreeSet<>();
+
+    /**
+     * Decoded trees by id.
+     */
+    static final ObjectCache<Tree> CACHE = new ObjectCache<>("trees");
+
+    /**
+     * Read the tree ID. Trees come from CACHE and are shared, so they must
+     * not be changed.
+     * @param id
+     * @return tree
+     */
+    static Tree read(String id) {
+        return CACHE.get(id, Tree::load);
+    }
+
+    /**
+     * Read and decode the tree ID.
+     * @param id
+     * @return tree
+     */
+    private static Tree load(String id) {
+        byte[] data = ObjectStore.read(Command.TREES, id);
+        if (data == null) {
+            throw Utils.error("Tree %s is missing.", id);
+        }
+        Tree tree = new Tree();
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data);
+            if (in.getInt() != MAGIC) {
+                throw Utils.error("Tree %s is corrupt.", id);
+            }
+            int count = in.getInt();
+            for (int i = 0; i < count; i += 1) {
+                byte type = in.get();
+                int len = Short.toUnsignedInt(in.getShort());
+                String name = new String(data, in.position(), len,
+                        StandardCharsets.UTF_8);
+                in.position(in.position() + len);
+                tree.ids.put(name, Utils.bytesToUid(data, in.position()));
+                in.position(in.position() + Utils.UID_BYTES);
+                if (type == TREE) {
+                    tree.dirs.add(name);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException excp) {
+            throw Utils.error("Tree %s is corrupt.", id);
+        }
+        return tree;
+    }
+
+    /**
+     * Store this tree, unless an equal one is already stored, and return
+     * its id. The tree is then cached, so it must not be changed.
+     * @return id
+     */
+    String write() {
+        List<byte[]> names = new ArrayList<>(ids.size());
+        int size = 2 * Integer.BYTES;
+        for (String name : ids.keySet()) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            names.add(bytes);
+            size += 1 + Short.BYTES + bytes.length + Utils.UID_BYTES;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(ids.size());
+        int i = 0;
+        for (Map.Entry<String, String> entry : ids.entrySet()) {
+            byte[] name = names.get(i);
+            if (name.length > 0xffff) {
+                throw Utils.error("File name too long.");
+            }
+            out.put(dirs.contains(entry.getKey()) ? TREE : BLOB);
+            out.putShort((short) name.length).put(name);
+            out.put(Utils.uidToBytes(entry.getValue()));
+            i += 1;
+        }
+        byte[] data = out.array();
+        String id = Utils.sha1(data);
+        ObjectStore.write(Command.TREES, id, data);
+        CACHE.put(id, this);
+        return id;
+    }
+
+    /**
+     * Store the trees for the files in BLOBS, which maps paths to blob
+     * ids, and return the id of the root.
+     * @param blobs
+     * @return id
+     */
+    static String write(Map<String, String> blobs) {
+        return update(null, blobs);
+    }
+
+    /**
+     * Return the id of the tree that is ROOT with the changes in CHANGES
+     * applied, storing only the trees along the changed paths. CHANGES
+     * maps paths to their new blob ids, or to null for paths to remove.
+     * ROOT may be null for an empty tree.
+     * @param root
+     * @param changes
+     * @return id
+     */
+    static String update(String root, Map<String, String> changes) {
+        String id = updateTree(root, changes);
+        return id == null ? new Tree().write() : id;
+    }
+
+    /**
+     * As for update, but return null if the result is empty.
+     * @param id
+     * @param changes
+     * @return id
+     */
+    private static String updateTree(String id, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return id;
+        }
+        Tree tree = new Tree();
+        if (id != null) {
+            Tree old = read(id);
+            tree.ids.putAll(old.ids);
+            tree.dirs.addAll(old.dirs);
+        }
+        TreeMap<String, TreeMap<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree.ids.remove(path);
+                } else {
+                    tree.ids.put(path, change.getValue());
+                }
+                tree.dirs.remove(path);
+            } else {
+                below.computeIfAbsent(path.substring(0, slash),
+                        k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> dir
+                : below.entrySet()) {
+            String name = dir.getKey();
+            String sub = tree.dirs.contains(name) ? tree.ids.get(name)
+                    : null;
+            String newSub = updateTree(sub, dir.getValue());
+            if (newSub == null) {
+                if (tree.dirs.contains(name)) {
+                    tree.ids.remove(name);
+                    tree.dirs.remove(name);
+                }
+            } else {
+                tree.ids.put(name, newSub);
+                tree.dirs.add(name);
+            }
+        }
+        return tree.ids.isEmpty() ? null : tree.write();
+    }
+
+    /**
+     * Return the id of the blob at PATH in the tree ID, or null if there is
+     * no such file, reading only the trees along PATH.
+     * @param id
+     * @param path
+     * @return blobSHA1
+     */
+    static String lookup(String id, String path) {
+        Tree tree = read(id);
+        int start = 0;
+        int slash = path.indexOf(SEPARATOR);
+        while (slash >= 0) {
+            String name = path.substring(start, slash);
+            if (!tree.dirs.contains(name)) {
+                return null;
+            }
+            tree = read(tree.ids.get(name));
+            start = slash + 1;
+            slash = path.indexOf(SEPARATOR, start);
+        }
+        String name = path.substring(start);
+        return tree.dirs.contains(name) ? null : tree.ids.get(name);
+    }
+
+    /**
+     * All files in the tree ID, by path.
+     * @param id
+     * @return blobs
+     */
+    static TreeMap<String, String> flatten(String id) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(id, "", result);
+        return result;
+    }
+
+    /**
+     * Put the files in the tree ID into RESULT, their paths starting with
+     * PREFIX.
+     * @param id
+     * @param prefix
+     * @param result
+     */
+    private static void flatten(String id, String prefix,
+                                TreeMap<String, String> result) {
+        Tree tree = read(id);
+        for (Map.Entry<String, String> entry : tree.ids.entrySet()) {
+            String path = prefix + entry.getKey();
+            if (tree.dirs.contains(entry.getKey())) {
+                flatten(entry.getValue(), path + SEPARATOR, result);
+            } else {
+                result.put(path, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Add the tree ID, and every tree below it that is not in TREES, to
+     * TREES, and put the blobs of the trees added into BLOBS, mapped to
+     * their paths starting with PREFIX unless they are already there. A
+     * tree already in TREES is not read again, so threads marking trees
+     * that share subtrees may share TREES and BLOBS. Trees are read
+     * without going through CACHE.
+     * @param id
+     * @param prefix
+     * @param trees
+     * @param blobs
+     */
+    static void mark(String id, String prefix, Set<String> trees,
+                     Map<String, String> blobs) {
+        if (!trees.add(id)) {
+            return;
+        }
+        Tree tree = load(id);
+        for (Map.Entry<String, String> entry : tree.ids.entrySet()) {
+            String path = prefix + entry.getKey();
+            if (tree.dirs.contains(entry.getKey())) {
+                mark(entry.getValue(), path + SEPARATOR, trees, blobs);
+            } else {
+                blobs.putIfAbsent(entry.getValue(), path);
+            }
+        }
+    }
+
+    /**
+     * Compare the trees A and B, either of which may be null, and put
+     * every file whose blob differs into BEFORE, with its blob id in A,
+     * and into AFTER, with its blob id in B. A file that is missing from
+     * one side is missing from the corresponding map. Subtrees with equal
+     * ids are skipped without being read.
+     * @param a
+     * @param b
+     * @param before
+     * @param after
+     */
+    static void diff(String a, String b, Map<String, String> before,
+                     Map<String, String> after) {
+        diff(a, b, "", before, after);
+    }
+
+    /**
+     * As for diff, with paths starting with PREFIX.
+     * @param a
+     * @param b
+     * @param prefix
+     * @param before
+     * @param after
+     */
+    private static void diff(String a, String b, String prefix,
+                             Map<String, String> before,
+                             Map<String, String> after) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Tree ta = a == null ? new Tree() : read(a);
+        Tree tb = b == null ? new Tree() : read(b);
+        TreeSet<String> names = new TreeSet<>(ta.ids.keySet());
+        names.addAll(tb.ids.keySet());
+        for (String name : names) {
+            String ida = ta.ids.get(name);
+            String idb = tb.ids.get(name);
+            boolean dira = ta.dirs.contains(name);
+            boolean dirb = tb.dirs.contains(name);
+            if (dira == dirb && ida != null && ida.equals(idb)) {
+                continue;
+            }
+            String path = prefix + name;
+            if (dira || dirb) {
+                diff(dira ? ida : null, dirb ? idb : null,
+                        path + SEPARATOR, before, after);
+            }
+            if (ida != null && !dira) {
+                before.put(path, ida);
+            }
+            if (idb != null && !dirb) {
+                after.put(path, idb);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of commits as full snapshots over shared trees.
+ * @author Nora Povejsil
+ */
+public class TreeTest {
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * The files of the commit ID, by path.
+     * @param id
+     * @return blobs
+     */
+    private static TreeMap<String, String> files(String id) {
+        return Command.readCommit(id).getBlobs();
+    }
+
+    /**
+     * The number of loose trees stored.
+     * @return count
+     */
+    private static int looseTrees() {
+        return count(Command.TREES);
+    }
+
+    /**
+     * The number of files below DIR.
+     * @param dir
+     * @return count
+     */
+    private static int count(File dir) {
+        File[] files = dir.listFiles();
+        int result = 0;
+        if (files != null) {
+            for (File file : files) {
+                result += file.isDirectory() ? count(file) : 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Each commit holds every file of its parent, as well as those it
+     * changed, and rm drops a file from the next commit.
+     */
+    @Test
+    public void fullSnapshots() {
+        repo.write("a.txt", "a\n");
+        String first = repo.commit("a", "a.txt");
+        repo.write("b.txt", "b\n");
+        String second = repo.commit("b", "b.txt");
+        assertEquals(files(first).get("a.txt"),
+                files(second).get("a.txt"));
+        assertEquals(Set.of("a.txt", "b.txt"), files(second).keySet());
+        assertEquals(Set.of("a.txt"), files(first).keySet());
+        repo.quiet("rm", "a.txt");
+        repo.quiet("commit", "no a");
+        String third = repo.head();
+        assertEquals(Set.of("b.txt"), files(third).keySet());
+        assertNull(Command.readCommit(third).getBlob("a.txt"));
+        repo.quiet("reset", first);
+        assertEquals("a\n", repo.read("a.txt"));
+        assertNull(repo.read("b.txt"));
+    }
+
+    /**
+     * A merge commit holds the files of both sides.
+     */
+    @Test
+    public void mergeSnapshot() {
+        repo.write("base.txt", "base\n");
+        repo.commit("base", "base.txt");
+        repo.quiet("branch", "other");
+        repo.write("m/one.txt", "master\n");
+        repo.commit("master", "m/one.txt");
+        repo.quiet("checkout", "other");
+        repo.write("o/two.txt", "other\n");
+        repo.commit("other", "o/two.txt");
+        repo.quiet("checkout", "master");
+        repo.quiet("merge", "other");
+        Commit merge = Command.readCommit(repo.head());
+        assertNotNull(merge.getsecondParent());
+        assertEquals(Set.of("base.txt", "m/one.txt", "o/two.txt"),
+                merge.getBlobs().keySet());
+        assertEquals(files(repo.branch("other")).get("o/two.txt"),
+                merge.getBlob("o/two.txt"));
+    }
+
+    /**
+     * A change deep in the tree writes one new tree for each directory
+     * along its path, and shares every other tree with the old one.
+     */
+    @Test
+    public void sharedTrees() {
+        String f = Utils.sha1("f");
+        Map<String, String> files = new TreeMap<>();
+        files.put("d1/d2/d3/f.txt", f);
+        files.put("d1/g.txt", Utils.sha1("g"));
+        files.put("x/y.txt", Utils.sha1("y"));
+        String first = Tree.write(files);
+        int before = looseTrees();
+        String f2 = Utils.sha1("f2");
+        String second = Tree.update(first, Map.of("d1/d2/d3/f.txt", f2));
+        assertEquals(before + 4, looseTrees());
+        files.put("d1/d2/d3/f.txt", f2);
+        assertEquals(second, Tree.write(files));
+        assertEquals(before + 4, looseTrees());
+
+        Map<String, String> was = new TreeMap<>();
+        Map<String, String> now = new TreeMap<>();
+        Tree.diff(first, second, was, now);
+        assertEquals(Map.of("d1/d2/d3/f.txt", f), was);
+        assertEquals(Map.of("d1/d2/d3/f.txt", f2), now);
+    }
+
+    /**
+     * Updating a tree adds, changes and removes files, dropping
+     * directories that become empty, and lookup finds only files.
+     */
+    @Test
+    public void update() {
+        String a = Utils.sha1("a");
+        String b = Utils.sha1("b");
+        Map<String, String> files = new TreeMap<>();
+        files.put("a", a);
+        files.put("p/q/b", b);
+        files.put("p/c", a);
+        String root = Tree.write(files);
+        assertEquals(files, Tree.flatten(root));
+        assertEquals(b, Tree.lookup(root, "p/q/b"));
+        assertNull(Tree.lookup(root, "p/q"));
+        assertNull(Tree.lookup(root, "p/x"));
+        assertEquals(root, Tree.update(root, new HashMap<>()));
+
+        Map<String, String> changes = new HashMap<>();
+        changes.put("p/q/b", null);
+        changes.put("p/c", b);
+        changes.put("d", a);
+        String updated = Tree.update(root, changes);
+        Map<String, String> expected = new TreeMap<>();
+        expected.put("a", a);
+        expected.put("d", a);
+        expected.put("p/c", b);
+        assertEquals(expected, Tree.flatten(updated));
+        assertEquals(updated, Tree.write(expected));
+        assertNull(Tree.lookup(updated, "p/q/b"));
+
+        Map<String, String> all = new HashMap<>();
+        for (String path : expected.keySet()) {
+            all.put(path, null);
+        }
+        assertEquals(new TreeMap<>(), Tree.flatten(Tree.update(updated,
+                all)));
+    }
+}
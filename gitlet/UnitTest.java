@@ -12,7 +12,11 @@ public class UnitTest {
     /** Run the JUnit tests in the loa package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        System.exit(textui.runClasses(UnitTest.class));
+        System.exit(textui.runClasses(UnitTest.class, CommitGraphTest.class,
+                MergeBaseTest.class, StagingIndexTest.class, WorkTreeTest.class,
+                CommitIndexTest.class, MessageIndexTest.class, TreeTest.class,
+                BatchTest.class, FastImportTest.class, PackTest.class,
+                DeltaTest.class, GarbageCollectorTest.class));
     }
 
     /** A dummy test to avoid complaint. */
@@ -0,0 +1,275 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable snapshot of the working directory: the blob id of every
+ * plain file beneath CWD, by relative path. Files the stat cache vouches
+ * for are not read; the rest are hashed in parallel on a ForkJoinPool.
+ * Untracked files are only listed, and are read only if their blob id is
+ * asked for. A command takes one snapshot and uses it for all of its
+ * checks.
+ * @author Nora Povejsil
+ */
+class WorkTree {
+    /**
+     * Config key: number of threads used to hash files.
+     */
+    static final String THREADS = "threads";
+
+    /**
+     * Fewest files to hash before a pool is worth starting.
+     */
+    private static final int PARALLEL_THRESHOLD = 8;
+
+    /**
+     * Blob ids by file name, for the files that were hashed.
+     */
+    private final Map<String, String> blobs;
+
+    /**
+     * Stat data by file name, taken before each file in BLOBS was hashed.
+     */
+    private final Map<String, StagingIndex.Stat> stats;
+
+    /**
+     * Names of the untracked files, which were not hashed.
+     */
+    private final Set<String> untracked;
+
+    /**
+     * A snapshot of the files BLOBS1, whose stat data before hashing were
+     * STATS1, and the untracked files UNTRACKED1.
+     * @param blobs1
+     * @param stats1
+     * @param untracked1
+     */
+    private WorkTree(TreeMap<String, String> blobs1,
+                     TreeMap<String, StagingIndex.Stat> stats1,
+                     TreeSet<String> untracked1) {
+        blobs = Collections.unmodifiableMap(blobs1);
+        stats = Collections.unmodifiableMap(stats1);
+        untracked = Collections.unmodifiableSet(untracked1);
+    }
+
+    /**
+     * Take a snapshot of CWD, refreshing the stat cache in the staging
+     * index. Only tracked files are hashed.
+     * @return snapshot
+     */
+    static WorkTree scan() {
+        StagingIndex index = Command.readIndex();
+        List<String> tracked = new ArrayList<>();
+        TreeSet<String> untracked = new TreeSet<>();
+        for (String name : fileNames()) {
+            if (index.isTracked(name)) {
+                tracked.add(name);
+            } else {
+                untracked.add(name);
+            }
+        }
+        TreeMap<String, StagingIndex.Stat> stats = new TreeMap<>();
+        WorkTree tree = new WorkTree(hashNames(index, tracked, false, stats),
+                stats, untracked);
+        index.writeIfChanged();
+        return tree;
+    }
+
+    /**
+     * Paths, relative to CWD, of all plain files beneath CWD, in
+     * subdirectories too. Gitlet directories and symbolic links to
+     * directories are not entered.
+     * @return names
+     */
+    static List<String> fileNames() {
+        List<String> names = new ArrayList<>();
+        fileNames(Command.CWD, "", names);
+        return names;
+    }
+
+    /**
+     * Add the paths of the plain files beneath DIR to NAMES, each starting
+     * with PREFIX.
+     * @param dir
+     * @param prefix
+     * @param names
+     */
+    private static void fileNames(File dir, String prefix,
+                                  List<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (int i = 0; i < files.length; i += 1) {
+            String name = files[i].getName();
+            if (files[i].isFile()) {
+                names.add(prefix + name);
+            } else if (files[i].isDirectory() && !name.equals(".gitlet")
+                    && !Files.isSymbolicLink(files[i].toPath())) {
+                fileNames(files[i], prefix + name + Tree.SEPARATOR, names);
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot of the files in CWD named NAMES, refreshing the stat
+     * cache in INDEX. If STORE, the contents of every file are also
+     * stored in BLOBS, in the same pass that hashes them.
+     * @param index
+     * @param names
+     * @param store
+     * @return snapshot
+     */
+    static WorkTree scan(StagingIndex index, List<String> names,
+                         boolean store) {
+        TreeMap<String, StagingIndex.Stat> stats = new TreeMap<>();
+        return new WorkTree(hashNames(index, names, store, stats), stats,
+                new TreeSet<>());
+    }
+
+    /**
+     * Return the blob ids of the files in CWD named NAMES, refreshing the
+     * stat cache in INDEX, as for scan, and put in STATS the stat data of
+     * each taken before it was read.
+     * @param index
+     * @param names
+     * @param store
+     * @param stats
+     * @return blobs
+     */
+    private static TreeMap<String, String> hashNames(
+            StagingIndex index, List<String> names, boolean store,
+            Map<String, StagingIndex.Stat> stats) {
+        TreeMap<String, String> blobs = new TreeMap<>();
+        List<String> misses = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        List<StagingIndex.Stat> missStats = new ArrayList<>();
+        for (String name : names) {
+            File file = Utils.join(Command.CWD, name);
+            StagingIndex.Stat stat = StagingIndex.Stat.of(file);
+            stats.put(name, stat);
+            String blob = index.cachedBlob(name, stat);
+            if (blob != null && (!store || ObjectStore.contains(blob))) {
+                blobs.put(name, blob);
+            } else {
+                misses.add(name);
+                files.add(file);
+                missStats.add(stat);
+            }
+        }
+        String[] hashed = hashAll(files, store);
+        for (int i = 0; i < hashed.length; i += 1) {
+            blobs.put(misses.get(i), hashed[i]);
+            index.refresh(misses.get(i), hashed[i], missStats.get(i));
+        }
+        return blobs;
+    }
+
+    /**
+     * Return the blob ids of FILES, hashed in parallel, storing their
+     * contents if STORE.
+     * @param files
+     * @param store
+     * @return blobSHA1s
+     */
+    private static String[] hashAll(List<File> files, boolean store) {
+        String[] result = new String[files.size()];
+        int threads = Config.getInt(THREADS,
+                Runtime.getRuntime().availableProcessors());
+        if (threads <= 1 || files.size() < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = hash(files.get(i), store);
+            }
+            return result;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, result.length).parallel()
+                    .forEach(i -> result[i] = hash(files.get(i), store)))
+                    .get();
+        } catch (InterruptedException | ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof GitletException) {
+                throw (GitletException) cause;
+            }
+            throw new GitletException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /**
+     * Return the blob id of FILE, storing its contents if STORE.
+     * @param file
+     * @param store
+     * @return blobSHA1
+     */
+    private static String hash(File file, boolean store) {
+        return store ? ObjectStore.ingest(file) : ObjectStore.hash(file);
+    }
+
+    /**
+     * Return true iff there is a file named NAME.
+     * @param name
+     * @return boolean
+     */
+    boolean contains(String name) {
+        return blobs.containsKey(name) || untracked.contains(name);
+    }
+
+    /**
+     * Return the blob id of the file named NAME, or null. An untracked
+     * file is read now, and is not cached.
+     * @param name
+     * @return blobSHA1
+     */
+    String blob(String name) {
+        if (untracked.contains(name)) {
+            return ObjectStore.hash(Utils.join(Command.CWD, name));
+        }
+        return blobs.get(name);
+    }
+
+    /**
+     * Return the stat data of the file named NAME taken before it was
+     * hashed, or null if it was not hashed. Recording these, rather than
+     * the file's stat data now, keeps a change made while it was read
+     * from being taken for the blob id.
+     * @param name
+     * @return stat
+     */
+    StagingIndex.Stat stat(String name) {
+        return stats.get(name);
+    }
+
+    /**
+     * Names of all files, in order.
+     * @return names
+     */
+    Set<String> names() {
+        TreeSet<String> result = new TreeSet<>(blobs.keySet());
+        result.addAll(untracked);
+        return result;
+    }
+
+    /**
+     * Blob ids by file name, in name order, of the files that were hashed:
+     * all of them except the untracked files of a snapshot of CWD.
+     * @return map
+     */
+    Map<String, String> blobs() {
+        return blobs;
+    }
+}
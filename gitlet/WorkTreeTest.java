@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of snapshots of the working directory.
+ * @author Nora Povejsil
+ */
+public class WorkTreeTest {
+    /**
+     * Message when an untracked file would be overwritten.
+     */
+    private static final String IN_THE_WAY = "There is an untracked file in "
+            + "the way; delete it, or add and commit it first.\n";
+
+    /**
+     * The scratch repository.
+     */
+    private TestRepository repo;
+
+    /**
+     * Make the scratch repository.
+     */
+    @Before
+    public void setUp() {
+        repo = new TestRepository();
+    }
+
+    /**
+     * Delete the scratch repository.
+     */
+    @After
+    public void tearDown() {
+        repo.delete();
+    }
+
+    /**
+     * Commit a.txt on master and u.txt, holding "other", on the branch
+     * other, and leave master checked out.
+     */
+    private void twoBranches() {
+        repo.write("a.txt", "a\n");
+        repo.commit("a", "a.txt");
+        repo.quiet("branch", "other");
+        repo.quiet("checkout", "other");
+        repo.write("u.txt", "other\n");
+        repo.commit("u", "u.txt");
+        repo.quiet("checkout", "master");
+        assertNull(repo.read("u.txt"));
+    }
+
+    /**
+     * Checks of untracked files neither hash them into the stat cache nor
+     * rewrite the staging index.
+     */
+    @Test
+    public void untrackedNotCached() {
+        twoBranches();
+        long now = System.currentTimeMillis();
+        Utils.join(Command.CWD, "a.txt").setLastModified(now - 100000);
+        repo.run("status");
+        repo.write("u.txt", "mine\n");
+        repo.write("v.txt", "untracked\n");
+        StagingIndex.INDEX_FILE.setLastModified(now - 50000);
+        byte[] before = Utils.readContents(StagingIndex.INDEX_FILE);
+        String status = repo.run("status");
+        assertTrue(status.contains("=== Untracked Files ===\n"));
+        assertTrue(status.contains("\nu.txt\n"));
+        assertEquals(IN_THE_WAY, repo.run("merge", "other"));
+        assertEquals(IN_THE_WAY, repo.run("checkout", "other"));
+        repo.run("status");
+        assertEquals(now - 50000, StagingIndex.INDEX_FILE.lastModified());
+        assertArrayEquals(before, Utils.readContents(
+                StagingIndex.INDEX_FILE));
+        StagingIndex index = StagingIndex.read();
+        assertNull(index.get("u.txt"));
+        assertNull(index.get("v.txt"));
+        assertEquals("mine\n", repo.read("u.txt"));
+    }
+
+    /**
+     * An untracked file is only in the way if the commit checked out holds
+     * it with different contents.
+     */
+    @Test
+    public void untrackedInTheWay() {
+        twoBranches();
+        repo.write("u.txt", "other\n");
+        assertEquals("", repo.run("checkout", "other"));
+        assertEquals("other\n", repo.read("u.txt"));
+        repo.quiet("checkout", "master");
+        repo.write("u.txt", "mine\n");
+        assertEquals(IN_THE_WAY, repo.run("reset", repo.branch("other")));
+        assertEquals("mine\n", repo.read("u.txt"));
+    }
+
+    /**
+     * A snapshot hashed in parallel gives every tracked file's blob id, and
+     * lists untracked files without hashing them into the snapshot.
+     */
+    @Test
+    public void parallelScan() {
+        repo.quiet("config", WorkTree.THREADS, "4");
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 40; i += 1) {
+            String name = "d" + i % 3 + "/f" + i + ".txt";
+            repo.write(name, "file " + i + "\n");
+            names.add(name);
+        }
+        repo.quiet(TestRepository.prepend("add",
+                names.toArray(new String[0])));
+        repo.quiet("commit", "files");
+        repo.write("d0/f0.txt", "changed\n");
+        repo.write("new.txt", "new\n");
+        Config.reload();
+        WorkTree tree = WorkTree.scan();
+        for (String name : names) {
+            File file = Utils.join(Command.CWD, name);
+            assertEquals(ObjectStore.hash(file), tree.blob(name));
+        }
+        assertTrue(tree.contains("new.txt"));
+        assertFalse(tree.blobs().containsKey("new.txt"));
+        assertEquals(ObjectStore.hash(Utils.join(Command.CWD, "new.txt")),
+                tree.blob("new.txt"));
+        assertTrue(tree.names().containsAll(names));
+        assertTrue(tree.names().contains("new.txt"));
+        assertFalse(tree.contains("absent.txt"));
+        assertNull(tree.blob("absent.txt"));
+    }
+}